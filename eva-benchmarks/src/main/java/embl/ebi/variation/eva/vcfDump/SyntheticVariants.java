@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+import org.opencb.datastore.core.QueryResult;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
+import org.opencb.opencga.storage.mongodb.variant.DBObjectToVariantSourceConverter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * In-memory studies and variants for the benchmarks, so that they measure the export and not the database.
+ *
+ * Every study has the same samples, and every variant is in all the studies, with a genotype for each sample. The
+ * variants are SNVs, except a fraction of them that are normalized insertions and deletions, which need a context base
+ * from the reference. The data is random, but always the same for the same parameters.
+ */
+public class SyntheticVariants {
+
+    public static final String CHROMOSOME = "20";
+    public static final int CHROMOSOME_LENGTH = 64000000;
+
+    private static final String BASES = "ACGT";
+    private static final String[] GENOTYPES = {"0|0", "0|0", "0|0", "0|1", "1|0", "1|1", "0/1", "./."};
+
+    private final int sampleCount;
+    private final int studyCount;
+    private final double indelFraction;
+
+    /**
+     * @param studyCount number of studies, and so of source entries per variant
+     * @param indelFraction from 0 (only SNVs) to 1 (only indels)
+     */
+    public SyntheticVariants(int sampleCount, int studyCount, double indelFraction) {
+        this.sampleCount = sampleCount;
+        this.studyCount = studyCount;
+        this.indelFraction = indelFraction;
+    }
+
+    public List<String> getStudyIds() {
+        List<String> studyIds = new ArrayList<>(studyCount);
+        for (int study = 0; study < studyCount; study++) {
+            studyIds.add("study" + study);
+        }
+        return studyIds;
+    }
+
+    public List<String> getSampleNames() {
+        List<String> samples = new ArrayList<>(sampleCount);
+        for (int sample = 0; sample < sampleCount; sample++) {
+            samples.add("sample" + sample);
+        }
+        return samples;
+    }
+
+    /**
+     * @return a source per study, with a VCF header like the ones stored by the pipeline
+     */
+    public Map<String, VariantSource> createSources() {
+        Map<String, VariantSource> sources = new TreeMap<>();
+        for (String studyId : getStudyIds()) {
+            String fileId = studyId + "_file";
+            VariantSource source = new VariantSource(fileId + ".vcf.gz", fileId, studyId, studyId);
+            source.getMetadata().put(DBObjectToVariantSourceConverter.HEADER_FIELD, createHeader());
+            sources.put(studyId, source);
+        }
+        return sources;
+    }
+
+    private String createHeader() {
+        StringBuilder header = new StringBuilder()
+                .append("##fileformat=VCFv4.1\n")
+                .append("##fileDate=20150101\n")
+                .append("##source=eva-benchmarks\n")
+                .append("##reference=GRCh37\n")
+                .append("##contig=<ID=").append(CHROMOSOME).append(",length=").append(CHROMOSOME_LENGTH).append(">\n")
+                .append("##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count in genotypes\">\n")
+                .append("##INFO=<ID=AF,Number=A,Type=Float,Description=\"Allele frequency\">\n")
+                .append("##INFO=<ID=AN,Number=1,Type=Integer,Description=\"Total number of alleles in called genotypes\">\n")
+                .append("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total depth\">\n")
+                .append("##FILTER=<ID=q10,Description=\"Quality below 10\">\n")
+                .append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n")
+                .append("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read depth\">\n")
+                .append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (String sample : getSampleNames()) {
+            header.append('\t').append(sample);
+        }
+        return header.append('\n').toString();
+    }
+
+    /**
+     * @return variants sorted by position, a few bases apart
+     */
+    public List<Variant> createVariants(int variantCount) {
+        Random random = new Random(variantCount);
+        List<String> studyIds = getStudyIds();
+        List<String> samples = getSampleNames();
+        List<Variant> variants = new ArrayList<>(variantCount);
+        int position = 1;
+        for (int i = 0; i < variantCount; i++) {
+            position += 1 + random.nextInt(10);
+            Variant variant = createVariant(position, random);
+            for (String studyId : studyIds) {
+                VariantSourceEntry sourceEntry = new VariantSourceEntry(studyId + "_file", studyId);
+                for (String sample : samples) {
+                    Map<String, String> sampleData = new HashMap<>();
+                    sampleData.put("GT", GENOTYPES[random.nextInt(GENOTYPES.length)]);
+                    sourceEntry.addSampleData(sample, sampleData);
+                }
+                variant.addSourceEntry(sourceEntry);
+            }
+            variants.add(variant);
+        }
+        return variants;
+    }
+
+    private Variant createVariant(int position, Random random) {
+        String reference = getBase(position);
+        if (random.nextDouble() >= indelFraction) {
+            String alternate = String.valueOf(BASES.charAt((BASES.indexOf(reference) + 1 + random.nextInt(3)) % 4));
+            return new Variant(CHROMOSOME, position, position, reference, alternate);
+        } else if (random.nextBoolean()) {
+            return new Variant(CHROMOSOME, position, position, "", getBase(position + 1) + getBase(position + 2));
+        } else {
+            return new Variant(CHROMOSOME, position, position + 1, reference + getBase(position + 1), "");
+        }
+    }
+
+    /**
+     * @return the base at the position of a made up reference, that repeats "ACGT"
+     */
+    private static String getBase(int position) {
+        return String.valueOf(BASES.charAt(position % BASES.length()));
+    }
+
+    /**
+     * @return the reference that the indels of these variants are normalized against
+     */
+    public static ReferenceSequenceProvider createReference() {
+        return new ReferenceSequenceProvider() {
+            @Override
+            public String getContextBase(String chromosome, int position) {
+                return getBase(position);
+            }
+
+            @Override
+            public void prefetch(Collection<Variant> variants) {
+            }
+        };
+    }
+
+    /**
+     * @return an adaptor that only knows how to return these sources, as the export only needs that
+     */
+    public static VariantSourceDBAdaptor createSourceDBAdaptor(final Map<String, VariantSource> sources) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getAllSourcesByStudyIds":
+                        List<VariantSource> result = new ArrayList<>();
+                        for (Object studyId : (List<?>) args[0]) {
+                            if (sources.containsKey(studyId)) {
+                                result.add(sources.get(studyId));
+                            }
+                        }
+                        return new QueryResult<>("", 0, result.size(), result.size(), "", "", result);
+                    case "close":
+                        return true;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        };
+        return (VariantSourceDBAdaptor) Proxy.newProxyInstance(SyntheticVariants.class.getClassLoader(),
+                new Class<?>[]{VariantSourceDBAdaptor.class}, handler);
+    }
+}
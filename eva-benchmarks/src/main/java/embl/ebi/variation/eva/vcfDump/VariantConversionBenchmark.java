@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per variant of converting the biodata variants into htsjdk VariantContexts, one per study.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VariantConversionBenchmark {
+
+    private static final int VARIANTS = 1000;
+
+    @Param({"10", "100", "1000"})
+    private int sampleCount;
+
+    @Param({"1", "3"})
+    private int studiesPerVariant;
+
+    @Param({"0", "0.2"})
+    private double indelFraction;
+
+    private VariantExporter variantExporter;
+    private Map<String, VariantSource> sources;
+    private List<Variant> variants;
+
+    @Setup
+    public void setUp() {
+        SyntheticVariants syntheticVariants = new SyntheticVariants(sampleCount, studiesPerVariant, indelFraction);
+        variantExporter = new VariantExporter(SyntheticVariants.createReference(), 1);
+        sources = syntheticVariants.createSources();
+        variants = syntheticVariants.createVariants(VARIANTS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VARIANTS)
+    public void convert(Blackhole blackhole) throws IOException {
+        for (Variant variant : variants) {
+            blackhole.consume(variantExporter.convertBiodataVariantToVariantContext(variant, sources));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per variant of the whole export, from the iterator to the compressed VCFs on disk, with both writers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VcfExportBenchmark {
+
+    private static final int VARIANTS = 10000;
+
+    @Param({"10", "100", "1000"})
+    private int sampleCount;
+
+    @Param({"1", "3"})
+    private int studiesPerVariant;
+
+    @Param({"0", "0.2"})
+    private double indelFraction;
+
+    @Param({"false", "true"})
+    private boolean directWriting;
+
+    private VariantSourceDBAdaptor sourceDBAdaptor;
+    private List<Variant> variants;
+    private QueryOptions options;
+    private File outputDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticVariants syntheticVariants = new SyntheticVariants(sampleCount, studiesPerVariant, indelFraction);
+        sourceDBAdaptor = SyntheticVariants.createSourceDBAdaptor(syntheticVariants.createSources());
+        variants = syntheticVariants.createVariants(VARIANTS);
+        options = new QueryOptions();
+        options.put(VariantDBAdaptor.STUDIES, syntheticVariants.getStudyIds());
+        outputDir = Files.createTempDirectory("eva-benchmarks").toFile();
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = outputDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        outputDir.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VARIANTS)
+    public List<String> export() throws IOException {
+        VariantExporter variantExporter = new VariantExporter(SyntheticVariants.createReference(), 1);
+        variantExporter.setDirectWriting(directWriting);
+        return variantExporter.VcfHtsExport(variants.iterator(), outputDir.getPath(), sourceDBAdaptor, options);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import htsjdk.variant.vcf.VCFHeader;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing the VCF headers stored with the studies, once per export, and of keeping only some samples.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VcfHeaderBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int sampleCount;
+
+    @Param({"1", "3"})
+    private int studyCount;
+
+    private Map<String, VariantSource> sources;
+    private List<String> halfOfTheSamples;
+
+    @Setup
+    public void setUp() {
+        SyntheticVariants syntheticVariants = new SyntheticVariants(sampleCount, studyCount, 0);
+        sources = syntheticVariants.createSources();
+        List<String> samples = syntheticVariants.getSampleNames();
+        halfOfTheSamples = samples.subList(0, samples.size() / 2);
+    }
+
+    @Benchmark
+    public Map<String, VCFHeader> getVcfHeaders() throws IOException {
+        return VariantExporter.getVcfHeaders(sources);
+    }
+
+    @Benchmark
+    public Map<String, VCFHeader> getVcfHeadersWithSampleSubset() throws IOException {
+        return VariantExporter.getVcfHeaders(sources, halfOfTheSamples);
+    }
+}
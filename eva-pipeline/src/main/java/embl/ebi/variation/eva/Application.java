@@ -31,6 +31,11 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  *
  *     spring.batch.job.names=variantJob
  *
+ * To keep it running and launch the jobs submitted to a directory instead, see
+ * {@link embl.ebi.variation.eva.pipeline.daemon.JobQueueDaemon}.
+ *
+ *     java -jar target/gs-batch-processing-0.1.0.jar --spring.batch.job.enabled=false --daemon.queueDir=queue
+ *
  */
 @SpringBootApplication
 public class Application {
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.configuration;
+
+import org.springframework.batch.core.configuration.annotation.BatchConfigurer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.batch.BasicBatchConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+/**
+ * Same job repository that Spring Boot configures, on whatever DataSource is the primary one, but saving the
+ * ExecutionContext of the running steps only every {@link #STEP_CONTEXT_UPDATE_INTERVAL} chunk commits. See
+ * {@link ThrottledJobRepository}.
+ */
+@Configuration
+public class JobRepositoryConfiguration {
+
+    /**
+     * property with the number of updates of the ExecutionContext of a running step that are merged in a single
+     * save. 1, the default, saves every one of them, as Spring Batch does.
+     */
+    public static final String STEP_CONTEXT_UPDATE_INTERVAL = "job.repository.stepContextUpdateInterval";
+    public static final int DEFAULT_STEP_CONTEXT_UPDATE_INTERVAL = 1;
+
+    @Autowired
+    private Environment env;
+
+    @Bean
+    public BatchConfigurer batchConfigurer(DataSource dataSource) {
+        final int interval = env.getProperty(STEP_CONTEXT_UPDATE_INTERVAL, Integer.class,
+                DEFAULT_STEP_CONTEXT_UPDATE_INTERVAL);
+        return new BasicBatchConfigurer(dataSource) {
+            @Override
+            protected JobRepository createJobRepository() throws Exception {
+                JobRepository jobRepository = super.createJobRepository();
+                return interval > 1 ? new ThrottledJobRepository(jobRepository, interval) : jobRepository;
+            }
+        };
+    }
+}
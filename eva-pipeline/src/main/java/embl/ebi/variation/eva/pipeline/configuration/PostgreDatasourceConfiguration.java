@@ -22,26 +22,58 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 
 /**
  * Configuration will be loaded from the file "application-production.properties".
+ *
+ * The connections to the job repository are pooled, as the steps save their state at every chunk commit, and the
+ * partitions do it from several threads at the same time. The prepared statements are cached in every connection,
+ * so that the same job repository queries are not parsed again and again; the driver prepares them in the server
+ * once they have been used a few times. The connections are validated when taken from the pool, at most once per
+ * validation interval, so that a restarted database doesn't fail the next step.
  */
 @Configuration
 @Profile("production")
 public class PostgreDatasourceConfiguration {
 
+    public static final int DEFAULT_POOL_MAX_ACTIVE = 10;
+    public static final int DEFAULT_POOL_MIN_IDLE = 1;
+    public static final int DEFAULT_POOL_MAX_WAIT_MS = 30000;
+    public static final int DEFAULT_POOL_STATEMENT_CACHE_SIZE = 50;
+    public static final String DEFAULT_POOL_VALIDATION_QUERY = "SELECT 1";
+    public static final long DEFAULT_POOL_VALIDATION_INTERVAL_MS = 30000;
+
     @Autowired
     private Environment env;
 
-    @Bean
+    @Bean(destroyMethod = "close")
     @Primary
     public DataSource postgreDataSource() {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+        org.apache.tomcat.jdbc.pool.DataSource dataSource = new org.apache.tomcat.jdbc.pool.DataSource();
         dataSource.setDriverClassName(env.getProperty("job.repository.driverClassName"));
         dataSource.setUrl(env.getProperty("job.repository.url"));
         dataSource.setUsername(env.getProperty("job.repository.username"));
         dataSource.setPassword(env.getProperty("job.repository.password"));
+
+        int maxActive = env.getProperty("job.repository.pool.maxActive", Integer.class, DEFAULT_POOL_MAX_ACTIVE);
+        int minIdle = env.getProperty("job.repository.pool.minIdle", Integer.class, DEFAULT_POOL_MIN_IDLE);
+        dataSource.setMaxActive(maxActive);
+        dataSource.setMaxIdle(maxActive);
+        dataSource.setMinIdle(minIdle);
+        dataSource.setInitialSize(minIdle);
+        dataSource.setMaxWait(env.getProperty("job.repository.pool.maxWait", Integer.class, DEFAULT_POOL_MAX_WAIT_MS));
+
+        dataSource.setValidationQuery(env.getProperty("job.repository.pool.validationQuery",
+                DEFAULT_POOL_VALIDATION_QUERY));
+        dataSource.setTestOnBorrow(true);
+        dataSource.setValidationInterval(env.getProperty("job.repository.pool.validationInterval", Long.class,
+                DEFAULT_POOL_VALIDATION_INTERVAL_MS));
+
+        int statementCacheSize = env.getProperty("job.repository.pool.statementCacheSize", Integer.class,
+                DEFAULT_POOL_STATEMENT_CACHE_SIZE);
+        if (statementCacheSize > 0) {
+            dataSource.setJdbcInterceptors("StatementCache(prepared=true,callable=false,max=" + statementCacheSize + ")");
+        }
         return dataSource;
     }
 
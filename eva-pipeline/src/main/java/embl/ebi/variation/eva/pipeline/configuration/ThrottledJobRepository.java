@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.configuration;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.JobRestartException;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * JobRepository that saves the ExecutionContext of a running step only once every `interval` updates, instead of at
+ * every chunk commit. Everything else goes straight to the delegate, including the step executions themselves, so the
+ * commit and item counts are always up to date.
+ *
+ * The ExecutionContext is always saved when the step ends, whatever its status. If the job dies in the middle of a
+ * step, the saved ExecutionContext is consistent but up to `interval - 1` chunks old, so a restart does those chunks
+ * again. The readers and writers of the pipeline restart from their saved position and load with upserts, so the
+ * only cost is the repeated work.
+ */
+public class ThrottledJobRepository implements JobRepository {
+
+    private final JobRepository delegate;
+    private final int interval;
+    private final ConcurrentMap<Long, Integer> skippedUpdates;
+
+    /**
+     * @param interval save one of every `interval` updates of the ExecutionContext of a running step
+     */
+    public ThrottledJobRepository(JobRepository delegate, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("The interval between ExecutionContext updates must be positive, but was "
+                    + interval);
+        }
+        this.delegate = delegate;
+        this.interval = interval;
+        this.skippedUpdates = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void updateExecutionContext(StepExecution stepExecution) {
+        Long id = stepExecution.getId();
+        if (id != null && BatchStatus.STARTED.equals(stepExecution.getStatus())) {
+            Integer skipped = skippedUpdates.get(id);
+            int updates = skipped == null ? 1 : skipped + 1;
+            if (updates < interval) {
+                skippedUpdates.put(id, updates);
+                return;
+            }
+        }
+        if (id != null) {
+            skippedUpdates.remove(id);
+        }
+        delegate.updateExecutionContext(stepExecution);
+    }
+
+    @Override
+    public void updateExecutionContext(JobExecution jobExecution) {
+        delegate.updateExecutionContext(jobExecution);
+    }
+
+    @Override
+    public boolean isJobInstanceExists(String jobName, JobParameters jobParameters) {
+        return delegate.isJobInstanceExists(jobName, jobParameters);
+    }
+
+    @Override
+    public JobInstance createJobInstance(String jobName, JobParameters jobParameters) {
+        return delegate.createJobInstance(jobName, jobParameters);
+    }
+
+    @Override
+    public JobExecution createJobExecution(JobInstance jobInstance, JobParameters jobParameters,
+                                           String jobConfigurationLocation) {
+        return delegate.createJobExecution(jobInstance, jobParameters, jobConfigurationLocation);
+    }
+
+    @Override
+    public JobExecution createJobExecution(String jobName, JobParameters jobParameters)
+            throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException {
+        return delegate.createJobExecution(jobName, jobParameters);
+    }
+
+    @Override
+    public void update(JobExecution jobExecution) {
+        delegate.update(jobExecution);
+    }
+
+    @Override
+    public void add(StepExecution stepExecution) {
+        delegate.add(stepExecution);
+    }
+
+    @Override
+    public void addAll(Collection<StepExecution> stepExecutions) {
+        delegate.addAll(stepExecutions);
+    }
+
+    @Override
+    public void update(StepExecution stepExecution) {
+        delegate.update(stepExecution);
+    }
+
+    @Override
+    public StepExecution getLastStepExecution(JobInstance jobInstance, String stepName) {
+        return delegate.getLastStepExecution(jobInstance, stepName);
+    }
+
+    @Override
+    public int getStepExecutionCount(JobInstance jobInstance, String stepName) {
+        return delegate.getStepExecutionCount(jobInstance, stepName);
+    }
+
+    @Override
+    public JobExecution getLastJobExecution(String jobName, JobParameters jobParameters) {
+        return delegate.getLastJobExecution(jobName, jobParameters);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.daemon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.configuration.JobFactory;
+import org.springframework.batch.core.converter.DefaultJobParametersConverter;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.CommandLineRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the application running and launches the jobs submitted to a queue directory, so that the Spring context,
+ * the job repository connections and the storage managers are set up once for all of them.
+ *
+ * A submission is a .properties file with the name of the job in {@link #JOB_KEY} and its job parameters, written
+ * the same way as in the command line. It must be written with another extension and then renamed, so that it is not
+ * taken before it is complete. Up to `threads` submissions run at the same time, in the order they were written. A
+ * submission is moved to running/ when it starts, and to done/ or failed/ when it finishes, with the job execution id
+ * and status appended. Submitting the same parameters again restarts a failed job, as in the command line.
+ *
+ * The jobs with a {@link JobFactory} bean get a new Job per submission, so several executions can run at the same
+ * time. The ones without a factory share their steps, so their submissions run one at a time.
+ */
+public class JobQueueDaemon implements CommandLineRunner, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobQueueDaemon.class);
+
+    public static final String JOB_KEY = "job";
+    public static final String SUBMISSION_EXTENSION = ".properties";
+    public static final String RUNNING_DIR = "running";
+    public static final String DONE_DIR = "done";
+    public static final String FAILED_DIR = "failed";
+
+    private final JobLauncher jobLauncher;
+    private final Map<String, Job> jobs;
+    private final Map<String, JobFactory> jobFactories;
+    private final Map<String, Lock> jobLocks;
+    private final Path queueDir;
+    private final long pollInterval;
+    private final Semaphore slots;
+    private final ThreadPoolExecutor executor;
+    private volatile boolean running;
+
+    public JobQueueDaemon(JobLauncher jobLauncher, List<Job> jobs, List<JobFactory> jobFactories, Path queueDir,
+                          int threads, long pollInterval) {
+        this.jobLauncher = jobLauncher;
+        this.jobs = new HashMap<>();
+        this.jobLocks = new HashMap<>();
+        for (Job job : jobs) {
+            this.jobs.put(job.getName(), job);
+            this.jobLocks.put(job.getName(), new ReentrantLock());
+        }
+        this.jobFactories = new HashMap<>();
+        for (JobFactory jobFactory : jobFactories) {
+            this.jobFactories.put(jobFactory.getJobName(), jobFactory);
+        }
+        this.queueDir = queueDir;
+        this.pollInterval = pollInterval;
+        this.slots = new Semaphore(threads);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        this.running = true;
+    }
+
+    /**
+     * Watches the queue until the application is stopped.
+     */
+    @Override
+    public void run(String... args) throws Exception {
+        init();
+        logger.info("Waiting for job submissions in {}, running up to {} at the same time", queueDir,
+                executor.getMaximumPoolSize());
+        while (running) {
+            poll();
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Stops taking submissions, and waits for the ones running to finish.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        executor.shutdown();
+        if (executor.getActiveCount() > 0) {
+            logger.info("Waiting for {} running jobs to finish", executor.getActiveCount());
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the queue directories. The submissions that were running when the daemon was last stopped are moved
+     * to failed/, because their job executions were not finished: they must be marked as failed in the job
+     * repository before submitting them again.
+     */
+    void init() throws IOException {
+        Files.createDirectories(queueDir.resolve(RUNNING_DIR));
+        Files.createDirectories(queueDir.resolve(DONE_DIR));
+        Files.createDirectories(queueDir.resolve(FAILED_DIR));
+        for (Path interrupted : listSubmissions(queueDir.resolve(RUNNING_DIR))) {
+            logger.warn("Submission {} was interrupted when the daemon stopped", interrupted.getFileName());
+            finish(interrupted, "interrupted when the daemon stopped", false);
+        }
+    }
+
+    /**
+     * Starts as many of the waiting submissions as there are free threads.
+     */
+    void poll() throws IOException {
+        for (Path submission : listSubmissions(queueDir)) {
+            if (!running || !slots.tryAcquire()) {
+                return;
+            }
+            final Path claimed = queueDir.resolve(RUNNING_DIR).resolve(submission.getFileName());
+            try {
+                Files.move(submission, claimed, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                slots.release();
+                logger.warn("Could not take the submission " + submission.getFileName(), e);
+                continue;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runSubmission(claimed);
+                    } finally {
+                        slots.release();
+                    }
+                }
+            });
+        }
+    }
+
+    private void runSubmission(Path submission) {
+        long start = System.currentTimeMillis();
+        String result;
+        boolean completed = false;
+        try {
+            Properties properties = new Properties();
+            InputStream input = Files.newInputStream(submission);
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+            String jobName = (String) properties.remove(JOB_KEY);
+            if (jobName == null) {
+                throw new IllegalArgumentException("The submission has no " + JOB_KEY);
+            }
+            JobParameters parameters = new DefaultJobParametersConverter().getJobParameters(properties);
+
+            logger.info("Running {} submitted in {}", jobName, submission.getFileName());
+            JobExecution execution = launch(jobName, parameters);
+            completed = BatchStatus.COMPLETED.equals(execution.getStatus());
+            result = "jobExecutionId=" + execution.getId() + ", status=" + execution.getStatus()
+                    + ", exitCode=" + execution.getExitStatus().getExitCode();
+        } catch (Exception e) {
+            logger.error("Could not run the submission " + submission.getFileName(), e);
+            result = "error=" + e;
+        }
+        logger.info("Submission {} finished in {} ms: {}", submission.getFileName(),
+                System.currentTimeMillis() - start, result);
+        finish(submission, result, completed);
+    }
+
+    private JobExecution launch(String jobName, JobParameters parameters) throws Exception {
+        JobFactory jobFactory = jobFactories.get(jobName);
+        if (jobFactory != null) {
+            return jobLauncher.run(jobFactory.createJob(), parameters);
+        }
+
+        Job job = jobs.get(jobName);
+        if (job == null) {
+            throw new IllegalArgumentException("Unknown job " + jobName);
+        }
+        Lock lock = jobLocks.get(jobName);
+        lock.lock();
+        try {
+            return jobLauncher.run(job, parameters);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finish(Path submission, String result, boolean completed) {
+        Path finished = queueDir.resolve(completed ? DONE_DIR : FAILED_DIR).resolve(submission.getFileName());
+        try {
+            Files.write(submission, Collections.singletonList("# " + result), StandardCharsets.ISO_8859_1,
+                    StandardOpenOption.APPEND);
+            Files.move(submission, finished, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Could not move the submission " + submission.getFileName() + " to " + finished, e);
+        }
+    }
+
+    /**
+     * @return the submissions in a directory, the oldest first
+     */
+    private static List<Path> listSubmissions(Path dir) throws IOException {
+        List<Path> submissions = new ArrayList<>();
+        final Map<Path, Long> modified = new HashMap<>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUBMISSION_EXTENSION);
+        try {
+            for (Path entry : stream) {
+                try {
+                    if (Files.isRegularFile(entry)) {
+                        modified.put(entry, Files.getLastModifiedTime(entry).toMillis());
+                        submissions.add(entry);
+                    }
+                } catch (NoSuchFileException e) {
+                    // withdrawn while listing
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        Collections.sort(submissions, new Comparator<Path>() {
+            @Override
+            public int compare(Path submission, Path other) {
+                int byTime = Long.compare(modified.get(submission), modified.get(other));
+                return byTime != 0 ? byTime : submission.compareTo(other);
+            }
+        });
+        return submissions;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.daemon;
+
+import org.opencb.opencga.lib.common.Config;
+import org.opencb.opencga.storage.core.StorageManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.configuration.JobFactory;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Daemon mode, enabled by setting {@link #QUEUE_DIR}. See {@link JobQueueDaemon}.
+ *
+ * The jobs are only run from the queue, so {@link #JOB_ENABLED} must be false to not launch any job on start. Its
+ * default is true, so the daemon doesn't start unless it is set.
+ */
+@Configuration
+@ConditionalOnProperty(name = JobQueueDaemonConfiguration.QUEUE_DIR)
+public class JobQueueDaemonConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobQueueDaemonConfiguration.class);
+
+    /**
+     * property with the directory where the jobs are submitted
+     */
+    public static final String QUEUE_DIR = "daemon.queueDir";
+
+    /**
+     * property with the number of submissions run at the same time
+     */
+    public static final String THREADS = "daemon.threads";
+    public static final int DEFAULT_THREADS = 1;
+
+    /**
+     * property with the milliseconds between checks for new submissions
+     */
+    public static final String POLL_INTERVAL = "daemon.pollInterval";
+    public static final long DEFAULT_POLL_INTERVAL = 2000;
+
+    /**
+     * property with the OpenCGA home, to set up the storage manager before the first job comes
+     */
+    public static final String OPENCGA_HOME = "opencga.app.home";
+
+    /**
+     * property of spring boot that launches the jobs in the context on start
+     */
+    public static final String JOB_ENABLED = "spring.batch.job.enabled";
+
+    @Autowired
+    private Environment env;
+    @Autowired
+    private JobLauncher jobLauncher;
+    @Autowired
+    private List<Job> jobs;
+    @Autowired(required = false)
+    private List<JobFactory> jobFactories = Collections.emptyList();
+
+    @Bean
+    public JobQueueDaemon jobQueueDaemon() throws Exception {
+        if (env.getProperty(JOB_ENABLED, Boolean.class, true)) {
+            throw new IllegalStateException("The daemon can't start while the jobs are launched on start, run it with "
+                    + JOB_ENABLED + "=false");
+        }
+
+        String opencgaHome = env.getProperty(OPENCGA_HOME);
+        if (opencgaHome != null) {
+            Config.setOpenCGAHome(opencgaHome);
+            StorageManagerFactory.getVariantStorageManager();
+            logger.info("Storage manager ready, with OpenCGA home {}", opencgaHome);
+        }
+
+        return new JobQueueDaemon(jobLauncher, jobs, jobFactories,
+                Paths.get(env.getProperty(QUEUE_DIR)),
+                env.getProperty(THREADS, Integer.class, DEFAULT_THREADS),
+                env.getProperty(POLL_INTERVAL, Long.class, DEFAULT_POLL_INTERVAL));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.readers;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * FileSystemResource that decompresses its content on the fly. Unlike an InputStreamResource wrapping a
+ * GZIPInputStream, it can be opened again, which is what the FlatFileItemReader does when a step is restarted.
+ */
+public class GzipLazyResource extends FileSystemResource {
+
+    public GzipLazyResource(File file) {
+        super(file);
+    }
+
+    public GzipLazyResource(String path) {
+        super(path);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new GZIPInputStream(super.getInputStream());
+    }
+
+    /**
+     * @return a GzipLazyResource if the path ends in ".gz", a plain FileSystemResource otherwise
+     */
+    public static Resource forPath(String path) {
+        if (path.endsWith(".gz")) {
+            return new GzipLazyResource(path);
+        } else {
+            return new FileSystemResource(path);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.readers;
+
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.StorageManagerFactory;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+
+import java.util.Collections;
+
+/**
+ * Iterates over the variants of the file being processed that are stored in the database, with a cursor of its own.
+ *
+ * If the step ExecutionContext contains a chromosome (see {@link VcfChromosomePartitioner}), only the variants of
+ * that chromosome are read, so several readers can go through different regions of the database concurrently.
+ *
+ * The position of the cursor can't be recovered, so the state of the reader is not saved: a restarted step reads its
+ * region again from the beginning.
+ */
+public class VariantDBItemReader extends AbstractItemCountingItemStreamItemReader<Variant> {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantDBItemReader.class);
+
+    private JobParametersListener listener;
+    private String chromosome;
+    private VariantDBAdaptor dbAdaptor;
+    private VariantDBIterator iterator;
+
+    public VariantDBItemReader(JobParametersListener listener) {
+        this.listener = listener;
+        setName(VariantDBItemReader.class.getSimpleName());
+        setSaveState(false);
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        chromosome = executionContext.containsKey(VcfChromosomePartitioner.CHROMOSOME) ?
+                executionContext.getString(VcfChromosomePartitioner.CHROMOSOME) : null;
+        super.open(executionContext);
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        ObjectMap variantOptions = listener.getVariantOptions();
+        VariantSource source = variantOptions.get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        dbAdaptor = variantStorageManager.getDBAdaptor(variantOptions.getString("dbName"), variantOptions);
+
+        QueryOptions query = new QueryOptions();
+        query.put(VariantDBAdaptor.STUDIES, Collections.singletonList(source.getStudyId()));
+        query.put(VariantDBAdaptor.FILES, Collections.singletonList(source.getFileId()));
+        if (chromosome != null) {
+            logger.info("Reading the variants of file {} in chromosome {}", source.getFileId(), chromosome);
+            query.put(VariantDBAdaptor.REGION, chromosome);
+        } else {
+            logger.info("Reading the variants of file {}", source.getFileId());
+        }
+        iterator = dbAdaptor.iterator(query);
+    }
+
+    @Override
+    protected Variant doRead() throws Exception {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        // not every VariantDBIterator holds a cursor, but the ones that do must release it before the adaptor
+        if (iterator instanceof AutoCloseable) {
+            ((AutoCloseable) iterator).close();
+        }
+        iterator = null;
+        if (dbAdaptor != null) {
+            dbAdaptor.close();
+            dbAdaptor = null;
+        }
+    }
+}
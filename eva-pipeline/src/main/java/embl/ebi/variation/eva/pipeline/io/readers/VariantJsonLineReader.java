@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.readers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import embl.ebi.variation.eva.pipeline.io.VariantJsonMapper;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantMongoItemWriter;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.metrics.StepMetrics;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.file.FlatFileItemReader;
+import org.springframework.batch.item.file.LineMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the variants written by the transform step, one JSON document per line.
+ *
+ * The samples, header and file stats of the VariantSource of the job are taken from the one stored next to the
+ * variants, so they are available even if the transformation was done in a previous job execution.
+ *
+ * The number of lines read is saved at every commit, once the writer has loaded all the variants of the chunk, so a
+ * restarted load step resumes after the last committed line.
+ *
+ * If the job parameter {@link #SKIP_LOAD} is true, nothing is read and the load step does nothing. If the variants
+ * were loaded by the transform step ({@link VariantMongoItemWriter#LOAD_WHILE_TRANSFORMING}), only the VariantSource
+ * is read, so that its summary can be loaded.
+ */
+public class VariantJsonLineReader extends FlatFileItemReader<Variant> implements StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantJsonLineReader.class);
+
+    public static final String SKIP_LOAD = "skipLoad";
+
+    private JobParametersListener listener;
+    private ObjectMapper jsonObjectMapper;
+    private JobParameters parameters;
+    private boolean skip;
+    private boolean skipVariants;
+    private StepMetrics metrics;
+
+    public VariantJsonLineReader(JobParametersListener listener) {
+        this.listener = listener;
+        this.jsonObjectMapper = VariantJsonMapper.create();
+        setName(VariantJsonLineReader.class.getSimpleName());
+        setLineMapper(new LineMapper<Variant>() {
+            @Override
+            public Variant mapLine(String line, int lineNumber) throws Exception {
+                metrics.addBytesRead(StepMetrics.utf8Length(line) + 1);
+                return jsonObjectMapper.readValue(line, Variant.class);
+            }
+        });
+        // the same encoding Jackson writes the variants with, see VariantJsonItemWriter
+        setEncoding(StandardCharsets.UTF_8.name());
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        return null;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        skip = Boolean.parseBoolean(parameters.getString(SKIP_LOAD, "false"));
+        if (skip) {
+            logger.info("skipping load step, requested " + SKIP_LOAD + "=" + parameters.getString(SKIP_LOAD));
+            return;
+        }
+
+        skipVariants = Boolean.parseBoolean(parameters.getString(VariantMongoItemWriter.LOAD_WHILE_TRANSFORMING, "false"));
+
+        Path variantsPath;
+        try {
+            variantsPath = VariantJsonItemWriter.getTransformedVariantsPath(parameters);
+            VariantSource transformed = readSource(VariantJsonItemWriter.getTransformedSourcePath(parameters));
+            VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+            source.setSamplesPosition(transformed.getSamplesPosition());
+            source.setMetadata(transformed.getMetadata());
+            source.setStats(transformed.getStats());
+        } catch (URISyntaxException | IOException e) {
+            throw new ItemStreamException("Could not read the transformed VariantSource", e);
+        }
+
+        if (skipVariants) {
+            logger.info("Variants already loaded by the transform step, loading only the file summary");
+            return;
+        }
+        logger.info("-- Load variants -- {}", variantsPath);
+        String readCountKey = getExecutionContextKey("read.count");
+        if (executionContext.containsKey(readCountKey)) {
+            logger.info("Resuming load of {} after line {}", variantsPath, executionContext.getInt(readCountKey));
+        }
+        metrics = StepMetrics.forCurrentStep();
+        setResource(GzipLazyResource.forPath(variantsPath.toString()));
+        super.open(executionContext);
+    }
+
+    @Override
+    protected Variant doRead() throws Exception {
+        return skip || skipVariants ? null : super.doRead();
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (!skip && !skipVariants) {
+            super.update(executionContext);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (!skip && !skipVariants) {
+            super.close();
+        }
+    }
+
+    private VariantSource readSource(Path path) throws IOException {
+        InputStream input = Files.newInputStream(path);
+        if (VariantJsonItemWriter.isCompressed(parameters)) {
+            input = new GZIPInputStream(input);
+        }
+        try {
+            return jsonObjectMapper.readValue(input, VariantSource.class);
+        } finally {
+            input.close();
+        }
+    }
+}
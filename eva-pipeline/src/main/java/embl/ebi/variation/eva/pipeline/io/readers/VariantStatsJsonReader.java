@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.readers;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import embl.ebi.variation.eva.pipeline.io.VariantJsonMapper;
+import embl.ebi.variation.eva.pipeline.metrics.StepMetrics;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VariantStatsLoadPartitioner;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the VariantStatsWrappers of a gzipped variants stats file. The documents don't need to be separated by
+ * newlines, so the files written by VariantStatisticsManager can be read as well.
+ *
+ * The file is the one in the step ExecutionContext under {@link VariantStatsLoadPartitioner#STATS_FILE}. The number of
+ * stats read is saved at every commit, and a restarted step skips them.
+ */
+public class VariantStatsJsonReader extends AbstractItemCountingItemStreamItemReader<VariantStatsWrapper> {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantStatsJsonReader.class);
+
+    private ObjectMapper jsonObjectMapper;
+    private String statsFile;
+    private InputStream input;
+    private MappingIterator<VariantStatsWrapper> iterator;
+    private StepMetrics metrics;
+
+    public VariantStatsJsonReader() {
+        this.jsonObjectMapper = VariantJsonMapper.create();
+        setName(VariantStatsJsonReader.class.getSimpleName());
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        statsFile = executionContext.getString(VariantStatsLoadPartitioner.STATS_FILE);
+        metrics = StepMetrics.forCurrentStep();
+        super.open(executionContext);
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        logger.info("Loading stats from {}", statsFile);
+        input = metrics.countReadBytes(new GZIPInputStream(Files.newInputStream(Paths.get(statsFile))));
+        iterator = jsonObjectMapper.reader(VariantStatsWrapper.class).readValues(input);
+    }
+
+    @Override
+    protected VariantStatsWrapper doRead() throws Exception {
+        return iterator.hasNextValue() ? iterator.nextValue() : null;
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        if (input != null) {
+            iterator.close();
+            input.close();
+            input = null;
+            iterator = null;
+        }
+    }
+}
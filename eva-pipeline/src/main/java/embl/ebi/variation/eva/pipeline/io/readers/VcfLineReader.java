@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.readers;
+
+import embl.ebi.variation.eva.pipeline.io.UriUtils;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.metrics.StepMetrics;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
+import htsjdk.tribble.readers.TabixReader;
+import org.opencb.biodata.formats.variant.vcf4.io.VariantVcfReader;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.file.FlatFileItemReader;
+import org.springframework.batch.item.file.mapping.PassThroughLineMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Reads the body of a (possibly gzipped) VCF one line at a time.
+ *
+ * If the step ExecutionContext contains a chromosome (see {@link VcfChromosomePartitioner}), only the lines of that
+ * chromosome are read. When the VCF is bgzipped and indexed with tabix, the index is used to jump straight to them;
+ * otherwise the rest of the lines are skipped.
+ *
+ * The header is not parsed here, but by {@link #readHeader(VariantSource, String)} before the step starts, so that
+ * several partitions can share the VariantSource. The number of lines read is saved in the step ExecutionContext at
+ * every commit, and a restarted step skips them instead of reading the file from the beginning.
+ */
+public class VcfLineReader extends FlatFileItemReader<String> {
+
+    private static final Logger logger = LoggerFactory.getLogger(VcfLineReader.class);
+
+    /**
+     * key in the VariantSource metadata where the whole VCF header is kept, as the opencga transformation does
+     */
+    public static final String VARIANT_FILE_HEADER = "variantFileHeader";
+
+    private JobParametersListener listener;
+    private String chromosome;
+    private TabixReader tabixReader;
+    private TabixReader.Iterator tabixIterator;
+    private StepMetrics metrics;
+
+    public VcfLineReader(JobParametersListener listener) {
+        this.listener = listener;
+        setName(VcfLineReader.class.getSimpleName());
+        setLineMapper(new PassThroughLineMapper());
+        setComments(new String[]{"#"});
+        setEncoding(StandardCharsets.UTF_8.name());
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        String input;
+        try {
+            input = Paths.get(UriUtils.createUri(source.getFileName()).getPath()).toString();
+        } catch (URISyntaxException e) {
+            throw new ItemStreamException("Invalid input file " + source.getFileName(), e);
+        }
+
+        chromosome = executionContext.containsKey(VcfChromosomePartitioner.CHROMOSOME) ?
+                executionContext.getString(VcfChromosomePartitioner.CHROMOSOME) : null;
+        if (chromosome != null && new File(input + VcfChromosomePartitioner.TABIX_EXTENSION).exists()) {
+            try {
+                tabixReader = new TabixReader(input);
+            } catch (IOException e) {
+                throw new ItemStreamException("Could not open the tabix index of " + input, e);
+            }
+        }
+
+        metrics = StepMetrics.forCurrentStep();
+        setResource(GzipLazyResource.forPath(input));
+        super.open(executionContext);
+    }
+
+    @Override
+    protected void doOpen() throws Exception {
+        if (tabixReader != null) {
+            logger.info("Reading chromosome {} using the tabix index of {}", chromosome, tabixReader.getSource());
+            tabixIterator = tabixReader.query(chromosome);
+        } else {
+            super.doOpen();
+        }
+    }
+
+    @Override
+    protected String doRead() throws Exception {
+        if (tabixReader != null) {
+            // the tabix reader decodes every byte into a char
+            String line = tabixIterator != null ? tabixIterator.next() : null;
+            if (line != null) {
+                metrics.addBytesRead(line.length() + 1);
+            }
+            return line;
+        }
+
+        String line = countUtf8Bytes(super.doRead());
+        if (chromosome != null) {
+            while (line != null && !chromosome.equals(getChromosome(line))) {
+                line = countUtf8Bytes(super.doRead());
+            }
+        }
+        return line;
+    }
+
+    private String countUtf8Bytes(String line) {
+        if (line != null) {
+            metrics.addBytesRead(StepMetrics.utf8Length(line) + 1);
+        }
+        return line;
+    }
+
+    @Override
+    protected void jumpToItem(int itemIndex) throws Exception {
+        if (chromosome == null) {
+            super.jumpToItem(itemIndex);
+        } else {
+            // the lines of other chromosomes are not counted as items, so they must be filtered while skipping
+            int skipped = 0;
+            while (skipped < itemIndex && doRead() != null) {
+                skipped++;
+            }
+        }
+    }
+
+    @Override
+    protected void doClose() throws Exception {
+        if (tabixReader != null) {
+            tabixReader.close();
+            tabixReader = null;
+            tabixIterator = null;
+        } else {
+            super.doClose();
+        }
+    }
+
+    static String getChromosome(String line) {
+        int tab = line.indexOf('\t');
+        return tab < 0 ? line : line.substring(0, tab);
+    }
+
+    /**
+     * Fills the VariantSource with the sample names and the header metadata of the VCF.
+     */
+    public static void readHeader(VariantSource source, String input) {
+        logger.info("Reading header of '{}'", input);
+        VariantVcfReader headerReader = new VariantVcfReader(source, input);
+        if (!headerReader.open() || !headerReader.pre()) {
+            throw new ItemStreamException("Could not read the VCF header of " + input);
+        }
+        source.addMetadata(VARIANT_FILE_HEADER, headerReader.getHeader());
+        headerReader.close();
+    }
+
+}
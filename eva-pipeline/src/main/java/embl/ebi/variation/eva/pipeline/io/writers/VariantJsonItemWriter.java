@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.writers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import embl.ebi.variation.eva.pipeline.io.UriUtils;
+import embl.ebi.variation.eva.pipeline.io.VariantJsonMapper;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.metrics.StepMetrics;
+import embl.ebi.variation.eva.pipeline.steps.VariantsTransformMerge;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.models.variant.stats.VariantGlobalStats;
+import org.opencb.biodata.models.variant.stats.VariantSourceStats;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the transformed variants as one JSON document per line in
+ * {@code <outputDir>/<input>.variants.json<compressExtension>}, and the VariantSource in
+ * {@code <outputDir>/<input>.file.json<compressExtension>} when the step completes. When the step is a partition
+ * (see {@link VcfChromosomePartitioner}) both files get the part extension of the partition, and they are merged
+ * afterwards by {@link VariantsTransformMerge}.
+ *
+ * Every chunk is written as an independent gzip member, and the size of the file after each commit is saved in the
+ * step ExecutionContext. When the step is restarted, the file is truncated to that size, discarding any variant
+ * written after the last commit, and the new chunks are appended.
+ *
+ * When the variants are loaded while they are transformed (see {@link VariantMongoItemWriter#LOAD_WHILE_TRANSFORMING})
+ * the variants file is only written if {@link #KEEP_TRANSFORMED_VARIANTS} is requested, but the VariantSource is
+ * written anyway, as it carries the file statistics.
+ */
+public class VariantJsonItemWriter implements ItemStreamWriter<List<Variant>>, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantJsonItemWriter.class);
+
+    public static final String KEEP_TRANSFORMED_VARIANTS = "keepTransformedVariants";
+
+    private static final String WRITTEN_BYTES_KEY = "variantJsonItemWriter.written.bytes";
+    private static final String WRITTEN_VARIANTS_KEY = "variantJsonItemWriter.written.variants";
+    private static final String FILE_STATS_KEY = "variantJsonItemWriter.file.stats";
+
+    private JobParametersListener listener;
+    private JobParameters parameters;
+    private ObjectMapper jsonObjectMapper;
+
+    private Path variantsPath;
+    private Path sourcePath;
+    private boolean compress;
+    private boolean writeVariants;
+    private FileOutputStream variantsStream;
+    private FileChannel variantsChannel;
+    private long writtenVariants;
+    private VariantSourceStats sourceStats;
+    private StepMetrics metrics;
+
+    public VariantJsonItemWriter(JobParametersListener listener) {
+        this.listener = listener;
+        this.jsonObjectMapper = VariantJsonMapper.create();
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        ObjectMap variantOptions = listener.getVariantOptions();
+        VariantSource source = variantOptions.get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        compress = isCompressed(parameters);
+        writeVariants = isWritingVariants(parameters);
+        metrics = StepMetrics.forCurrentStep();
+
+        try {
+            variantsPath = getTransformedVariantsPath(parameters);
+            sourcePath = getTransformedSourcePath(parameters);
+            if (executionContext.containsKey(VcfChromosomePartitioner.PARTITION_INDEX)) {
+                int partition = executionContext.getInt(VcfChromosomePartitioner.PARTITION_INDEX);
+                variantsPath = VcfChromosomePartitioner.getPartPath(variantsPath, partition);
+                sourcePath = VcfChromosomePartitioner.getPartPath(sourcePath, partition);
+            }
+
+            writtenVariants = executionContext.containsKey(WRITTEN_VARIANTS_KEY) ?
+                    executionContext.getLong(WRITTEN_VARIANTS_KEY) : 0;
+            if (!writeVariants) {
+                logger.info("Variants will be loaded without keeping them in {}", variantsPath);
+            }
+        } catch (URISyntaxException e) {
+            throw new ItemStreamException("Invalid transformed variants file", e);
+        }
+
+        if (writeVariants) {
+            openVariantsFile(executionContext);
+        }
+
+        boolean calculateFileStats = variantOptions.getBoolean(VariantStorageManager.CALCULATE_STATS, false)
+                || !VariantSource.Aggregation.NONE.equals(source.getAggregation());
+        sourceStats = null;
+        if (calculateFileStats) {
+            sourceStats = new VariantSourceStats(source.getFileId(), source.getStudyId());
+            if (executionContext.containsKey(FILE_STATS_KEY)) {
+                try {
+                    sourceStats.setFileStats(jsonObjectMapper.readValue(executionContext.getString(FILE_STATS_KEY),
+                            VariantGlobalStats.class));
+                } catch (IOException e) {
+                    throw new ItemStreamException("Could not restore the file statistics", e);
+                }
+            }
+        }
+    }
+
+    private void openVariantsFile(ExecutionContext executionContext) {
+        try {
+            variantsStream = new FileOutputStream(variantsPath.toFile(), true);
+            variantsChannel = variantsStream.getChannel();
+
+            if (executionContext.containsKey(WRITTEN_BYTES_KEY)) {
+                long restartPosition = executionContext.getLong(WRITTEN_BYTES_KEY);
+                logger.info("Restarting transform, discarding anything written in {} after byte {}", variantsPath, restartPosition);
+                variantsChannel.truncate(restartPosition);
+            } else {
+                variantsChannel.truncate(0);
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Could not open the transformed variants file", e);
+        }
+    }
+
+    @Override
+    public void write(List<? extends List<Variant>> items) throws Exception {
+        int chunkVariants = 0;
+        for (List<Variant> variants : items) {
+            chunkVariants += variants.size();
+            if (sourceStats != null) {
+                sourceStats.updateFileStats(variants);
+            }
+        }
+        if (writeVariants) {
+            writeVariants(items);
+        }
+
+        writtenVariants += chunkVariants;
+        logger.debug("{} variants transformed", writtenVariants);
+    }
+
+    private void writeVariants(List<? extends List<Variant>> items) throws IOException {
+        OutputStream chunkStream = new UnclosableOutputStream(variantsStream);
+        if (compress) {
+            chunkStream = new GZIPOutputStream(chunkStream);
+        }
+        chunkStream = new BufferedOutputStream(metrics.countWrittenBytes(chunkStream));
+
+        JsonGenerator generator = jsonObjectMapper.getFactory().createGenerator(chunkStream);
+        generator.setRootValueSeparator(null);     // one variant per line, without a space before all but the first
+        for (List<Variant> variants : items) {
+            for (Variant variant : variants) {
+                generator.writeObject(variant);
+                generator.writeRaw('\n');
+            }
+        }
+        generator.close();     // closes chunkStream, which finishes the gzip member without closing variantsStream
+        variantsChannel.force(false);
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        try {
+            if (writeVariants) {
+                executionContext.putLong(WRITTEN_BYTES_KEY, variantsChannel.position());
+            }
+            executionContext.putLong(WRITTEN_VARIANTS_KEY, writtenVariants);
+            if (sourceStats != null && sourceStats.getFileStats() != null) {
+                executionContext.putString(FILE_STATS_KEY, jsonObjectMapper.writeValueAsString(sourceStats.getFileStats()));
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Could not save the state of the transformed variants file", e);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (variantsStream != null) {
+            try {
+                variantsStream.close();
+            } catch (IOException e) {
+                throw new ItemStreamException("Could not close the transformed variants file", e);
+            } finally {
+                variantsStream = null;
+                variantsChannel = null;
+            }
+        }
+    }
+
+    /**
+     * The VariantSource is written only once all the variants are, so that the file statistics are complete.
+     */
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (BatchStatus.COMPLETED.equals(stepExecution.getStatus())) {
+            VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+            // the source is shared by all the partitions of the step
+            synchronized (source) {
+                if (sourceStats != null) {
+                    source.setStats(sourceStats.getFileStats());
+                }
+                try {
+                    writeSource(source);
+                } catch (IOException e) {
+                    logger.error("Could not write the VariantSource to " + sourcePath, e);
+                    return ExitStatus.FAILED;
+                }
+            }
+            logger.info("{} variants transformed", writtenVariants);
+        }
+        return null;
+    }
+
+    private void writeSource(VariantSource source) throws IOException {
+        OutputStream sourceStream = new FileOutputStream(sourcePath.toFile());
+        if (compress) {
+            sourceStream = new GZIPOutputStream(sourceStream);
+        }
+        try {
+            sourceStream.write(jsonObjectMapper.writeValueAsBytes(source));
+            sourceStream.write('\n');
+        } finally {
+            sourceStream.close();
+        }
+    }
+
+    /**
+     * @return false only if the variants are being loaded while transformed and they don't need to be kept in a file
+     */
+    public static boolean isWritingVariants(JobParameters parameters) {
+        return !Boolean.parseBoolean(parameters.getString(VariantMongoItemWriter.LOAD_WHILE_TRANSFORMING, "false"))
+                || Boolean.parseBoolean(parameters.getString(KEEP_TRANSFORMED_VARIANTS, "false"));
+    }
+
+    /**
+     * @return whether the transformed files are gzipped, according to the compressExtension job parameter
+     */
+    public static boolean isCompressed(JobParameters parameters) {
+        String compressExtension = parameters.getString("compressExtension");
+        if (".gz".equals(compressExtension)) {
+            return true;
+        } else if (compressExtension == null || compressExtension.isEmpty()) {
+            return false;
+        } else {
+            throw new IllegalArgumentException("Unsupported compressExtension: " + compressExtension);
+        }
+    }
+
+    public static Path getTransformedVariantsPath(JobParameters parameters) throws URISyntaxException {
+        return getTransformedPath(parameters, ".variants.json");
+    }
+
+    public static Path getTransformedSourcePath(JobParameters parameters) throws URISyntaxException {
+        return getTransformedPath(parameters, ".file.json");
+    }
+
+    private static Path getTransformedPath(JobParameters parameters, String extension) throws URISyntaxException {
+        Path output = Paths.get(UriUtils.createUri(parameters.getString("outputDir")).getPath());
+        Path input = Paths.get(UriUtils.createUri(parameters.getString("input")).getPath());
+        String compressExtension = isCompressed(parameters) ? parameters.getString("compressExtension") : "";
+        return output.resolve(input.getFileName().toString() + extension + compressExtension);
+    }
+
+
+    /**
+     * Lets a GZIPOutputStream be closed (finishing its member and releasing its Deflater) while the file stays open.
+     */
+    private static class UnclosableOutputStream extends FilterOutputStream {
+
+        UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.writers;
+
+import embl.ebi.variation.eva.pipeline.io.readers.VariantJsonLineReader;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.metrics.StepMetrics;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.opencga.storage.core.StorageManagerFactory;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.opencb.opencga.storage.mongodb.variant.VariantMongoDBWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Loads variants into MongoDB using several threads, each one with its own VariantMongoDBWriter.
+ *
+ * Every chunk is split in bulks of {@link #LOAD_BULK_SIZE} variants, which are queued for the writer threads. The
+ * queue is bounded, so a chunk much bigger than the bulk size does not convert all its variants to BSON at once. Every
+ * bulk is finished with post(), which writes anything the VariantMongoDBWriter may still be buffering, so the chunk is
+ * not committed until every bulk has been acknowledged by the database.
+ *
+ * A restarted step resumes from the position its reader saved at the last commit, so it only replays the chunk that
+ * was being written when it stopped, which the database receives again as upserts. The writer only saves the number
+ * of variants loaded, to keep counting them from there.
+ *
+ * The same writer can be used in the load step, reading the transformed file, or in the transform step, when
+ * {@link #LOAD_WHILE_TRANSFORMING} is requested, so that the variants do not take a round trip through the disk.
+ * Only the instance of the load step writes the file summary, once the load step has read the final VariantSource.
+ */
+public class VariantMongoItemWriter implements ItemStreamWriter<Variant>, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantMongoItemWriter.class);
+
+    public static final String LOAD_THREADS = "loadThreads";
+    public static final String LOAD_BULK_SIZE = "loadBulkSize";
+    public static final int DEFAULT_LOAD_THREADS = 1;
+    public static final int DEFAULT_LOAD_BULK_SIZE = 1000;
+    public static final String LOAD_WHILE_TRANSFORMING = "loadWhileTransforming";
+
+    private static final String LOADED_VARIANTS_KEY = "variantMongoItemWriter.loaded.variants";
+
+    private JobParametersListener listener;
+    private boolean inTransformStep;
+    private JobParameters parameters;
+    private boolean writeVariants;
+    private boolean writeSummary;
+
+    private int threads;
+    private int bulkSize;
+    private ExecutorService executor;
+    private List<VariantMongoDBWriter> writers;
+    private BlockingQueue<VariantMongoDBWriter> idleWriters;
+    private long writtenVariants;
+    private StepMetrics metrics;
+
+    /**
+     * @param inTransformStep whether the writer receives the variants straight from the transform step
+     */
+    public VariantMongoItemWriter(JobParametersListener listener, boolean inTransformStep) {
+        this.listener = listener;
+        this.inTransformStep = inTransformStep;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        threads = Integer.parseInt(parameters.getString(LOAD_THREADS, String.valueOf(DEFAULT_LOAD_THREADS)));
+        bulkSize = Integer.parseInt(parameters.getString(LOAD_BULK_SIZE, String.valueOf(DEFAULT_LOAD_BULK_SIZE)));
+        if (threads < 1 || bulkSize < 1) {
+            throw new ItemStreamException(LOAD_THREADS + " and " + LOAD_BULK_SIZE + " must be positive numbers");
+        }
+        boolean skipLoad = Boolean.parseBoolean(parameters.getString(VariantJsonLineReader.SKIP_LOAD, "false"));
+        boolean loadWhileTransforming = Boolean.parseBoolean(parameters.getString(LOAD_WHILE_TRANSFORMING, "false"));
+        writeVariants = !skipLoad && inTransformStep == loadWhileTransforming;
+        writeSummary = !skipLoad && !inTransformStep;
+        writers = null;
+        metrics = StepMetrics.forCurrentStep();
+        writtenVariants = executionContext.containsKey(LOADED_VARIANTS_KEY) ?
+                executionContext.getLong(LOADED_VARIANTS_KEY) : 0;
+    }
+
+    @Override
+    public void write(List<? extends Variant> variants) throws Exception {
+        if (!writeVariants) {
+            return;
+        }
+        if (writers == null) {
+            openWriters();
+        }
+
+        long start = System.currentTimeMillis();
+        List<Future<?>> bulks = new ArrayList<>();
+        for (int i = 0; i < variants.size(); i += bulkSize) {
+            final List<Variant> bulk = new ArrayList<>(variants.subList(i, Math.min(i + bulkSize, variants.size())));
+            bulks.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    writeBulk(bulk);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> bulk : bulks) {
+                bulk.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> bulk : bulks) {
+                bulk.cancel(false);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+
+        writtenVariants += variants.size();
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        logger.info("{} variants loaded in {} ms ({} variants/s), {} in total", variants.size(), elapsed,
+                variants.size() * 1000 / elapsed, writtenVariants);
+    }
+
+    private void writeBulk(List<Variant> bulk) throws InterruptedException {
+        VariantMongoDBWriter writer = idleWriters.take();
+        try {
+            long start = System.nanoTime();
+            if (!writer.write(bulk) || !writer.post()) {
+                throw new IllegalStateException("Could not write a bulk of " + bulk.size() + " variants");
+            }
+            long elapsed = System.nanoTime() - start;
+            metrics.addDbBatch(elapsed);
+            logger.debug("Bulk of {} variants written in {} ms", bulk.size(), elapsed / 1000000);
+        } finally {
+            idleWriters.put(writer);
+        }
+    }
+
+    private void openWriters() throws Exception {
+        ObjectMap variantOptions = listener.getVariantOptions();
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        String dbName = variantOptions.getString(VariantStorageManager.DB_NAME);
+
+        logger.info("Loading into {} with {} threads, in bulks of {} variants", dbName, threads, bulkSize);
+        writers = new ArrayList<>(threads);
+        idleWriters = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) {
+            VariantMongoDBWriter writer = (VariantMongoDBWriter) variantStorageManager.getDBWriter(dbName, variantOptions);
+            writer.includeSrc(variantOptions.get(VariantStorageManager.INCLUDE_SRC, VariantStorageManager.IncludeSrc.class));
+            writer.includeSamples(variantOptions.getBoolean(VariantStorageManager.INCLUDE_SAMPLES));
+            writer.includeStats(variantOptions.getBoolean(VariantStorageManager.INCLUDE_STATS));
+            writer.setCompressDefaultGenotype(variantOptions.getBoolean(VariantStorageManager.COMPRESS_GENOTYPES));
+            if (!writer.open() || !writer.pre()) {
+                throw new ItemStreamException("Could not connect to the database " + dbName);
+            }
+            writers.add(writer);
+            idleWriters.add(writer);
+        }
+
+        // when the queue is full the step thread writes the next bulk itself, instead of queueing the whole chunk
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (writeVariants) {
+            executionContext.putLong(LOADED_VARIANTS_KEY, writtenVariants);
+        }
+    }
+
+    /**
+     * The variants are already flushed by {@link #write}, but the file summary that post() upserts is only final once
+     * the load step has read the whole VariantSource, so the load step finishes every writer with post() again, opening
+     * them if it didn't load anything itself. post() creates the indexes only if they are missing, so doing it once
+     * per writer leaves the same result as doing it once.
+     */
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (BatchStatus.COMPLETED.equals(stepExecution.getStatus()) && writeSummary) {
+            try {
+                if (writers == null) {
+                    openWriters();
+                }
+                for (VariantMongoDBWriter writer : writers) {
+                    if (!writer.post()) {
+                        logger.error("Could not write the file summary of the loaded variants");
+                        return ExitStatus.FAILED;
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Could not write the file summary of the loaded variants", e);
+                return ExitStatus.FAILED;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (writers != null) {
+            for (VariantMongoDBWriter writer : writers) {
+                writer.close();
+            }
+            writers = null;
+        }
+    }
+}
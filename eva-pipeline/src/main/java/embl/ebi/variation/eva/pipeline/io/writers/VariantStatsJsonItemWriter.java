@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.writers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import embl.ebi.variation.eva.pipeline.io.UriUtils;
+import embl.ebi.variation.eva.pipeline.io.VariantJsonMapper;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.metrics.StepMetrics;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsMerge;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
+import embl.ebi.variation.eva.pipeline.steps.processors.VariantStatsProcessor;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.models.variant.stats.VariantSourceStats;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the stats calculated by {@link VariantStatsProcessor} in the files that VariantStatisticsManager.loadStats
+ * reads: {@code <outputDir>/<fileId>_<studyId>.variants.stats.json.gz} gets one VariantStatsWrapper per variant,
+ * and {@code <outputDir>/<fileId>_<studyId>.source.stats.json.gz} the VariantSourceStats with the file and sample
+ * counts, once the step completes. When the step is a partition (see {@link VcfChromosomePartitioner}) both files
+ * get the part extension of the partition; the source stats are merged afterwards by {@link VariantsStatsMerge},
+ * and the variants stats parts are loaded in parallel.
+ *
+ * The reader doesn't save its state, so the files are always written from the beginning.
+ *
+ * When the stats are loaded while they are calculated (see
+ * {@link VariantStatsMongoItemWriter#LOAD_STATS_WHILE_CREATING}) the variants stats file is only written if
+ * {@link #KEEP_CREATED_STATS} is requested, but the source stats are written anyway, as they are loaded by the
+ * statsLoad step.
+ */
+public class VariantStatsJsonItemWriter implements ItemStreamWriter<Variant>, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantStatsJsonItemWriter.class);
+
+    public static final String VARIANT_STATS_SUFFIX = ".variants.stats.json.gz";
+    public static final String SOURCE_STATS_SUFFIX = ".source.stats.json.gz";
+    public static final String KEEP_CREATED_STATS = "keepCreatedStats";
+
+    private JobParametersListener listener;
+    private JobParameters parameters;
+    private ObjectMapper jsonObjectMapper;
+
+    private Path variantsStatsPath;
+    private Path sourceStatsPath;
+    private boolean writeVariantsStats;
+    private OutputStream variantsStatsStream;
+    private JsonGenerator generator;
+    private VariantSourceStats sourceStats;
+    private long writtenStats;
+
+    public VariantStatsJsonItemWriter(JobParametersListener listener) {
+        this.listener = listener;
+        this.jsonObjectMapper = VariantJsonMapper.create();
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        try {
+            variantsStatsPath = getVariantStatsPath(parameters, source);
+            sourceStatsPath = getSourceStatsPath(parameters, source);
+        } catch (URISyntaxException e) {
+            throw new ItemStreamException("Invalid stats output directory", e);
+        }
+        if (executionContext.containsKey(VcfChromosomePartitioner.PARTITION_INDEX)) {
+            int partition = executionContext.getInt(VcfChromosomePartitioner.PARTITION_INDEX);
+            variantsStatsPath = VcfChromosomePartitioner.getPartPath(variantsStatsPath, partition);
+            sourceStatsPath = VcfChromosomePartitioner.getPartPath(sourceStatsPath, partition);
+        }
+
+        writeVariantsStats = isWritingVariantsStats(parameters);
+        if (writeVariantsStats) {
+            try {
+                StepMetrics metrics = StepMetrics.forCurrentStep();
+                variantsStatsStream = new BufferedOutputStream(metrics.countWrittenBytes(
+                        new GZIPOutputStream(Files.newOutputStream(variantsStatsPath))));
+                generator = jsonObjectMapper.getFactory().createGenerator(variantsStatsStream);
+            } catch (IOException e) {
+                throw new ItemStreamException("Could not open the variants stats file " + variantsStatsPath, e);
+            }
+        } else {
+            logger.info("Stats will be loaded without keeping them in {}", variantsStatsPath);
+        }
+        sourceStats = new VariantSourceStats(source.getFileId(), source.getStudyId());
+        writtenStats = 0;
+    }
+
+    @Override
+    public void write(List<? extends Variant> items) throws Exception {
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        if (writeVariantsStats) {
+            for (Variant variant : items) {
+                generator.writeObject(VariantStatsProcessor.createStatsWrapper(variant, source));
+                generator.writeRaw('\n');
+            }
+            generator.flush();
+        }
+
+        List<Variant> variants = new ArrayList<>(items);
+        sourceStats.updateFileStats(variants);
+        sourceStats.updateSampleStats(variants, source.getPedigree());
+        writtenStats += items.size();
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (variantsStatsStream != null) {
+            try {
+                generator.close();
+                variantsStatsStream.close();
+            } catch (IOException e) {
+                throw new ItemStreamException("Could not close the variants stats file " + variantsStatsPath, e);
+            } finally {
+                generator = null;
+                variantsStatsStream = null;
+            }
+        }
+    }
+
+    /**
+     * The source stats are written only once all the variants are, so that the counts are complete.
+     */
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (BatchStatus.COMPLETED.equals(stepExecution.getStatus())) {
+            try {
+                writeSourceStats(sourceStats, sourceStatsPath, jsonObjectMapper);
+            } catch (IOException e) {
+                logger.error("Could not write the source stats to " + sourceStatsPath, e);
+                return ExitStatus.FAILED;
+            }
+            logger.info("Stats of {} variants calculated", writtenStats);
+        }
+        return null;
+    }
+
+    public static void writeSourceStats(VariantSourceStats sourceStats, Path path, ObjectMapper jsonObjectMapper)
+            throws IOException {
+        OutputStream sourceStream = new GZIPOutputStream(Files.newOutputStream(path));
+        try {
+            sourceStream.write(jsonObjectMapper.writeValueAsBytes(sourceStats));
+        } finally {
+            sourceStream.close();
+        }
+    }
+
+    /**
+     * @return false only if the stats are being loaded while calculated and they don't need to be kept in a file
+     */
+    public static boolean isWritingVariantsStats(JobParameters parameters) {
+        return !VariantStatsMongoItemWriter.isLoadingWhileCreating(parameters)
+                || Boolean.parseBoolean(parameters.getString(KEEP_CREATED_STATS, "false"));
+    }
+
+    public static Path getVariantStatsPath(JobParameters parameters, VariantSource source) throws URISyntaxException {
+        return getStatsPath(parameters, source, VARIANT_STATS_SUFFIX);
+    }
+
+    public static Path getSourceStatsPath(JobParameters parameters, VariantSource source) throws URISyntaxException {
+        return getStatsPath(parameters, source, SOURCE_STATS_SUFFIX);
+    }
+
+    private static Path getStatsPath(JobParameters parameters, VariantSource source, String suffix)
+            throws URISyntaxException {
+        URI outdirUri = UriUtils.createUri(parameters.getString("outputDir"));
+        URI statsOutputUri = outdirUri.resolve(VariantStorageManager.buildFilename(source));
+        return Paths.get(statsOutputUri.getPath() + suffix);
+    }
+
+}
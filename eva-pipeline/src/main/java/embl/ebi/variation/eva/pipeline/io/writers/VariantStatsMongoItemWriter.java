@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.writers;
+
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.metrics.StepMetrics;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsCreate;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsLoad;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.StorageManagerFactory;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Stores the stats of the variants in the database in bulks of {@link #STATS_LOAD_BULK_SIZE} variants. Every bulk is
+ * sent with a single VariantDBAdaptor.updateStats call, which the MongoDB adaptor executes as one unordered bulk
+ * operation, instead of a round trip per variant.
+ *
+ * The bulks can be written by several threads ({@link #STATS_LOAD_THREADS}). The stats of a chromosome are always
+ * written by the same thread, so the threads never compete for the same documents and the updates of a chromosome
+ * reach the database in the order they were read. The chunk is not committed until every bulk has been acknowledged.
+ *
+ * The same writer can be used in the stats load step, reading the variants stats files, or in the stats creation
+ * step, when {@link #LOAD_STATS_WHILE_CREATING} is requested, so that the stats are stored as soon as they are
+ * calculated, without being written to a file and read back.
+ */
+public class VariantStatsMongoItemWriter implements ItemStreamWriter<VariantStatsWrapper>, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantStatsMongoItemWriter.class);
+
+    public static final String LOAD_STATS_WHILE_CREATING = "loadStatsWhileCreating";
+    public static final String STATS_LOAD_THREADS = "statsLoadThreads";
+    public static final String STATS_LOAD_BULK_SIZE = "statsLoadBulkSize";
+    public static final int DEFAULT_STATS_LOAD_THREADS = 1;
+    public static final int DEFAULT_STATS_LOAD_BULK_SIZE = 1000;
+
+    private JobParametersListener listener;
+    private boolean inCreateStep;
+    private JobParameters parameters;
+    private boolean writeStats;
+    private int threads;
+    private int bulkSize;
+    private VariantDBAdaptor dbAdaptor;
+    private List<ExecutorService> executors;
+    private long writtenStats;
+    private long writingTime;
+    private StepMetrics metrics;
+
+    /**
+     * @param inCreateStep whether the writer receives the stats straight from the stats creation step
+     */
+    public VariantStatsMongoItemWriter(JobParametersListener listener, boolean inCreateStep) {
+        this.listener = listener;
+        this.inCreateStep = inCreateStep;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+        boolean skipLoad = Boolean.parseBoolean(parameters.getString(VariantsStatsLoad.SKIP_STATS_LOAD, "false"));
+        writeStats = !skipLoad && inCreateStep == isLoadingWhileCreating(parameters);
+        writtenStats = 0;
+        writingTime = 0;
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (writeStats) {
+            logger.info("Stats of {} variants loaded in {} ms ({} updates/s)", writtenStats, writingTime,
+                    writtenStats * 1000 / Math.max(1, writingTime));
+        }
+        return null;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        threads = Integer.parseInt(parameters.getString(STATS_LOAD_THREADS, String.valueOf(DEFAULT_STATS_LOAD_THREADS)));
+        bulkSize = Integer.parseInt(parameters.getString(STATS_LOAD_BULK_SIZE, String.valueOf(DEFAULT_STATS_LOAD_BULK_SIZE)));
+        if (threads < 1 || bulkSize < 1) {
+            throw new ItemStreamException(STATS_LOAD_THREADS + " and " + STATS_LOAD_BULK_SIZE + " must be positive numbers");
+        }
+        executors = null;
+        metrics = StepMetrics.forCurrentStep();
+    }
+
+    @Override
+    public void write(List<? extends VariantStatsWrapper> items) throws Exception {
+        if (!writeStats) {
+            return;
+        }
+        if (executors == null) {
+            openExecutors();
+        }
+
+        long start = System.currentTimeMillis();
+        List<List<VariantStatsWrapper>> queues = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            queues.add(new ArrayList<VariantStatsWrapper>());
+        }
+        for (VariantStatsWrapper wrapper : items) {
+            queues.get(getThread(wrapper.getChromosome())).add(wrapper);
+        }
+
+        final QueryOptions options = new QueryOptions(listener.getVariantOptions());
+        List<Future<?>> bulks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            List<VariantStatsWrapper> queue = queues.get(i);
+            for (int j = 0; j < queue.size(); j += bulkSize) {
+                final List<VariantStatsWrapper> bulk = new ArrayList<>(queue.subList(j, Math.min(j + bulkSize, queue.size())));
+                bulks.add(executors.get(i).submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        writeBulk(bulk, options);
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        try {
+            for (Future<?> bulk : bulks) {
+                bulk.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> bulk : bulks) {
+                bulk.cancel(false);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+
+        writtenStats += items.size();
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        writingTime += elapsed;
+        logger.info("Stats of {} variants loaded in {} ms ({} updates/s), {} in total", items.size(), elapsed,
+                items.size() * 1000 / elapsed, writtenStats);
+    }
+
+    private void writeBulk(List<VariantStatsWrapper> bulk, QueryOptions options) {
+        long start = System.nanoTime();
+        dbAdaptor.updateStats(bulk, options);
+        long elapsed = System.nanoTime() - start;
+        metrics.addDbBatch(elapsed);
+        logger.debug("Bulk of {} stats written in {} ms", bulk.size(), elapsed / 1000000);
+    }
+
+    private int getThread(String chromosome) {
+        return chromosome == null ? 0 : (chromosome.hashCode() & Integer.MAX_VALUE) % threads;
+    }
+
+    private void openExecutors() throws Exception {
+        ObjectMap variantOptions = listener.getVariantOptions();
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        String dbName = variantOptions.getString("dbName");
+        dbAdaptor = variantStorageManager.getDBAdaptor(dbName, variantOptions);
+
+        logger.info("Loading stats into {} with {} threads, in bulks of {} variants", dbName, threads, bulkSize);
+        // a single thread per executor keeps the bulks of a chromosome in order
+        executors = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            executors.add(Executors.newSingleThreadExecutor());
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (executors != null) {
+            for (ExecutorService executor : executors) {
+                executor.shutdown();
+            }
+            executors = null;
+        }
+        if (dbAdaptor != null) {
+            dbAdaptor.close();
+            dbAdaptor = null;
+        }
+    }
+
+    /**
+     * @return whether the stats are loaded by the stats creation step, instead of written to a file for the load step
+     */
+    public static boolean isLoadingWhileCreating(JobParameters parameters) {
+        return Boolean.parseBoolean(parameters.getString(LOAD_STATS_WHILE_CREATING, "false"))
+                && !Boolean.parseBoolean(parameters.getString(VariantsStatsCreate.SKIP_STATS_CREATE, "false"));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.io.writers;
+
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.steps.processors.VariantStatsProcessor;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+import org.springframework.batch.item.ItemWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapts a writer of VariantStatsWrappers to the stats creation step, whose processor returns the variants with the
+ * stats of the file calculated (see {@link VariantStatsProcessor}).
+ *
+ * The stream callbacks are forwarded to the delegate, but not the step listener ones: the delegate must be
+ * registered as a listener of the step on its own if it needs to.
+ */
+public class VariantStatsWrappingItemWriter implements ItemStreamWriter<Variant> {
+
+    private JobParametersListener listener;
+    private ItemWriter<VariantStatsWrapper> delegate;
+
+    public VariantStatsWrappingItemWriter(JobParametersListener listener, ItemWriter<VariantStatsWrapper> delegate) {
+        this.listener = listener;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(List<? extends Variant> variants) throws Exception {
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        List<VariantStatsWrapper> items = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            items.add(VariantStatsProcessor.createStatsWrapper(variant, source));
+        }
+        delegate.write(items);
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) throws ItemStreamException {
+        if (delegate instanceof ItemStream) {
+            ((ItemStream) delegate).open(executionContext);
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) throws ItemStreamException {
+        if (delegate instanceof ItemStream) {
+            ((ItemStream) delegate).update(executionContext);
+        }
+    }
+
+    @Override
+    public void close() throws ItemStreamException {
+        if (delegate instanceof ItemStream) {
+            ((ItemStream) delegate).close();
+        }
+    }
+}
@@ -16,8 +16,6 @@
 package embl.ebi.variation.eva.pipeline.jobs;
 
 import embl.ebi.variation.eva.pipeline.listeners.AggregatedJobParametersListener;
-import embl.ebi.variation.eva.pipeline.steps.VariantsLoad;
-import embl.ebi.variation.eva.pipeline.steps.VariantsTransform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.Job;
@@ -36,10 +34,6 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.Paths;
-
 @Configuration
 @EnableBatchProcessing
 public class VariantAggregatedConfiguration {
@@ -69,44 +63,18 @@ public class VariantAggregatedConfiguration {
                 .get(jobName)
                 .incrementer(new RunIdIncrementer())
                 .listener(listener);
+        VariantJobSteps steps = new VariantJobSteps(stepBuilderFactory, listener);
 
         return jobBuilder
-                .start(transform())
-                .next(load())
+                .start(steps.transform())
+                .next(steps.transformMerge())
+                .next(steps.load())
 //                .next(statsCreate())
 //                .next(statsLoad())
 //                .next(annotation(stepBuilderFactory));
                 .build();
     }
 
-    public Step transform() {
-        StepBuilder step1 = stepBuilderFactory.get("transform");
-        final TaskletStepBuilder tasklet = step1.tasklet(new VariantsTransform(listener));
-
-        // true: every job execution will do this step, even if this step is already COMPLETED
-        // false: if the job was aborted and is relaunched, this step will NOT be done again
-        tasklet.allowStartIfComplete(false);
-
-        return tasklet.build();
-    }
-
-    public Step load() {
-        StepBuilder step1 = stepBuilderFactory.get("load");
-        TaskletStepBuilder tasklet = step1.tasklet(new VariantsLoad(listener));
-
-        // true: every job execution will do this step, even if this step is already COMPLETED
-        // false: if the job was aborted and is relaunched, this step will NOT be done again
-        tasklet.allowStartIfComplete(false);
-        return tasklet.build();
-    }
-
-    public static URI createUri(String input) throws URISyntaxException {
-        URI sourceUri = new URI(null, input, null);
-        if (sourceUri.getScheme() == null || sourceUri.getScheme().isEmpty()) {
-            sourceUri = Paths.get(input).toUri();
-        }
-        return sourceUri;
-    }
 /*
     @Autowired
     JobLauncher jobLauncher;
@@ -117,7 +85,6 @@ public class VariantAggregatedConfiguration {
     @Autowired
     JobRegistry jobRegistry;
 
-
     @Value("${input}")
     private String input;
 
@@ -15,24 +15,21 @@
  */
 package embl.ebi.variation.eva.pipeline.jobs;
 
+import embl.ebi.variation.eva.pipeline.daemon.JobQueueDaemon;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantMongoItemWriter;
 import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
 import embl.ebi.variation.eva.pipeline.listeners.VariantJobParametersListener;
-import embl.ebi.variation.eva.pipeline.steps.VariantsLoad;
 import embl.ebi.variation.eva.pipeline.steps.VariantsStatsCreate;
-import embl.ebi.variation.eva.pipeline.steps.VariantsStatsLoad;
-import embl.ebi.variation.eva.pipeline.steps.VariantsTransform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.Job;
-import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.JobFactory;
 import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
 import org.springframework.batch.core.job.builder.JobBuilder;
 import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.batch.core.launch.support.RunIdIncrementer;
-import org.springframework.batch.core.step.builder.StepBuilder;
-import org.springframework.batch.core.step.builder.TaskletStepBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
@@ -47,6 +44,32 @@ public class VariantConfiguration {
     public static final String jobName = "variantJob";
     public static final String statsJobName = "variantStatsJob";
 
+    /**
+     * job parameter with the number of VCF lines transformed and written between commits
+     */
+    public static final String TRANSFORM_CHUNK_SIZE = "transformChunkSize";
+    public static final int DEFAULT_TRANSFORM_CHUNK_SIZE = 1000;
+
+    /**
+     * job parameter with the number of threads transforming the VCF. If it is more than 1, the VCF is split by
+     * chromosome, and each chromosome is transformed separately.
+     */
+    public static final String TRANSFORM_THREADS = "transformThreads";
+
+    /**
+     * job parameter with the number of variants loaded between commits. See {@link VariantMongoItemWriter} for the
+     * number of threads and the size of the bulk writes.
+     */
+    public static final String LOAD_CHUNK_SIZE = "loadChunkSize";
+    public static final int DEFAULT_LOAD_CHUNK_SIZE = 10000;
+
+    /**
+     * job parameter with the number of variants whose stats are calculated, or loaded, between commits when the
+     * stats are processed in parallel. See {@link VariantsStatsCreate#STATS_THREADS}.
+     */
+    public static final String STATS_CHUNK_SIZE = "statsChunkSize";
+    public static final int DEFAULT_STATS_CHUNK_SIZE = 1000;
+
     @Autowired
     private JobBuilderFactory jobBuilderFactory;
     @Autowired
@@ -65,58 +88,49 @@ public class VariantConfiguration {
 
     @Bean
     public Job variantJob() {
+        return createVariantJob();
+    }
+
+    /**
+     * Builds a new variantJob for every launch from the {@link JobQueueDaemon}, so that it can run several at the
+     * same time.
+     */
+    @Bean
+    public JobFactory variantJobFactory() {
+        return new JobFactory() {
+            @Override
+            public Job createJob() {
+                return createVariantJob();
+            }
+
+            @Override
+            public String getJobName() {
+                return jobName;
+            }
+        };
+    }
+
+    /**
+     * Builds a new variantJob, whose steps have their own readers and writers, so that several files can be
+     * ingested at the same time. See {@link VariantManifestConfiguration}.
+     */
+    public Job createVariantJob() {
         JobBuilder jobBuilder = jobBuilderFactory
                 .get(jobName)
                 .incrementer(new RunIdIncrementer())
                 .listener(listener);
+        VariantJobSteps steps = new VariantJobSteps(stepBuilderFactory, listener);
 
         return jobBuilder
-                .start(transform())
-                .next(load())
-                .next(statsCreate())
-                .next(statsLoad())
+                .start(steps.transform())
+                .next(steps.transformMerge())
+                .next(steps.load())
+                .next(steps.statsCreate())
+                .next(steps.statsCreateParallel())
+                .next(steps.statsCreateMerge())
+                .next(steps.statsLoadParallel())
+                .next(steps.statsLoad())
 //                .next(annotation(stepBuilderFactory));
                 .build();
     }
-
-    public Step transform() {
-        StepBuilder step1 = stepBuilderFactory.get("transform");
-        TaskletStepBuilder tasklet = step1.tasklet(new VariantsTransform(listener));
-
-        // true: every job execution will do this step, even if this step is already COMPLETED
-        // false: if the job was aborted and is relaunched, this step will NOT be done again
-        tasklet.allowStartIfComplete(false);
-
-        return tasklet.build();
-    }
-
-    public Step load() {
-        StepBuilder step1 = stepBuilderFactory.get("load");
-        TaskletStepBuilder tasklet = step1.tasklet(new VariantsLoad(listener));
-
-        // true: every job execution will do this step, even if this step is already COMPLETED
-        // false: if the job was aborted and is relaunched, this step will NOT be done again
-        tasklet.allowStartIfComplete(false);
-        return tasklet.build();
-    }
-
-    public Step statsCreate() {
-        StepBuilder step1 = stepBuilderFactory.get("statsCreate");
-        TaskletStepBuilder tasklet = step1.tasklet(new VariantsStatsCreate(listener));
-
-        // true: every job execution will do this step, even if this step is already COMPLETED
-        // false: if the job was aborted and is relaunched, this step will NOT be done again
-        tasklet.allowStartIfComplete(false);
-        return tasklet.build();
-    }
-
-    public Step statsLoad() {
-        StepBuilder step1 = stepBuilderFactory.get("statsLoad");
-        TaskletStepBuilder tasklet = step1.tasklet(new VariantsStatsLoad(listener));
-
-        // true: every job execution will do this step, even if this step is already COMPLETED
-        // false: if the job was aborted and is relaunched, this step will NOT be done again
-        tasklet.allowStartIfComplete(false);
-        return tasklet.build();
-    }
 }
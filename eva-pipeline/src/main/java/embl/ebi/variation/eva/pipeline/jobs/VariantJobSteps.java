@@ -0,0 +1,241 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.jobs;
+
+import embl.ebi.variation.eva.pipeline.io.readers.VariantDBItemReader;
+import embl.ebi.variation.eva.pipeline.io.readers.VariantJsonLineReader;
+import embl.ebi.variation.eva.pipeline.io.readers.VariantStatsJsonReader;
+import embl.ebi.variation.eva.pipeline.io.readers.VcfLineReader;
+import embl.ebi.variation.eva.pipeline.io.writers.ListUnpackingItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantMongoItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsMongoItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsWrappingItemWriter;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.metrics.StepMetricsListener;
+import embl.ebi.variation.eva.pipeline.steps.JobParameterCompletionPolicy;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsCreate;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsLoad;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsMerge;
+import embl.ebi.variation.eva.pipeline.steps.VariantsTransformMerge;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.StepPerPartitionHandler;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VariantStatsCreatePartitioner;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VariantStatsLoadPartitioner;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
+import embl.ebi.variation.eva.pipeline.steps.processors.VariantNormalizerProcessor;
+import embl.ebi.variation.eva.pipeline.steps.processors.VariantStatsProcessor;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.step.builder.PartitionStepBuilder;
+import org.springframework.batch.core.step.builder.SimpleStepBuilder;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.builder.TaskletStepBuilder;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.item.support.CompositeItemWriter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the steps shared by the variant jobs. Every call returns a new step, with its own readers and writers, that
+ * gets the job options from `listener`. See {@link VariantConfiguration} for the parameters of each step.
+ */
+public class VariantJobSteps {
+
+    private StepBuilderFactory stepBuilderFactory;
+    private JobParametersListener listener;
+
+    public VariantJobSteps(StepBuilderFactory stepBuilderFactory, JobParametersListener listener) {
+        this.stepBuilderFactory = stepBuilderFactory;
+        this.listener = listener;
+    }
+
+    public Step transform() {
+        StepBuilder step1 = stepBuilderFactory.get("transform");
+        VcfChromosomePartitioner partitioner = new VcfChromosomePartitioner(listener, VariantConfiguration.TRANSFORM_THREADS);
+        PartitionStepBuilder partition = step1.partitioner("transformPartition", partitioner)
+                .partitionHandler(new StepPerPartitionHandler(new StepPerPartitionHandler.StepFactory() {
+                    @Override
+                    public Step createStep() {
+                        return transformPartition();
+                    }
+                }, VariantConfiguration.TRANSFORM_THREADS))
+                .listener(partitioner)
+                .listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        partition.allowStartIfComplete(false);
+
+        return partition.build();
+    }
+
+    private Step transformPartition() {
+        StepBuilder step1 = stepBuilderFactory.get("transformPartition");
+        JobParameterCompletionPolicy chunkPolicy = new JobParameterCompletionPolicy(VariantConfiguration.TRANSFORM_CHUNK_SIZE, VariantConfiguration.DEFAULT_TRANSFORM_CHUNK_SIZE);
+        VariantJsonItemWriter jsonWriter = new VariantJsonItemWriter(listener);
+        VariantMongoItemWriter mongoWriter = new VariantMongoItemWriter(listener, true);
+        CompositeItemWriter<List<Variant>> writer = new CompositeItemWriter<>();
+        writer.setDelegates(Arrays.<ItemWriter<? super List<Variant>>>asList(
+                jsonWriter, new ListUnpackingItemWriter<>(mongoWriter)));
+
+        SimpleStepBuilder<String, List<Variant>> chunk = step1.<String, List<Variant>>chunk(chunkPolicy)
+                .reader(new VcfLineReader(listener))
+                .processor(new VariantNormalizerProcessor(listener))
+                .writer(writer);
+        chunk.listener(chunkPolicy);
+        chunk.listener(new StepMetricsListener());
+        chunk.listener(jsonWriter);
+        chunk.listener(mongoWriter);
+
+        return chunk.build();
+    }
+
+    public Step transformMerge() {
+        StepBuilder step1 = stepBuilderFactory.get("transformMerge");
+        TaskletStepBuilder tasklet = step1.tasklet(new VariantsTransformMerge());
+        tasklet.listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        tasklet.allowStartIfComplete(false);
+        return tasklet.build();
+    }
+
+    public Step load() {
+        StepBuilder step1 = stepBuilderFactory.get("load");
+        JobParameterCompletionPolicy chunkPolicy = new JobParameterCompletionPolicy(VariantConfiguration.LOAD_CHUNK_SIZE, VariantConfiguration.DEFAULT_LOAD_CHUNK_SIZE);
+        SimpleStepBuilder<Variant, Variant> chunk = step1.<Variant, Variant>chunk(chunkPolicy)
+                .reader(new VariantJsonLineReader(listener))
+                .writer(new VariantMongoItemWriter(listener, false));
+        chunk.listener(chunkPolicy);
+        chunk.listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        chunk.allowStartIfComplete(false);
+        return chunk.build();
+    }
+
+    public Step statsCreate() {
+        StepBuilder step1 = stepBuilderFactory.get("statsCreate");
+        TaskletStepBuilder tasklet = step1.tasklet(new VariantsStatsCreate(listener));
+        tasklet.listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        tasklet.allowStartIfComplete(false);
+        return tasklet.build();
+    }
+
+    public Step statsCreateParallel() {
+        StepBuilder step1 = stepBuilderFactory.get("statsCreateParallel");
+        VariantStatsCreatePartitioner partitioner = new VariantStatsCreatePartitioner(listener);
+        PartitionStepBuilder partition = step1.partitioner("statsCreatePartition", partitioner)
+                .partitionHandler(new StepPerPartitionHandler(new StepPerPartitionHandler.StepFactory() {
+                    @Override
+                    public Step createStep() {
+                        return statsCreatePartition();
+                    }
+                }, VariantsStatsCreate.STATS_THREADS))
+                .listener(partitioner)
+                .listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        partition.allowStartIfComplete(false);
+        return partition.build();
+    }
+
+    private Step statsCreatePartition() {
+        StepBuilder step1 = stepBuilderFactory.get("statsCreatePartition");
+        JobParameterCompletionPolicy chunkPolicy = new JobParameterCompletionPolicy(VariantConfiguration.STATS_CHUNK_SIZE, VariantConfiguration.DEFAULT_STATS_CHUNK_SIZE);
+        VariantStatsJsonItemWriter jsonWriter = new VariantStatsJsonItemWriter(listener);
+        VariantStatsMongoItemWriter mongoWriter = new VariantStatsMongoItemWriter(listener, true);
+        CompositeItemWriter<Variant> writer = new CompositeItemWriter<>();
+        writer.setDelegates(Arrays.<ItemWriter<? super Variant>>asList(
+                jsonWriter, new VariantStatsWrappingItemWriter(listener, mongoWriter)));
+
+        SimpleStepBuilder<Variant, Variant> chunk = step1.<Variant, Variant>chunk(chunkPolicy)
+                .reader(new VariantDBItemReader(listener))
+                .processor(new VariantStatsProcessor(listener))
+                .writer(writer);
+        chunk.listener(chunkPolicy);
+        chunk.listener(new StepMetricsListener());
+        chunk.listener(jsonWriter);
+        chunk.listener(mongoWriter);
+
+        return chunk.build();
+    }
+
+    public Step statsCreateMerge() {
+        StepBuilder step1 = stepBuilderFactory.get("statsCreateMerge");
+        TaskletStepBuilder tasklet = step1.tasklet(new VariantsStatsMerge(listener));
+        tasklet.listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        tasklet.allowStartIfComplete(false);
+        return tasklet.build();
+    }
+
+    public Step statsLoadParallel() {
+        StepBuilder step1 = stepBuilderFactory.get("statsLoadParallel");
+        VariantStatsLoadPartitioner partitioner = new VariantStatsLoadPartitioner(listener);
+        PartitionStepBuilder partition = step1.partitioner("statsLoadPartition", partitioner)
+                .partitionHandler(new StepPerPartitionHandler(new StepPerPartitionHandler.StepFactory() {
+                    @Override
+                    public Step createStep() {
+                        return statsLoadPartition();
+                    }
+                }, VariantsStatsCreate.STATS_THREADS))
+                .listener(partitioner)
+                .listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        partition.allowStartIfComplete(false);
+        return partition.build();
+    }
+
+    private Step statsLoadPartition() {
+        StepBuilder step1 = stepBuilderFactory.get("statsLoadPartition");
+        JobParameterCompletionPolicy chunkPolicy = new JobParameterCompletionPolicy(VariantConfiguration.STATS_CHUNK_SIZE, VariantConfiguration.DEFAULT_STATS_CHUNK_SIZE);
+        VariantStatsMongoItemWriter writer = new VariantStatsMongoItemWriter(listener, false);
+        SimpleStepBuilder<VariantStatsWrapper, VariantStatsWrapper> chunk = step1.<VariantStatsWrapper, VariantStatsWrapper>chunk(chunkPolicy)
+                .reader(new VariantStatsJsonReader())
+                .writer(writer);
+        chunk.listener(chunkPolicy);
+        chunk.listener(new StepMetricsListener());
+        chunk.listener(writer);
+
+        return chunk.build();
+    }
+
+    public Step statsLoad() {
+        StepBuilder step1 = stepBuilderFactory.get("statsLoad");
+        TaskletStepBuilder tasklet = step1.tasklet(new VariantsStatsLoad(listener));
+        tasklet.listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        tasklet.allowStartIfComplete(false);
+        return tasklet.build();
+    }
+}
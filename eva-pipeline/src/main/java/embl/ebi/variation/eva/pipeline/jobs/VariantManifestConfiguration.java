@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.jobs;
+
+import embl.ebi.variation.eva.pipeline.metrics.StepMetricsListener;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.ManifestPartitioner;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.StepPerPartitionHandler;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
+import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.launch.support.RunIdIncrementer;
+import org.springframework.batch.core.step.builder.PartitionStepBuilder;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.job.DefaultJobParametersExtractor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Ingests many VCFs in a single launch: the files listed in a manifest, or all the ones in a directory (see
+ * {@link ManifestPartitioner}), are run through their own variantJob, up to {@link #INGEST_THREADS} files at the
+ * same time.
+ *
+ * The variantJob of every file gets the job parameters of this job, plus the input, fileId and studyId of the file.
+ * Each one is a different job instance, with its own step executions, so if some files fail, relaunching this job
+ * with the same parameters restarts only the variantJobs of those files, each one from the step where it failed.
+ */
+@Configuration
+@EnableBatchProcessing
+@Import(VariantConfiguration.class)
+public class VariantManifestConfiguration {
+
+    public static final String jobName = "variantManifestJob";
+
+    /**
+     * job parameter with the number of files ingested at the same time. Each of them can use more threads, see
+     * {@link VariantConfiguration#TRANSFORM_THREADS}.
+     */
+    public static final String INGEST_THREADS = "ingestThreads";
+
+    @Autowired
+    private JobBuilderFactory jobBuilderFactory;
+    @Autowired
+    private StepBuilderFactory stepBuilderFactory;
+    @Autowired
+    private VariantConfiguration variantConfiguration;
+    @Autowired
+    JobLauncher jobLauncher;
+
+    @Bean
+    public Job variantManifestJob() {
+        return jobBuilderFactory
+                .get(jobName)
+                .incrementer(new RunIdIncrementer())
+                .start(ingestFiles())
+                .build();
+    }
+
+    public Step ingestFiles() {
+        StepBuilder step1 = stepBuilderFactory.get("ingestFiles");
+        ManifestPartitioner partitioner = new ManifestPartitioner();
+        PartitionStepBuilder partition = step1.partitioner("ingestFile", partitioner)
+                .partitionHandler(new StepPerPartitionHandler(new StepPerPartitionHandler.StepFactory() {
+                    @Override
+                    public Step createStep() {
+                        return ingestFile();
+                    }
+                }, INGEST_THREADS))
+                .listener(partitioner)
+                .listener(new StepMetricsListener());
+
+        // true: every job execution will do this step, even if this step is already COMPLETED
+        // false: if the job was aborted and is relaunched, this step will NOT be done again
+        partition.allowStartIfComplete(false);
+        return partition.build();
+    }
+
+    /**
+     * A new variantJob is built for every file, because its readers and writers keep the state of the file they are
+     * working on.
+     */
+    private Step ingestFile() {
+        DefaultJobParametersExtractor parametersExtractor = new DefaultJobParametersExtractor();
+        parametersExtractor.setKeys(new String[]{
+                ManifestPartitioner.INPUT, ManifestPartitioner.FILE_ID, ManifestPartitioner.STUDY_ID});
+        parametersExtractor.setUseAllParentParameters(true);
+
+        return stepBuilderFactory.get("ingestFile")
+                .job(variantConfiguration.createVariantJob())
+                .launcher(jobLauncher)
+                .parametersExtractor(parametersExtractor)
+                .build();
+    }
+}
@@ -37,6 +37,7 @@ public class AggregatedJobParametersListener extends JobParametersListener {
         // default decisions
         String defaultIncludeStats = "true";
 
+        ObjectMap options = newVariantOptions(jobExecution);
         JobParameters parameters = jobExecution.getJobParameters();
 
         logger.info("beforeJob : STARTING");
@@ -56,7 +57,7 @@ public class AggregatedJobParametersListener extends JobParametersListener {
         if (VariantSource.Aggregation.NONE.equals(source.getAggregation())) {
             source.setAggregation(VariantSource.Aggregation.BASIC);
         }
-        variantOptions.put(VariantStorageManager.VARIANT_SOURCE, source);
+        options.put(VariantStorageManager.VARIANT_SOURCE, source);
 
         // TODO get samples
 //                System.out.println(config.samples);
@@ -67,23 +68,23 @@ public class AggregatedJobParametersListener extends JobParametersListener {
 //                variantOptions.put(VariantStorageManager.SAMPLE_IDS, Arrays.asList(config.samples.split(",")));
 
 
-        variantOptions.put(VariantStorageManager.CALCULATE_STATS, false);   // this is tested by hand
+        options.put(VariantStorageManager.CALCULATE_STATS, false);   // this is tested by hand
 //                variantOptions.put(VariantStorageManager.OVERWRITE_STATS, config.overwriteStats);
-        variantOptions.put(VariantStorageManager.INCLUDE_STATS, Boolean.parseBoolean(
+        options.put(VariantStorageManager.INCLUDE_STATS, Boolean.parseBoolean(
                 parameters.getString(VariantStorageManager.INCLUDE_STATS, defaultIncludeStats)));
         
 //                variantOptions.put(VariantStorageManager.INCLUDE_GENOTYPES.key(), false);   // TODO rename samples to genotypes
-        variantOptions.put(VariantStorageManager.INCLUDE_SAMPLES, false);   // TODO rename samples to genotypes
-        variantOptions.put(VariantStorageManager.INCLUDE_SRC, VariantStorageManager.IncludeSrc.parse(parameters.getString("includeSrc")));
-        variantOptions.put(VariantStorageManager.COMPRESS_GENOTYPES, false);
+        options.put(VariantStorageManager.INCLUDE_SAMPLES, false);   // TODO rename samples to genotypes
+        options.put(VariantStorageManager.INCLUDE_SRC, VariantStorageManager.IncludeSrc.parse(parameters.getString("includeSrc")));
+        options.put(VariantStorageManager.COMPRESS_GENOTYPES, false);
         
 //                variantOptions.put(VariantStorageManager.AGGREGATED_TYPE, VariantSource.Aggregation.NONE);
-        variantOptions.put(VariantStorageManager.DB_NAME, parameters.getString("dbName"));
-        variantOptions.put(VariantStorageManager.ANNOTATE, false);
+        options.put(VariantStorageManager.DB_NAME, parameters.getString("dbName"));
+        options.put(VariantStorageManager.ANNOTATE, false);
 //                variantOptions.put(MongoDBVariantStorageManager.LOAD_THREADS, config.loadThreads);
-        variantOptions.put("compressExtension", parameters.getString("compressExtension"));
+        options.put("compressExtension", parameters.getString("compressExtension"));
 
-        logger.debug("Using as variantOptions: {}", variantOptions.entrySet().toString());
+        logger.debug("Using as variantOptions: {}", options.entrySet().toString());
         logger.debug("Using as input: {}", parameters.getString("input"));
                 
 //                String storageEngine = parameters.getString("storageEngine");
@@ -25,27 +25,60 @@ import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobExecutionListener;
 import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Builds the variantOptions of every job execution from its job parameters.
+ *
+ * The same listener may be serving several executions at the same time, for instance the files of a
+ * variantManifestJob, so the options are kept per job execution, and getVariantOptions() returns the ones of the
+ * job whose step is running in the calling thread.
+ */
 public class JobParametersListener implements JobExecutionListener {
      
     private static final Logger logger = LoggerFactory.getLogger(JobParametersListener.class);
     
-    protected final ObjectMap variantOptions;
+    /**
+     * the options of the last job execution started, used when they are not asked from a step
+     */
+    protected volatile ObjectMap variantOptions;
+
+    private final ConcurrentMap<Long, ObjectMap> jobVariantOptions;
     
     public JobParametersListener() {
         variantOptions = new ObjectMap();
+        jobVariantOptions = new ConcurrentHashMap<>();
     }
     
     @Override
     public void afterJob(JobExecution jobExecution) {
         logger.info("afterJob STATUS + " + jobExecution.getStatus());
         logger.info("afterJob : " + jobExecution);
+        if (jobExecution.getId() != null) {
+            jobVariantOptions.remove(jobExecution.getId());
+        }
+    }
+
+    /**
+     * @return empty variantOptions for a job execution that is starting, to be filled in beforeJob
+     */
+    protected ObjectMap newVariantOptions(JobExecution jobExecution) {
+        ObjectMap options = new ObjectMap();
+        if (jobExecution.getId() != null) {
+            jobVariantOptions.put(jobExecution.getId(), options);
+        }
+        variantOptions = options;
+        return options;
     }
 
     @Override
     public void beforeJob(JobExecution jobExecution) {
+        ObjectMap options = newVariantOptions(jobExecution);
         JobParameters parameters = jobExecution.getJobParameters();
         
         logger.info("beforeJob : STARTING");
@@ -62,7 +95,7 @@ public class JobParametersListener implements JobExecutionListener {
                 parameters.getString("studyName"), 
                 VariantStudy.StudyType.valueOf(parameters.getString("studyType")), 
                 VariantSource.Aggregation.NONE);
-        variantOptions.put(VariantStorageManager.VARIANT_SOURCE, source);
+        options.put(VariantStorageManager.VARIANT_SOURCE, source);
 
         // TODO get samples
 //                System.out.println(config.samples);
@@ -72,22 +105,22 @@ public class JobParametersListener implements JobExecutionListener {
 //                }
 //                variantOptions.put(VariantStorageManager.SAMPLE_IDS, Arrays.asList(config.samples.split(",")));
         
-        variantOptions.put(VariantStorageManager.CALCULATE_STATS, false);   // this is tested by hand
+        options.put(VariantStorageManager.CALCULATE_STATS, false);   // this is tested by hand
 //                variantOptions.put(VariantStorageManager.OVERWRITE_STATS, config.overwriteStats);
-        variantOptions.put(VariantStorageManager.INCLUDE_STATS, false);
+        options.put(VariantStorageManager.INCLUDE_STATS, false);
         
 //                variantOptions.put(VariantStorageManager.INCLUDE_GENOTYPES.key(), false);   // TODO rename samples to genotypes
-        variantOptions.put(VariantStorageManager.INCLUDE_SAMPLES, true);   // TODO rename samples to genotypes
-        variantOptions.put(VariantStorageManager.INCLUDE_SRC, VariantStorageManager.IncludeSrc.parse(parameters.getString("includeSrc")));
-        variantOptions.put(VariantStorageManager.COMPRESS_GENOTYPES, Boolean.parseBoolean(parameters.getString("compressGenotypes")));
+        options.put(VariantStorageManager.INCLUDE_SAMPLES, true);   // TODO rename samples to genotypes
+        options.put(VariantStorageManager.INCLUDE_SRC, VariantStorageManager.IncludeSrc.parse(parameters.getString("includeSrc")));
+        options.put(VariantStorageManager.COMPRESS_GENOTYPES, Boolean.parseBoolean(parameters.getString("compressGenotypes")));
         
 //                variantOptions.put(VariantStorageManager.AGGREGATED_TYPE, VariantSource.Aggregation.NONE);
-        variantOptions.put(VariantStorageManager.DB_NAME, parameters.getString("dbName"));
-        variantOptions.put(VariantStorageManager.ANNOTATE, false);
+        options.put(VariantStorageManager.DB_NAME, parameters.getString("dbName"));
+        options.put(VariantStorageManager.ANNOTATE, false);
 //                variantOptions.put(MongoDBVariantStorageManager.LOAD_THREADS, config.loadThreads);
-        variantOptions.put("compressExtension", parameters.getString("compressExtension"));
+        options.put("compressExtension", parameters.getString("compressExtension"));
 
-        logger.debug("Using as variantOptions: {}", variantOptions.entrySet().toString());
+        logger.debug("Using as variantOptions: {}", options.entrySet().toString());
         logger.debug("Using as input: {}", parameters.getString("input"));
                 
 //                String storageEngine = parameters.getString("storageEngine");
@@ -108,7 +141,22 @@ public class JobParametersListener implements JobExecutionListener {
 //                statsOutputUri = outdirUri.resolve(VariantStorageManager.buildFilename(source));
     }
     
+    /**
+     * @return the options of the job whose step is running in this thread, or the ones of the last job execution
+     * started if there is no step running
+     * @throws IllegalStateException if the job of the step running in this thread was not started by this listener
+     */
     public ObjectMap getVariantOptions() {
-        return variantOptions;
+        StepContext context = StepSynchronizationManager.getContext();
+        if (context == null) {
+            return variantOptions;
+        }
+        Long jobExecutionId = context.getStepExecution().getJobExecutionId();
+        ObjectMap options = jobVariantOptions.get(jobExecutionId);
+        if (options == null) {
+            throw new IllegalStateException("No variantOptions for job execution " + jobExecutionId
+                    + ", this listener did not start it");
+        }
+        return options;
     }
 }
@@ -34,6 +34,7 @@ public class VariantJobParametersListener extends JobParametersListener {
 
     @Override
     public void beforeJob(JobExecution jobExecution) {
+        ObjectMap options = newVariantOptions(jobExecution);
         JobParameters parameters = jobExecution.getJobParameters();
         
         logger.info("beforeJob : STARTING");
@@ -50,7 +51,7 @@ public class VariantJobParametersListener extends JobParametersListener {
                 parameters.getString("studyName"), 
                 VariantStudy.StudyType.valueOf(parameters.getString("studyType")), 
                 VariantSource.Aggregation.NONE);
-        variantOptions.put(VariantStorageManager.VARIANT_SOURCE, source);
+        options.put(VariantStorageManager.VARIANT_SOURCE, source);
 
         // TODO get samples
 //                System.out.println(config.samples);
@@ -60,22 +61,22 @@ public class VariantJobParametersListener extends JobParametersListener {
 //                }
 //                variantOptions.put(VariantStorageManager.SAMPLE_IDS, Arrays.asList(config.samples.split(",")));
         
-        variantOptions.put(VariantStorageManager.CALCULATE_STATS, false);   // this is tested by hand
+        options.put(VariantStorageManager.CALCULATE_STATS, false);   // this is tested by hand
 //                variantOptions.put(VariantStorageManager.OVERWRITE_STATS, config.overwriteStats);
-        variantOptions.put(VariantStorageManager.INCLUDE_STATS, false);
+        options.put(VariantStorageManager.INCLUDE_STATS, false);
         
 //                variantOptions.put(VariantStorageManager.INCLUDE_GENOTYPES.key(), false);   // TODO rename samples to genotypes
-        variantOptions.put(VariantStorageManager.INCLUDE_SAMPLES, true);   // TODO rename samples to genotypes
-        variantOptions.put(VariantStorageManager.INCLUDE_SRC, VariantStorageManager.IncludeSrc.parse(parameters.getString("includeSrc")));
-        variantOptions.put(VariantStorageManager.COMPRESS_GENOTYPES, Boolean.parseBoolean(parameters.getString("compressGenotypes")));
+        options.put(VariantStorageManager.INCLUDE_SAMPLES, true);   // TODO rename samples to genotypes
+        options.put(VariantStorageManager.INCLUDE_SRC, VariantStorageManager.IncludeSrc.parse(parameters.getString("includeSrc")));
+        options.put(VariantStorageManager.COMPRESS_GENOTYPES, Boolean.parseBoolean(parameters.getString("compressGenotypes")));
         
 //                variantOptions.put(VariantStorageManager.AGGREGATED_TYPE, VariantSource.Aggregation.NONE);
-        variantOptions.put(VariantStorageManager.DB_NAME, parameters.getString("dbName"));
-        variantOptions.put(VariantStorageManager.ANNOTATE, false);
+        options.put(VariantStorageManager.DB_NAME, parameters.getString("dbName"));
+        options.put(VariantStorageManager.ANNOTATE, false);
 //                variantOptions.put(MongoDBVariantStorageManager.LOAD_THREADS, config.loadThreads);
-        variantOptions.put("compressExtension", parameters.getString("compressExtension"));
+        options.put("compressExtension", parameters.getString("compressExtension"));
 
-        logger.debug("Using as variantOptions: {}", variantOptions.entrySet().toString());
+        logger.debug("Using as variantOptions: {}", options.entrySet().toString());
         logger.debug("Using as input: {}", parameters.getString("input"));
                 
 //                String storageEngine = parameters.getString("storageEngine");
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.metrics;
+
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a step execution: bytes read and written, and number and latency of the batches sent to the database.
+ * The readers and writers get the metrics of their step with {@link #forCurrentStep()} when they are opened, and the
+ * {@link StepMetricsListener} of the step reports them when it finishes. The bytes are counted uncompressed, as
+ * the records are read or written.
+ *
+ * The heap and GC figures are of the whole JVM, so when several steps run at the same time, as the partitions of a
+ * step do, each of them includes the work of the others.
+ *
+ * All the counters can be updated from any thread, such as the ones writing to the database in parallel.
+ */
+public class StepMetrics implements StepMetricsMBean {
+
+    private static final ConcurrentMap<Long, StepMetrics> runningSteps = new ConcurrentHashMap<>();
+
+    private final StepExecution stepExecution;
+
+    private final AtomicLong bytesRead;
+    private final AtomicLong bytesWritten;
+    private final AtomicLong dbBatches;
+    private final AtomicLong dbBatchNanos;
+    private final AtomicLong maxDbBatchNanos;
+
+    private final long startNanos;
+    private final long gcCountAtStart;
+    private final long gcMillisAtStart;
+    private final long heapUsedAtStart;
+    private volatile boolean finished;
+    private volatile long endNanos;
+    private volatile long gcCountAtEnd;
+    private volatile long gcMillisAtEnd;
+    private volatile long heapUsedAtEnd;
+
+    StepMetrics(StepExecution stepExecution) {
+        this.stepExecution = stepExecution;
+        this.bytesRead = new AtomicLong();
+        this.bytesWritten = new AtomicLong();
+        this.dbBatches = new AtomicLong();
+        this.dbBatchNanos = new AtomicLong();
+        this.maxDbBatchNanos = new AtomicLong();
+        this.startNanos = System.nanoTime();
+        this.gcCountAtStart = getTotalGcCount();
+        this.gcMillisAtStart = getTotalGcMillis();
+        this.heapUsedAtStart = getCurrentHeapUsed();
+        this.finished = false;
+    }
+
+    /**
+     * Starts counting for a step execution, until {@link #finish} is called.
+     */
+    static StepMetrics start(StepExecution stepExecution) {
+        StepMetrics metrics = new StepMetrics(stepExecution);
+        runningSteps.put(stepExecution.getId(), metrics);
+        return metrics;
+    }
+
+    /**
+     * Stops the clock and takes the final heap and GC figures of a step execution.
+     *
+     * @return the metrics of the step, or null if they were not started
+     */
+    static StepMetrics finish(StepExecution stepExecution) {
+        StepMetrics metrics = runningSteps.remove(stepExecution.getId());
+        if (metrics != null) {
+            metrics.endNanos = System.nanoTime();
+            metrics.gcCountAtEnd = getTotalGcCount();
+            metrics.gcMillisAtEnd = getTotalGcMillis();
+            metrics.heapUsedAtEnd = getCurrentHeapUsed();
+            metrics.finished = true;
+        }
+        return metrics;
+    }
+
+    /**
+     * Must be called from the thread of the step, for instance when a reader or writer is opened.
+     *
+     * @return the metrics of the step running in this thread. If the step has no {@link StepMetricsListener},
+     * some metrics that nobody will read, so that the callers don't need to check.
+     */
+    public static StepMetrics forCurrentStep() {
+        StepContext context = StepSynchronizationManager.getContext();
+        StepMetrics metrics = context == null ? null : runningSteps.get(context.getStepExecution().getId());
+        return metrics != null ? metrics : new StepMetrics(null);
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * @param nanos time from sending the batch to the database until it was acknowledged
+     */
+    public void addDbBatch(long nanos) {
+        dbBatches.incrementAndGet();
+        dbBatchNanos.addAndGet(nanos);
+        long max = maxDbBatchNanos.get();
+        while (nanos > max && !maxDbBatchNanos.compareAndSet(max, nanos)) {
+            max = maxDbBatchNanos.get();
+        }
+    }
+
+    /**
+     * @return the number of bytes of `chars` encoded as UTF-8, without encoding them
+     */
+    public static long utf8Length(CharSequence chars) {
+        long length = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars.length() && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return a stream that adds to the bytes read everything read through it
+     */
+    public InputStream countReadBytes(InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    addBytesRead(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    addBytesRead(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * @return a stream that adds to the bytes written everything written through it
+     */
+    public OutputStream countWrittenBytes(OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                addBytesWritten(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                addBytesWritten(len);
+            }
+        };
+    }
+
+    @Override
+    public String getJobName() {
+        return stepExecution.getJobExecution().getJobInstance().getJobName();
+    }
+
+    @Override
+    public String getStepName() {
+        return stepExecution.getStepName();
+    }
+
+    @Override
+    public String getStatus() {
+        return stepExecution.getStatus().toString();
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return ((finished ? endNanos : System.nanoTime()) - startNanos) / 1000000;
+    }
+
+    @Override
+    public int getReadCount() {
+        return stepExecution.getReadCount();
+    }
+
+    @Override
+    public int getWriteCount() {
+        return stepExecution.getWriteCount();
+    }
+
+    /**
+     * @return items written per second, that is, variants in the transform and load steps
+     */
+    @Override
+    public long getItemsPerSecond() {
+        return getWriteCount() * 1000L / Math.max(1, getElapsedMillis());
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public long getDbBatches() {
+        return dbBatches.get();
+    }
+
+    @Override
+    public double getDbBatchMeanMillis() {
+        long batches = dbBatches.get();
+        return batches == 0 ? 0 : dbBatchNanos.get() / 1e6 / batches;
+    }
+
+    @Override
+    public double getDbBatchMaxMillis() {
+        return maxDbBatchNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getGcCount() {
+        return (finished ? gcCountAtEnd : getTotalGcCount()) - gcCountAtStart;
+    }
+
+    @Override
+    public long getGcMillis() {
+        return (finished ? gcMillisAtEnd : getTotalGcMillis()) - gcMillisAtStart;
+    }
+
+    @Override
+    public long getHeapUsedAtStart() {
+        return heapUsedAtStart;
+    }
+
+    /**
+     * @return the heap used now, or when the step finished
+     */
+    @Override
+    public long getHeapUsed() {
+        return finished ? heapUsedAtEnd : getCurrentHeapUsed();
+    }
+
+    private static long getTotalGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getTotalGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static long getCurrentHeapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Collects the {@link StepMetrics} of every execution of a step. While the step runs, they are available over JMX as
+ * {@code embl.ebi.variation.eva:type=StepMetrics,job=<job>,step=<step>,execution=<step execution id>}, so that
+ * the partitions of a step, or the same step of jobs running at the same time, don't replace each other. When the
+ * step finishes, the bean is unregistered, and a summary is logged and saved in the step ExecutionContext, under the
+ * keys starting with {@link #SUMMARY_PREFIX}, so it is kept in the job repository.
+ */
+public class StepMetricsListener implements StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(StepMetricsListener.class);
+
+    public static final String JMX_DOMAIN = "embl.ebi.variation.eva";
+    public static final String SUMMARY_PREFIX = "stepMetrics.";
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        registerMBean(StepMetrics.start(stepExecution), stepExecution);
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        StepMetrics metrics = StepMetrics.finish(stepExecution);
+        if (metrics == null) {
+            return null;
+        }
+        unregisterMBean(stepExecution);
+
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        executionContext.putLong(SUMMARY_PREFIX + "elapsed.ms", metrics.getElapsedMillis());
+        executionContext.putLong(SUMMARY_PREFIX + "items.per.second", metrics.getItemsPerSecond());
+        executionContext.putLong(SUMMARY_PREFIX + "bytes.read", metrics.getBytesRead());
+        executionContext.putLong(SUMMARY_PREFIX + "bytes.written", metrics.getBytesWritten());
+        executionContext.putLong(SUMMARY_PREFIX + "db.batches", metrics.getDbBatches());
+        executionContext.putDouble(SUMMARY_PREFIX + "db.batch.mean.ms", metrics.getDbBatchMeanMillis());
+        executionContext.putDouble(SUMMARY_PREFIX + "db.batch.max.ms", metrics.getDbBatchMaxMillis());
+        executionContext.putLong(SUMMARY_PREFIX + "gc.count", metrics.getGcCount());
+        executionContext.putLong(SUMMARY_PREFIX + "gc.ms", metrics.getGcMillis());
+        executionContext.putLong(SUMMARY_PREFIX + "heap.used.start", metrics.getHeapUsedAtStart());
+        executionContext.putLong(SUMMARY_PREFIX + "heap.used.end", metrics.getHeapUsed());
+
+        logger.info(String.format("Step %s: %d items written in %d ms (%d items/s), %d bytes read, %d bytes written, " +
+                        "%d DB batches (%.1f ms mean, %.1f ms max), %d GCs (%d ms), heap used %d MB -> %d MB",
+                stepExecution.getStepName(), metrics.getWriteCount(), metrics.getElapsedMillis(),
+                metrics.getItemsPerSecond(), metrics.getBytesRead(), metrics.getBytesWritten(), metrics.getDbBatches(),
+                metrics.getDbBatchMeanMillis(), metrics.getDbBatchMaxMillis(), metrics.getGcCount(),
+                metrics.getGcMillis(), metrics.getHeapUsedAtStart() >> 20, metrics.getHeapUsed() >> 20));
+        return null;
+    }
+
+    private static ObjectName getObjectName(StepExecution stepExecution) throws MalformedObjectNameException {
+        return new ObjectName(JMX_DOMAIN + ":type=StepMetrics"
+                + ",job=" + ObjectName.quote(stepExecution.getJobExecution().getJobInstance().getJobName())
+                + ",step=" + ObjectName.quote(stepExecution.getStepName())
+                + ",execution=" + stepExecution.getId());
+    }
+
+    /**
+     * The metrics are useful but not needed to run the step, so if they can't be registered the step goes on.
+     */
+    private static void registerMBean(StepMetrics metrics, StepExecution stepExecution) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, getObjectName(stepExecution));
+        } catch (JMException e) {
+            logger.warn("Could not register the metrics of step " + stepExecution.getStepName() + " in JMX", e);
+        }
+    }
+
+    private static void unregisterMBean(StepExecution stepExecution) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = getObjectName(stepExecution);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.warn("Could not unregister the metrics of step " + stepExecution.getStepName() + " from JMX", e);
+        }
+    }
+}
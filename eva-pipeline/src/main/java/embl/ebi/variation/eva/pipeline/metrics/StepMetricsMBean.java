@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.metrics;
+
+/**
+ * JMX view of the {@link StepMetrics} of a step execution. The values are updated while the step runs, and keep
+ * their final value once it has finished.
+ */
+public interface StepMetricsMBean {
+
+    String getJobName();
+
+    String getStepName();
+
+    String getStatus();
+
+    long getElapsedMillis();
+
+    int getReadCount();
+
+    int getWriteCount();
+
+    long getItemsPerSecond();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getDbBatches();
+
+    double getDbBatchMeanMillis();
+
+    double getDbBatchMaxMillis();
+
+    long getGcCount();
+
+    long getGcMillis();
+
+    long getHeapUsedAtStart();
+
+    long getHeapUsed();
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+
+/**
+ * Completion policy whose chunk size is read from a job parameter when the step starts, so that the commit interval
+ * can be tuned per job execution without rebuilding the step. It has to be registered as a listener of the step too.
+ */
+public class JobParameterCompletionPolicy extends SimpleCompletionPolicy implements StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobParameterCompletionPolicy.class);
+
+    private final String chunkSizeParameter;
+    private final int defaultChunkSize;
+
+    public JobParameterCompletionPolicy(String chunkSizeParameter, int defaultChunkSize) {
+        super(defaultChunkSize);
+        this.chunkSizeParameter = chunkSizeParameter;
+        this.defaultChunkSize = defaultChunkSize;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        String chunkSize = stepExecution.getJobParameters().getString(chunkSizeParameter);
+        int size = chunkSize != null ? Integer.parseInt(chunkSize) : defaultChunkSize;
+        if (size < 1) {
+            throw new IllegalArgumentException(chunkSizeParameter + " must be a positive number, but was " + size);
+        }
+        logger.info("Step {} will commit every {} items", stepExecution.getStepName(), size);
+        setChunkSize(size);
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        return null;
+    }
+}
@@ -15,7 +15,11 @@
  */
 package embl.ebi.variation.eva.pipeline.steps;
 
+import embl.ebi.variation.eva.pipeline.io.UriUtils;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsMongoItemWriter;
 import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.datastore.core.ObjectMap;
 import org.opencb.datastore.core.QueryOptions;
@@ -31,13 +35,24 @@ import org.springframework.batch.core.scope.context.ChunkContext;
 import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.repeat.RepeatStatus;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.file.Paths;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 
 /**
  * Created by jmmut on 2015-11-10.
  *
+ * If the job parameter {@link #INCREMENTAL_STATS} is true, only the variants of the file being processed are read
+ * from the database. The statistics are calculated per file, so the variants loaded from other files of the study
+ * already have theirs and don't need to be visited again.
+ *
+ * If the job parameter {@link #STATS_THREADS} is more than 1, this step does nothing, and the stats are calculated
+ * instead by a partitioned step, one chromosome per partition, in that many threads. The partitioned step is used as
+ * well when the stats are loaded as they are calculated (see {@link VariantStatsMongoItemWriter#LOAD_STATS_WHILE_CREATING}).
+ *
  * @author Jose Miguel Mut Lopez &lt;jmmut@ebi.ac.uk&gt;
  */
 public class VariantsStatsCreate implements Tasklet {
@@ -45,6 +60,8 @@ public class VariantsStatsCreate implements Tasklet {
 
     private JobParametersListener listener;
     public static final String SKIP_STATS_CREATE = "skipStatsCreate";
+    public static final String INCREMENTAL_STATS = "incrementalStats";
+    public static final String STATS_THREADS = "statsThreads";
 
     public VariantsStatsCreate(JobParametersListener listener) {
         this.listener = listener;
@@ -58,29 +75,58 @@ public class VariantsStatsCreate implements Tasklet {
 
         if (Boolean.parseBoolean(parameters.getString(SKIP_STATS_CREATE, "false"))) {
             logger.info("skipping stats creation step, requested " + SKIP_STATS_CREATE + "=" + parameters.getString(SKIP_STATS_CREATE));
+        } else if (isPartitioned(parameters)) {
+            logger.info("stats will be calculated by a partitioned step, requested " + STATS_THREADS + "="
+                    + parameters.getString(STATS_THREADS) + " and " + VariantStatsMongoItemWriter.LOAD_STATS_WHILE_CREATING
+                    + "=" + parameters.getString(VariantStatsMongoItemWriter.LOAD_STATS_WHILE_CREATING));
         } else {
             ObjectMap variantOptions = listener.getVariantOptions();
             VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
             VariantSource variantSource = variantOptions.get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
             VariantDBAdaptor dbAdaptor = variantStorageManager.getDBAdaptor(variantOptions.getString("dbName"), variantOptions);
-            URI outdirUri = createUri(parameters.getString("outputDir"));
+            URI outdirUri = UriUtils.createUri(parameters.getString("outputDir"));
             URI statsOutputUri = outdirUri.resolve(VariantStorageManager.buildFilename(variantSource));
 
             VariantStatisticsManager variantStatisticsManager = new VariantStatisticsManager();
             QueryOptions statsOptions = new QueryOptions(variantOptions);
+            deleteStaleParts(parameters, variantSource);
+            if (Boolean.parseBoolean(parameters.getString(INCREMENTAL_STATS, "false"))) {
+                logger.info("Calculating stats only for the variants in file {} of study {}",
+                        variantSource.getFileId(), variantSource.getStudyId());
+                statsOptions.put(VariantDBAdaptor.STUDIES, Collections.singletonList(variantSource.getStudyId()));
+                statsOptions.put(VariantDBAdaptor.FILES, Collections.singletonList(variantSource.getFileId()));
+            }
 
             // actual stats creation
-            variantStatisticsManager.createStats(dbAdaptor, statsOutputUri, null, statsOptions);    // TODO allow subset of samples
+            try {
+                variantStatisticsManager.createStats(dbAdaptor, statsOutputUri, null, statsOptions);    // TODO allow subset of samples
+            } finally {
+                dbAdaptor.close();
+            }
         }
 
         return RepeatStatus.FINISHED;
     }
 
-    public static URI createUri(String input) throws URISyntaxException {
-        URI sourceUri = new URI(input);
-        if (sourceUri.getScheme() == null || sourceUri.getScheme().isEmpty()) {
-            sourceUri = Paths.get(input).toUri();
+    /**
+     * The parts left by a previous parallel execution would be loaded instead of the new stats.
+     */
+    private void deleteStaleParts(JobParameters parameters, VariantSource variantSource)
+            throws URISyntaxException, IOException {
+        for (Path stale : VcfChromosomePartitioner.listParts(VariantStatsJsonItemWriter.getVariantStatsPath(parameters, variantSource))) {
+            Files.delete(stale);
+        }
+        for (Path stale : VcfChromosomePartitioner.listParts(VariantStatsJsonItemWriter.getSourceStatsPath(parameters, variantSource))) {
+            Files.delete(stale);
         }
-        return sourceUri;
     }
+
+    /**
+     * @return whether the stats are calculated by the partitioned step instead of this one
+     */
+    public static boolean isPartitioned(JobParameters parameters) {
+        return Integer.parseInt(parameters.getString(STATS_THREADS, "1")) > 1
+                || VariantStatsMongoItemWriter.isLoadingWhileCreating(parameters);
+    }
+
 }
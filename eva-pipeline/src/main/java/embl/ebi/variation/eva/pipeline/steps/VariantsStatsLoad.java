@@ -15,6 +15,8 @@
  */
 package embl.ebi.variation.eva.pipeline.steps;
 
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsMongoItemWriter;
 import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
 import org.opencb.biodata.models.variant.VariantSource;
 import org.opencb.datastore.core.ObjectMap;
@@ -32,12 +34,14 @@ import org.springframework.batch.core.step.tasklet.Tasklet;
 import org.springframework.batch.repeat.RepeatStatus;
 
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.Paths;
 
 /**
  * Created by jmmut on 2015-11-10.
  *
+ * Loads the source stats. The variants stats are loaded in bulks before this step by {@link VariantStatsMongoItemWriter},
+ * either from the variants stats file (or its parts, if they were calculated in parallel) or by the stats creation step
+ * (see {@link VariantStatsMongoItemWriter#LOAD_STATS_WHILE_CREATING}).
+ *
  * @author Jose Miguel Mut Lopez &lt;jmmut@ebi.ac.uk&gt;
  */
 public class VariantsStatsLoad implements Tasklet {
@@ -64,22 +68,16 @@ public class VariantsStatsLoad implements Tasklet {
             QueryOptions statsOptions = new QueryOptions(variantOptions);
             VariantStatisticsManager variantStatisticsManager = new VariantStatisticsManager();
             VariantDBAdaptor dbAdaptor = variantStorageManager.getDBAdaptor(variantOptions.getString("dbName"), variantOptions);
-            URI outdirUri = createUri(parameters.getString("outputDir"));
             VariantSource variantSource = variantOptions.get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
-            URI statsOutputUri = outdirUri.resolve(VariantStorageManager.buildFilename(variantSource));
-
-            // actual stats load
-            variantStatisticsManager.loadStats(dbAdaptor, statsOutputUri, statsOptions);
+            URI sourceStatsUri = VariantStatsJsonItemWriter.getSourceStatsPath(parameters, variantSource).toUri();
+            try {
+                variantStatisticsManager.loadSourceStats(dbAdaptor, sourceStatsUri, statsOptions);
+            } finally {
+                dbAdaptor.close();
+            }
         }
 
         return RepeatStatus.FINISHED;
     }
 
-    public static URI createUri(String input) throws URISyntaxException {
-        URI sourceUri = new URI(input);
-        if (sourceUri.getScheme() == null || sourceUri.getScheme().isEmpty()) {
-            sourceUri = Paths.get(input).toUri();
-        }
-        return sourceUri;
-    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import embl.ebi.variation.eva.pipeline.io.VariantJsonMapper;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.models.variant.stats.VariantSingleSampleStats;
+import org.opencb.biodata.models.variant.stats.VariantSourceStats;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Adds up the source stats written by every partition of the parallel stats creation into the single
+ * source.stats.json.gz file that the stats load expects. The variants stats parts are left as they are, because each
+ * of them is loaded by a different partition of the stats load, which deletes them afterwards.
+ *
+ * If there are no parts, the stats were calculated in a single thread, or the parts were already merged by a
+ * previous execution, and nothing is done.
+ */
+public class VariantsStatsMerge implements Tasklet {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantsStatsMerge.class);
+
+    private JobParametersListener listener;
+    private ObjectMapper jsonObjectMapper;
+
+    public VariantsStatsMerge(JobParametersListener listener) {
+        this.listener = listener;
+        this.jsonObjectMapper = VariantJsonMapper.create();
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        JobParameters parameters = chunkContext.getStepContext().getStepExecution().getJobParameters();
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        Path sourceStatsPath = VariantStatsJsonItemWriter.getSourceStatsPath(parameters, source);
+
+        List<Path> parts = VcfChromosomePartitioner.listParts(sourceStatsPath);
+        if (parts.isEmpty()) {
+            logger.info("No source stats parts to merge into {}", sourceStatsPath);
+            return RepeatStatus.FINISHED;
+        }
+
+        logger.info("Merging {} parts into {}", parts.size(), sourceStatsPath);
+        VariantSourceStats merged = new VariantSourceStats(source.getFileId(), source.getStudyId());
+        Set<String> sampleNames = new LinkedHashSet<>();
+        Map<String, VariantSingleSampleStats> samplesStats = new HashMap<>();
+        for (Path part : parts) {
+            VariantSourceStats partStats = readSourceStats(part);
+            if (partStats.getFileStats() != null) {
+                merged.setFileStats(merged.getFileStats() == null ? partStats.getFileStats() :
+                        VariantsTransformMerge.addStats(merged.getFileStats(), partStats.getFileStats()));
+            }
+            if (partStats.getSampleNames() != null) {
+                sampleNames.addAll(partStats.getSampleNames());
+            }
+            if (partStats.getSamplesStats() != null) {
+                addSamplesStats(samplesStats, partStats.getSamplesStats());
+            }
+        }
+        merged.setSampleNames(new ArrayList<>(sampleNames));
+        merged.setSamplesStats(samplesStats);
+
+        VariantStatsJsonItemWriter.writeSourceStats(merged, sourceStatsPath, jsonObjectMapper);
+        for (Path part : parts) {
+            Files.delete(part);
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    private static void addSamplesStats(Map<String, VariantSingleSampleStats> sum,
+                                        Map<String, VariantSingleSampleStats> samplesStats) {
+        for (Map.Entry<String, VariantSingleSampleStats> sampleStats : samplesStats.entrySet()) {
+            VariantSingleSampleStats stats = sampleStats.getValue();
+            VariantSingleSampleStats previous = sum.get(sampleStats.getKey());
+            if (previous == null) {
+                sum.put(sampleStats.getKey(), stats);
+            } else {
+                previous.incrementMendelianErrors(stats.getNumMendelianErrors());
+                previous.incrementMissingGenotypes(stats.getNumMissingGenotypes());
+                previous.incrementHomozygotesNumber(stats.getNumHomozygous());
+            }
+        }
+    }
+
+    private VariantSourceStats readSourceStats(Path path) throws IOException {
+        InputStream input = new GZIPInputStream(Files.newInputStream(path));
+        try {
+            return jsonObjectMapper.readValue(input, VariantSourceStats.class);
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import embl.ebi.variation.eva.pipeline.io.VariantJsonMapper;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.models.variant.stats.VariantGlobalStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Joins the files written by every partition of the transform step into the variants.json and file.json files that
+ * the load step expects.
+ *
+ * The variants are concatenated in partition order without decoding them: a sequence of gzip members is still a
+ * valid gzip file. The file statistics of the VariantSources are added up. The variants file is not written if the
+ * variants were loaded while being transformed and they were not asked to be kept.
+ */
+public class VariantsTransformMerge implements Tasklet {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantsTransformMerge.class);
+
+    private ObjectMapper jsonObjectMapper;
+
+    public VariantsTransformMerge() {
+        this.jsonObjectMapper = VariantJsonMapper.create();
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        JobParameters parameters = chunkContext.getStepContext().getStepExecution().getJobParameters();
+        boolean compress = VariantJsonItemWriter.isCompressed(parameters);
+        Path variantsPath = VariantJsonItemWriter.getTransformedVariantsPath(parameters);
+        Path sourcePath = VariantJsonItemWriter.getTransformedSourcePath(parameters);
+
+        boolean writeVariants = VariantJsonItemWriter.isWritingVariants(parameters);
+        List<Path> variantsParts = VcfChromosomePartitioner.listParts(variantsPath);
+        List<Path> sourceParts = VcfChromosomePartitioner.listParts(sourcePath);
+        if (sourceParts.isEmpty() && Files.exists(sourcePath)) {
+            logger.info("{} already merged", sourcePath);
+            return RepeatStatus.FINISHED;
+        } else if (sourceParts.isEmpty()) {
+            throw new IllegalStateException("No transformed parts found for " + sourcePath);
+        }
+
+        // the variants parts are removed before the source parts, so a restart knows what is already merged
+        if (writeVariants && !variantsParts.isEmpty()) {
+            if (variantsParts.size() != sourceParts.size()) {
+                throw new IllegalStateException("Expected the same number of variants and source parts, but found "
+                        + variantsParts.size() + " and " + sourceParts.size());
+            }
+            logger.info("Merging {} parts into {}", variantsParts.size(), variantsPath);
+            concatenate(variantsParts, variantsPath);
+            for (Path part : variantsParts) {
+                Files.deleteIfExists(part);
+            }
+        } else if (writeVariants && !Files.exists(variantsPath)) {
+            throw new IllegalStateException("No transformed parts found for " + variantsPath);
+        }
+
+        writeSource(mergeSources(sourceParts, compress), sourcePath, compress);
+        for (Path part : sourceParts) {
+            Files.delete(part);
+        }
+        return RepeatStatus.FINISHED;
+    }
+
+    private void concatenate(List<Path> parts, Path path) throws IOException {
+        if (parts.size() == 1) {
+            Files.move(parts.get(0), path, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+
+        Path merged = path.resolveSibling(path.getFileName() + ".merging");
+        OutputStream output = Files.newOutputStream(merged);
+        try {
+            for (Path part : parts) {
+                Files.copy(part, output);
+            }
+        } finally {
+            output.close();
+        }
+        Files.move(merged, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private VariantSource mergeSources(List<Path> parts, boolean compress) throws IOException {
+        VariantSource merged = null;
+        VariantGlobalStats mergedStats = null;
+        for (Path part : parts) {
+            VariantSource source = readSource(part, compress);
+            if (merged == null) {
+                merged = source;
+            }
+            if (source.getStats() != null) {
+                mergedStats = mergedStats == null ? source.getStats() : addStats(mergedStats, source.getStats());
+            }
+        }
+        merged.setStats(mergedStats);
+        return merged;
+    }
+
+    static VariantGlobalStats addStats(VariantGlobalStats stats, VariantGlobalStats other) {
+        VariantGlobalStats sum = new VariantGlobalStats();
+        sum.setVariantsCount(stats.getVariantsCount() + other.getVariantsCount());
+        sum.setSamplesCount(Math.max(stats.getSamplesCount(), other.getSamplesCount()));
+        sum.setSnpsCount(stats.getSnpsCount() + other.getSnpsCount());
+        sum.setIndelsCount(stats.getIndelsCount() + other.getIndelsCount());
+        sum.setStructuralCount(stats.getStructuralCount() + other.getStructuralCount());
+        sum.setPassCount(stats.getPassCount() + other.getPassCount());
+        sum.setTransitionsCount(stats.getTransitionsCount() + other.getTransitionsCount());
+        sum.setTransversionsCount(stats.getTransversionsCount() + other.getTransversionsCount());
+        sum.setAccumulatedQuality(stats.getAccumulatedQuality() + other.getAccumulatedQuality());
+        sum.setMeanQuality(sum.getVariantsCount() > 0 ? sum.getAccumulatedQuality() / sum.getVariantsCount() : 0);
+        Map<String, Integer> consequenceTypesCount = new HashMap<>();
+        addCounts(consequenceTypesCount, stats.getConsequenceTypesCount());
+        addCounts(consequenceTypesCount, other.getConsequenceTypesCount());
+        sum.setConsequenceTypesCount(consequenceTypesCount);
+        return sum;
+    }
+
+    private static void addCounts(Map<String, Integer> sum, Map<String, Integer> counts) {
+        if (counts != null) {
+            for (Map.Entry<String, Integer> count : counts.entrySet()) {
+                Integer previous = sum.get(count.getKey());
+                sum.put(count.getKey(), previous == null ? count.getValue() : previous + count.getValue());
+            }
+        }
+    }
+
+    private VariantSource readSource(Path path, boolean compress) throws IOException {
+        InputStream input = Files.newInputStream(path);
+        if (compress) {
+            input = new GZIPInputStream(input);
+        }
+        try {
+            return jsonObjectMapper.readValue(input, VariantSource.class);
+        } finally {
+            input.close();
+        }
+    }
+
+    private void writeSource(VariantSource source, Path path, boolean compress) throws IOException {
+        OutputStream output = Files.newOutputStream(path);
+        if (compress) {
+            output = new GZIPOutputStream(output);
+        }
+        try {
+            output.write(jsonObjectMapper.writeValueAsBytes(source));
+            output.write('\n');
+        } finally {
+            output.close();
+        }
+    }
+}
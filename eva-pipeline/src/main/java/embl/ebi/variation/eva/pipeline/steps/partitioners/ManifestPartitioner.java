@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps.partitioners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates a partition per VCF to ingest, with its input, fileId and studyId, so that every file is transformed and
+ * loaded by its own job.
+ *
+ * The files are listed in the job parameter {@link #MANIFEST}, a tab-separated file with the path, fileId and studyId
+ * of a VCF per line. Empty lines and lines starting with '#' are ignored, and relative paths are taken from the
+ * directory of the manifest. Instead of a manifest, the job parameter {@link #INPUT_DIR} can name a directory whose
+ * VCFs are all ingested in the study of the job parameter studyId, each one with its name, without the extension, as
+ * fileId.
+ *
+ * It must be registered as a listener of the partitioned step too, to get the job parameters.
+ */
+public class ManifestPartitioner implements Partitioner, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ManifestPartitioner.class);
+
+    public static final String MANIFEST = "manifest";
+    public static final String INPUT_DIR = "inputDir";
+
+    public static final String INPUT = "input";
+    public static final String FILE_ID = "fileId";
+    public static final String STUDY_ID = "studyId";
+
+    private static final String[] VCF_EXTENSIONS = {".vcf", ".vcf.gz"};
+
+    private JobParameters parameters;
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        return null;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        String manifest = parameters.getString(MANIFEST);
+        String inputDir = parameters.getString(INPUT_DIR);
+        List<ExecutionContext> files;
+        try {
+            if (manifest != null && !manifest.isEmpty()) {
+                files = readManifest(Paths.get(manifest));
+            } else if (inputDir != null && !inputDir.isEmpty()) {
+                files = listDirectory(Paths.get(inputDir), parameters.getString(STUDY_ID));
+            } else {
+                throw new ItemStreamException("Either the job parameter " + MANIFEST + " or " + INPUT_DIR
+                        + " must be provided");
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Could not get the files to ingest", e);
+        }
+
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        Set<String> sources = new HashSet<>();
+        for (int i = 0; i < files.size(); i++) {
+            ExecutionContext file = files.get(i);
+            if (!sources.add(file.getString(STUDY_ID) + "_" + file.getString(FILE_ID))) {
+                throw new ItemStreamException("The fileId " + file.getString(FILE_ID) + " is ingested more than once "
+                        + "in the study " + file.getString(STUDY_ID));
+            }
+            partitions.put(partitionName(i), file);
+        }
+        logger.info("Ingestion split in {} partitions, one per file", partitions.size());
+        return partitions;
+    }
+
+    static List<ExecutionContext> readManifest(Path manifest) throws IOException {
+        List<ExecutionContext> files = new ArrayList<>();
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            if (columns.length != 3) {
+                throw new ItemStreamException("Line " + (i + 1) + " of " + manifest + " should have 3 tab-separated "
+                        + "columns (path, fileId and studyId), but has " + columns.length);
+            }
+            Path input = manifest.toAbsolutePath().getParent().resolve(columns[0].trim()).normalize();
+            files.add(fileContext(input, columns[1].trim(), columns[2].trim()));
+        }
+        return files;
+    }
+
+    static List<ExecutionContext> listDirectory(Path inputDir, String studyId) throws IOException {
+        if (studyId == null || studyId.isEmpty()) {
+            throw new ItemStreamException("The job parameter " + STUDY_ID + " is needed to ingest the files in "
+                    + inputDir);
+        }
+
+        List<Path> inputs = new ArrayList<>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(inputDir);
+        try {
+            for (Path entry : stream) {
+                if (Files.isRegularFile(entry) && getFileId(entry) != null) {
+                    inputs.add(entry.toAbsolutePath().normalize());
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(inputs);
+
+        List<ExecutionContext> files = new ArrayList<>();
+        for (Path input : inputs) {
+            files.add(fileContext(input, getFileId(input), studyId));
+        }
+        return files;
+    }
+
+    /**
+     * @return the name of a VCF without its extension, or null if it is not a VCF
+     */
+    static String getFileId(Path input) {
+        String name = input.getFileName().toString();
+        for (String extension : VCF_EXTENSIONS) {
+            if (name.endsWith(extension) && name.length() > extension.length()) {
+                return name.substring(0, name.length() - extension.length());
+            }
+        }
+        return null;
+    }
+
+    static ExecutionContext fileContext(Path input, String fileId, String studyId) {
+        ExecutionContext context = new ExecutionContext();
+        context.putString(INPUT, input.toString());
+        context.putString(FILE_ID, fileId);
+        context.putString(STUDY_ID, studyId);
+        return context;
+    }
+
+    static String partitionName(int index) {
+        return String.format("file%05d", index);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps.partitioners;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.partition.support.AbstractPartitionHandler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Runs every partition in a ThreadPoolTaskExecutor, with as many threads as the job parameter given in the
+ * constructor asks for.
+ *
+ * Unlike the TaskExecutorPartitionHandler, a new Step is created for every partition, so that the readers and
+ * writers, which keep the state of the file they are working on, are not shared between threads.
+ */
+public class StepPerPartitionHandler extends AbstractPartitionHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(StepPerPartitionHandler.class);
+
+    public interface StepFactory {
+        Step createStep();
+    }
+
+    private StepFactory stepFactory;
+    private String threadsParameter;
+
+    public StepPerPartitionHandler(StepFactory stepFactory, String threadsParameter) {
+        this.stepFactory = stepFactory;
+        this.threadsParameter = threadsParameter;
+    }
+
+    @Override
+    protected Set<StepExecution> doHandle(StepExecution masterStepExecution, Set<StepExecution> partitionStepExecutions)
+            throws Exception {
+        int threads = Integer.parseInt(masterStepExecution.getJobParameters().getString(threadsParameter, "1"));
+        threads = Math.max(1, Math.min(threads, partitionStepExecutions.size()));
+        logger.info("Running {} partitions of step {} in {} threads", partitionStepExecutions.size(),
+                masterStepExecution.getStepName(), threads);
+
+        List<StepExecution> partitions = new ArrayList<>(partitionStepExecutions);
+        Collections.sort(partitions, new Comparator<StepExecution>() {
+            @Override
+            public int compare(StepExecution stepExecution, StepExecution other) {
+                return stepExecution.getStepName().compareTo(other.getStepName());
+            }
+        });
+
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(threads);
+        taskExecutor.setMaxPoolSize(threads);
+        taskExecutor.setThreadNamePrefix(masterStepExecution.getStepName() + "-");
+        taskExecutor.initialize();
+        try {
+            List<Future<StepExecution>> tasks = new ArrayList<>();
+            for (final StepExecution partition : partitions) {
+                final Step step = stepFactory.createStep();
+                tasks.add(taskExecutor.submit(new Callable<StepExecution>() {
+                    @Override
+                    public StepExecution call() throws Exception {
+                        step.execute(partition);
+                        return partition;
+                    }
+                }));
+            }
+
+            Set<StepExecution> results = new HashSet<>();
+            for (Future<StepExecution> task : tasks) {
+                results.add(task.get());
+            }
+            return results;
+        } finally {
+            taskExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps.partitioners;
+
+import embl.ebi.variation.eva.pipeline.io.UriUtils;
+import embl.ebi.variation.eva.pipeline.io.readers.VcfLineReader;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsCreate;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the stats calculation in one partition per chromosome, so that each one iterates its own region of the
+ * database concurrently. The chromosomes are taken from the VCF of the file, as no variant of other chromosomes can
+ * have stats for it.
+ *
+ * If {@link VariantsStatsCreate#STATS_THREADS} is not more than 1, a single partition with all the variants is
+ * created, and only if the stats are loaded as they are calculated. Otherwise no partition is created, because the
+ * stats are calculated by the statsCreate tasklet.
+ */
+public class VariantStatsCreatePartitioner implements Partitioner, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantStatsCreatePartitioner.class);
+
+    private JobParametersListener listener;
+    private JobParameters parameters;
+
+    public VariantStatsCreatePartitioner(JobParametersListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        return null;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        if (Boolean.parseBoolean(parameters.getString(VariantsStatsCreate.SKIP_STATS_CREATE, "false"))
+                || !VariantsStatsCreate.isPartitioned(parameters)) {
+            return partitions;
+        }
+
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        String input;
+        try {
+            input = Paths.get(UriUtils.createUri(source.getFileName()).getPath()).toString();
+            deleteStaleParts(source);
+        } catch (URISyntaxException | IOException e) {
+            throw new ItemStreamException("Could not prepare the stats calculation of " + source.getFileName(), e);
+        }
+
+        int threads = Integer.parseInt(parameters.getString(VariantsStatsCreate.STATS_THREADS, "1"));
+        if (threads <= 1) {
+            partitions.put(VcfChromosomePartitioner.partitionName(0), VcfChromosomePartitioner.partitionContext(0, null));
+        } else {
+            List<String> chromosomes = VcfChromosomePartitioner.getChromosomes(input);
+            for (int i = 0; i < chromosomes.size(); i++) {
+                partitions.put(VcfChromosomePartitioner.partitionName(i),
+                        VcfChromosomePartitioner.partitionContext(i, chromosomes.get(i)));
+            }
+        }
+
+        logger.info("Stats calculation of {} split in {} partitions", input, partitions.size());
+        return partitions;
+    }
+
+    /**
+     * Removes the parts left by a previous calculation of the same stats, which may have used more partitions.
+     */
+    private void deleteStaleParts(VariantSource source) throws URISyntaxException, IOException {
+        for (Path stale : VcfChromosomePartitioner.listParts(VariantStatsJsonItemWriter.getVariantStatsPath(parameters, source))) {
+            Files.delete(stale);
+        }
+        for (Path stale : VcfChromosomePartitioner.listParts(VariantStatsJsonItemWriter.getSourceStatsPath(parameters, source))) {
+            Files.delete(stale);
+        }
+    }
+}
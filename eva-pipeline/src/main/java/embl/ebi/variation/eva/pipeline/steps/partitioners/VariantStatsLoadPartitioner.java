@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps.partitioners;
+
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsMongoItemWriter;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsLoad;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates one partition per part of the variants stats file written by the parallel stats calculation, so the parts
+ * are loaded concurrently. The path of the part is kept in the partition ExecutionContext under {@link #STATS_FILE}.
+ * If the stats were written in a single file, a single partition loads it. The parts are deleted once all of them are
+ * loaded; until then, a restarted step can load again the ones that failed.
+ *
+ * No partition is created if the stats were already loaded by the stats creation step.
+ */
+public class VariantStatsLoadPartitioner implements Partitioner, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantStatsLoadPartitioner.class);
+
+    public static final String STATS_FILE = "statsFile";
+
+    private JobParametersListener listener;
+    private JobParameters parameters;
+
+    public VariantStatsLoadPartitioner(JobParametersListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        if (stepExecution.getStatus() == BatchStatus.COMPLETED && !isLoadSkipped()) {
+            deleteParts();
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        if (isLoadSkipped()) {
+            return partitions;
+        }
+
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        List<Path> parts;
+        try {
+            Path variantsStats = VariantStatsJsonItemWriter.getVariantStatsPath(parameters, source);
+            parts = VcfChromosomePartitioner.listParts(variantsStats);
+            if (parts.isEmpty()) {
+                parts = Collections.singletonList(variantsStats);
+            }
+        } catch (URISyntaxException | IOException e) {
+            throw new ItemStreamException("Could not list the variants stats parts", e);
+        }
+
+        for (int i = 0; i < parts.size(); i++) {
+            ExecutionContext context = new ExecutionContext();
+            context.putString(STATS_FILE, parts.get(i).toString());
+            partitions.put(VcfChromosomePartitioner.partitionName(i), context);
+        }
+
+        logger.info("Stats load split in {} partitions", partitions.size());
+        return partitions;
+    }
+
+    private boolean isLoadSkipped() {
+        return Boolean.parseBoolean(parameters.getString(VariantsStatsLoad.SKIP_STATS_LOAD, "false"))
+                || VariantStatsMongoItemWriter.isLoadingWhileCreating(parameters);
+    }
+
+    private void deleteParts() {
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        try {
+            for (Path part : VcfChromosomePartitioner.listParts(VariantStatsJsonItemWriter.getVariantStatsPath(parameters, source))) {
+                Files.delete(part);
+            }
+        } catch (URISyntaxException | IOException e) {
+            throw new ItemStreamException("Could not delete the variants stats parts", e);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps.partitioners;
+
+import embl.ebi.variation.eva.pipeline.io.UriUtils;
+import embl.ebi.variation.eva.pipeline.io.readers.GzipLazyResource;
+import embl.ebi.variation.eva.pipeline.io.readers.VcfLineReader;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantJsonItemWriter;
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import htsjdk.tribble.readers.TabixReader;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Splits the transformation of a VCF in one partition per chromosome, so they can be transformed in parallel.
+ *
+ * The chromosomes are taken from the tabix index of the VCF, which also lets each partition read only its chromosome.
+ * Without an index every partition would have to read the whole file, so a single partition with the whole file is
+ * created instead, as it is when the job is not asked to use several threads.
+ *
+ * It must be registered as a listener of the partitioned step too: the VCF header is read in beforeStep, and the
+ * step execution context tells a restart from a first start. Spring Batch calls partition() again on a restart, but
+ * the partitions keep the contexts of the previous execution and the completed ones are not transformed again, so the
+ * parts left by a previous transformation of the same file are only deleted on the first start.
+ */
+public class VcfChromosomePartitioner implements Partitioner, StepExecutionListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(VcfChromosomePartitioner.class);
+
+    public static final String CHROMOSOME = "chromosome";
+    public static final String PARTITION_INDEX = "partitionIndex";
+    public static final String PART_EXTENSION = ".part";
+    public static final String TABIX_EXTENSION = ".tbi";
+
+    private static final String PARTITIONED_KEY = "vcfChromosomePartitioner.partitioned";
+
+    private JobParametersListener listener;
+    private String threadsParameter;
+    private JobParameters parameters;
+    private ExecutionContext stepContext;
+    private String input;
+
+    public VcfChromosomePartitioner(JobParametersListener listener, String threadsParameter) {
+        this.listener = listener;
+        this.threadsParameter = threadsParameter;
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        parameters = stepExecution.getJobParameters();
+        stepContext = stepExecution.getExecutionContext();
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        try {
+            input = Paths.get(UriUtils.createUri(source.getFileName()).getPath()).toString();
+        } catch (URISyntaxException e) {
+            throw new ItemStreamException("Invalid input file " + source.getFileName(), e);
+        }
+        VcfLineReader.readHeader(source, input);
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        return null;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        if (stepContext.containsKey(PARTITIONED_KEY)) {
+            logger.info("Restarting the transformation of {}, keeping the parts already written", input);
+        } else {
+            deleteStaleParts();
+            stepContext.putString(PARTITIONED_KEY, "true");
+        }
+
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        int threads = Integer.parseInt(parameters.getString(threadsParameter, "1"));
+        if (threads > 1 && !new File(input + TABIX_EXTENSION).exists()) {
+            logger.warn("{} has no tabix index, so it is transformed in a single partition instead of using {} threads",
+                    input, threads);
+            threads = 1;
+        }
+        if (threads <= 1) {
+            partitions.put(partitionName(0), partitionContext(0, null));
+        } else {
+            List<String> chromosomes = getChromosomes(input);
+            for (int i = 0; i < chromosomes.size(); i++) {
+                partitions.put(partitionName(i), partitionContext(i, chromosomes.get(i)));
+            }
+        }
+
+        logger.info("Transformation of {} split in {} partitions", input, partitions.size());
+        return partitions;
+    }
+
+    /**
+     * @return the chromosomes of a VCF, in the order they appear in the file
+     */
+    public static List<String> getChromosomes(String input) {
+        try {
+            if (new File(input + TABIX_EXTENSION).exists()) {
+                return getIndexedChromosomes(input);
+            } else {
+                logger.info("{} has no tabix index, scanning the whole file to find its chromosomes", input);
+                return scanChromosomes(input);
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Could not get the chromosomes of " + input, e);
+        }
+    }
+
+    private static List<String> getIndexedChromosomes(String input) throws IOException {
+        final TabixReader tabixReader = new TabixReader(input);
+        try {
+            List<String> chromosomes = new ArrayList<>(tabixReader.getChromosomes());
+            // keep the order of the file, which is also the order of the index
+            Collections.sort(chromosomes, new Comparator<String>() {
+                @Override
+                public int compare(String chromosome, String other) {
+                    return Integer.compare(tabixReader.chr2tid(chromosome), tabixReader.chr2tid(other));
+                }
+            });
+            return chromosomes;
+        } finally {
+            tabixReader.close();
+        }
+    }
+
+    private static List<String> scanChromosomes(String input) throws IOException {
+        Set<String> chromosomes = new LinkedHashSet<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(GzipLazyResource.forPath(input).getInputStream()));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    int tab = line.indexOf('\t');
+                    chromosomes.add(tab < 0 ? line : line.substring(0, tab));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new ArrayList<>(chromosomes);
+    }
+
+    /**
+     * Removes the parts left by a previous transformation of the same file, which may have used more partitions.
+     */
+    private void deleteStaleParts() {
+        try {
+            Path variantsPath = VariantJsonItemWriter.getTransformedVariantsPath(parameters);
+            Path sourcePath = VariantJsonItemWriter.getTransformedSourcePath(parameters);
+            for (Path stale : listParts(variantsPath)) {
+                Files.delete(stale);
+            }
+            for (Path stale : listParts(sourcePath)) {
+                Files.delete(stale);
+            }
+        } catch (URISyntaxException | IOException e) {
+            throw new ItemStreamException("Could not delete the parts of a previous transformation", e);
+        }
+    }
+
+    static ExecutionContext partitionContext(int index, String chromosome) {
+        ExecutionContext context = new ExecutionContext();
+        context.putInt(PARTITION_INDEX, index);
+        if (chromosome != null) {
+            context.putString(CHROMOSOME, chromosome);
+        }
+        return context;
+    }
+
+    static String partitionName(int index) {
+        return String.format("partition%04d", index);
+    }
+
+    /**
+     * @return the path of the part of a file written by the partition with the given index
+     */
+    public static Path getPartPath(Path path, int index) {
+        return path.resolveSibling(path.getFileName().toString() + PART_EXTENSION + String.format("%04d", index));
+    }
+
+    /**
+     * @return the parts of a file, in partition order
+     */
+    public static List<Path> listParts(Path path) throws IOException {
+        final String prefix = path.getFileName().toString() + PART_EXTENSION;
+        List<Path> parts = new ArrayList<>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(path.getParent(), new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(Path entry) {
+                String name = entry.getFileName().toString();
+                return name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]{4}");
+            }
+        });
+        try {
+            for (Path part : stream) {
+                parts.add(part);
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(parts);
+        return parts;
+    }
+}
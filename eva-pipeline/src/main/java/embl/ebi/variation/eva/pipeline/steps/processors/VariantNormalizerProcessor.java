@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps.processors;
+
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import org.opencb.biodata.models.variant.*;
+import org.opencb.biodata.models.variant.exceptions.NotAVariantException;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.datastore.core.ObjectMap;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ItemProcessor;
+
+import java.util.List;
+
+/**
+ * Converts a VCF line into one or more normalized variants: multiallelic lines are split and the alleles are
+ * trimmed, so indels may end up with an empty reference or alternate.
+ *
+ * Lines that do not describe a variant (for instance, a reference call) are filtered out.
+ */
+public class VariantNormalizerProcessor implements ItemProcessor<String, List<Variant>> {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantNormalizerProcessor.class);
+
+    private JobParametersListener listener;
+    private VariantSource.Aggregation factoryAggregation;
+    private VariantFactory factory;
+
+    public VariantNormalizerProcessor(JobParametersListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public List<Variant> process(String line) throws Exception {
+        ObjectMap variantOptions = listener.getVariantOptions();
+        VariantSource source = variantOptions.get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+
+        List<Variant> variants;
+        try {
+            variants = getVariantFactory(source.getAggregation()).create(source, line);
+        } catch (NotAVariantException e) {
+            logger.debug("Skipping line, it is not a variant: {}", e.getMessage());
+            return null;
+        }
+
+        if (variantOptions.getBoolean(VariantStorageManager.CALCULATE_STATS, false)
+                && VariantSource.Aggregation.NONE.equals(source.getAggregation())) {
+            VariantStats.calculateStatsForVariantsList(variants, source.getPedigree());
+        }
+        return variants;
+    }
+
+    private VariantFactory getVariantFactory(VariantSource.Aggregation aggregation) {
+        if (factory == null || !aggregation.equals(factoryAggregation)) {
+            factory = createVariantFactory(aggregation);
+            factoryAggregation = aggregation;
+        }
+        return factory;
+    }
+
+    private VariantFactory createVariantFactory(VariantSource.Aggregation aggregation) {
+        switch (aggregation) {
+            case NONE:
+                return new VariantVcfFactory();
+            case BASIC:
+                return new VariantAggregatedVcfFactory();
+            case EVS:
+                return new VariantVcfEVSFactory();
+            case EXAC:
+                return new VariantVcfExacFactory();
+            default:
+                throw new IllegalArgumentException("Aggregation " + aggregation + " not supported");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps.processors;
+
+import embl.ebi.variation.eva.pipeline.listeners.JobParametersListener;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
+import org.springframework.batch.item.ItemProcessor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Calculates the allele and genotype counts and frequencies (MAF included) of a variant read from the database, for
+ * the samples of the file being processed. The stats are left in the source entry of that file.
+ *
+ * Variants without a source entry of the file are filtered out, as there is nothing to calculate for them.
+ */
+public class VariantStatsProcessor implements ItemProcessor<Variant, Variant> {
+
+    /**
+     * the cohort with all the samples of the file, which is the only one calculated, as VariantStatisticsManager does
+     * when it is not given any
+     */
+    public static final String DEFAULT_COHORT = "ALL";
+
+    private JobParametersListener listener;
+
+    public VariantStatsProcessor(JobParametersListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public Variant process(Variant variant) throws Exception {
+        VariantSource source = listener.getVariantOptions().get(VariantStorageManager.VARIANT_SOURCE, VariantSource.class);
+        VariantSourceEntry sourceEntry = variant.getSourceEntry(source.getFileId(), source.getStudyId());
+        if (sourceEntry == null) {
+            return null;
+        }
+
+        VariantStats stats = new VariantStats(variant).calculate(sourceEntry.getSamplesData(),
+                sourceEntry.getAttributes(), source.getPedigree());
+        sourceEntry.setStats(stats);
+        return variant;
+    }
+
+    /**
+     * @return the stats of the file in the variant, in the format that VariantDBAdaptor.updateStats expects
+     */
+    public static VariantStatsWrapper createStatsWrapper(Variant variant, VariantSource source) {
+        Map<String, VariantStats> cohortStats = new HashMap<>();
+        cohortStats.put(DEFAULT_COHORT, variant.getSourceEntry(source.getFileId(), source.getStudyId()).getStats());
+        return new VariantStatsWrapper(variant.getChromosome(), variant.getStart(), cohortStats);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.configuration;
+
+import org.junit.Test;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.MapJobRepositoryFactoryBean;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.item.support.ListItemReader;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the same step with a chunk per item, saving the ExecutionContext at every commit and once every 3.
+ */
+public class ThrottledJobRepositoryTest {
+
+    @Test
+    public void testEveryUpdateIsSavedWithIntervalOne() throws Exception {
+        List<BatchStatus> savedUpdates = runStep(1);
+        assertEquals(13, savedUpdates.size());
+        assertEquals(BatchStatus.COMPLETED, savedUpdates.get(savedUpdates.size() - 1));
+    }
+
+    @Test
+    public void testRunningStepUpdatesAreThrottled() throws Exception {
+        List<BatchStatus> savedUpdates = runStep(3);
+        // 12 updates while running (when the step opens, and at the 11 commits), of which every third one is saved,
+        // plus the final one
+        assertEquals(Arrays.asList(BatchStatus.STARTED, BatchStatus.STARTED, BatchStatus.STARTED, BatchStatus.STARTED,
+                BatchStatus.COMPLETED), savedUpdates);
+    }
+
+    /**
+     * @return the status of the step in every ExecutionContext update that reached the repository
+     */
+    private List<BatchStatus> runStep(int interval) throws Exception {
+        ResourcelessTransactionManager transactionManager = new ResourcelessTransactionManager();
+        final JobRepository mapJobRepository = new MapJobRepositoryFactoryBean(transactionManager).getObject();
+        final List<BatchStatus> savedUpdates = new ArrayList<>();
+        JobRepository recordingJobRepository = (JobRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{JobRepository.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("updateExecutionContext") && args[0] instanceof StepExecution) {
+                            savedUpdates.add(((StepExecution) args[0]).getStatus());
+                        }
+                        try {
+                            return method.invoke(mapJobRepository, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        JobRepository jobRepository = new ThrottledJobRepository(recordingJobRepository, interval);
+
+        List<String> items = Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "10");
+        StepBuilderFactory stepBuilderFactory = new StepBuilderFactory(jobRepository, transactionManager);
+        JobExecution jobExecution = jobRepository.createJobExecution("throttledJob", new JobParameters());
+        StepExecution stepExecution = jobExecution.createStepExecution("throttledStep");
+        jobRepository.add(stepExecution);
+        stepBuilderFactory.get("throttledStep")
+                .<String, String>chunk(1)
+                .reader(new ListItemReader<>(items))
+                .writer(new ItemWriter<String>() {
+                    @Override
+                    public void write(List<? extends String> items) {
+                    }
+                })
+                .build()
+                .execute(stepExecution);
+
+        assertEquals(BatchStatus.COMPLETED, stepExecution.getStatus());
+        assertEquals(items.size(), stepExecution.getCommitCount() - 1);
+        return savedUpdates;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.daemon;
+
+import org.junit.Test;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.configuration.JobFactory;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.launch.support.SimpleJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.MapJobRepositoryFactoryBean;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Submits a job with a factory, a job without one, a job that does not exist and a submission left running by a
+ * previous daemon.
+ */
+public class JobQueueDaemonTest {
+
+    private final ConcurrentLinkedQueue<String> inputs = new ConcurrentLinkedQueue<>();
+
+    @Test
+    public void testSubmissions() throws Exception {
+        Path queueDir = Files.createTempDirectory("queue");
+        Files.createDirectories(queueDir.resolve(JobQueueDaemon.RUNNING_DIR));
+        Files.write(queueDir.resolve(JobQueueDaemon.RUNNING_DIR).resolve("interrupted.properties"),
+                Arrays.asList("job=sharedJob", "input=interrupted"), StandardCharsets.ISO_8859_1);
+        Files.write(queueDir.resolve("a.properties"), Arrays.asList("job=newJob", "input=a"), StandardCharsets.ISO_8859_1);
+        Files.write(queueDir.resolve("b.properties"), Arrays.asList("job=sharedJob", "input=b"), StandardCharsets.ISO_8859_1);
+        Files.write(queueDir.resolve("c.properties"), Arrays.asList("job=unknownJob", "input=c"), StandardCharsets.ISO_8859_1);
+        Files.write(queueDir.resolve("d.properties.tmp"), Arrays.asList("job=sharedJob", "input=d"), StandardCharsets.ISO_8859_1);
+
+        ResourcelessTransactionManager transactionManager = new ResourcelessTransactionManager();
+        final JobRepository jobRepository = new MapJobRepositoryFactoryBean(transactionManager).getObject();
+        SimpleJobLauncher jobLauncher = new SimpleJobLauncher();
+        jobLauncher.setJobRepository(jobRepository);
+        jobLauncher.afterPropertiesSet();
+
+        JobFactory jobFactory = new JobFactory() {
+            @Override
+            public Job createJob() {
+                return buildJob(jobRepository, "newJob");
+            }
+
+            @Override
+            public String getJobName() {
+                return "newJob";
+            }
+        };
+        JobQueueDaemon daemon = new JobQueueDaemon(jobLauncher,
+                Collections.singletonList(buildJob(jobRepository, "sharedJob")), Collections.singletonList(jobFactory),
+                queueDir, 2, 10);
+        daemon.init();
+        // 3 submissions in 2 threads: poll until all of them are taken
+        while (Files.exists(queueDir.resolve("a.properties")) || Files.exists(queueDir.resolve("b.properties"))
+                || Files.exists(queueDir.resolve("c.properties"))) {
+            daemon.poll();
+            Thread.sleep(10);
+        }
+        daemon.destroy();
+
+        assertEquals(2, inputs.size());
+        assertTrue(inputs.containsAll(Arrays.asList("a", "b")));
+
+        assertCompleted(queueDir.resolve(JobQueueDaemon.DONE_DIR).resolve("a.properties"));
+        assertCompleted(queueDir.resolve(JobQueueDaemon.DONE_DIR).resolve("b.properties"));
+        assertFailed(queueDir.resolve(JobQueueDaemon.FAILED_DIR).resolve("c.properties"), "Unknown job unknownJob");
+        assertFailed(queueDir.resolve(JobQueueDaemon.FAILED_DIR).resolve("interrupted.properties"), "interrupted");
+        assertTrue(Files.exists(queueDir.resolve("d.properties.tmp")));
+        assertFalse(Files.exists(queueDir.resolve("a.properties")));
+    }
+
+    private Job buildJob(JobRepository jobRepository, String name) {
+        Tasklet tasklet = new Tasklet() {
+            @Override
+            public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+                inputs.add(chunkContext.getStepContext().getStepExecution().getJobParameters().getString("input"));
+                return RepeatStatus.FINISHED;
+            }
+        };
+        return new JobBuilder(name).repository(jobRepository)
+                .start(new StepBuilder("step").repository(jobRepository)
+                        .transactionManager(new ResourcelessTransactionManager()).tasklet(tasklet).build())
+                .build();
+    }
+
+    private static void assertCompleted(Path submission) throws Exception {
+        List<String> lines = Files.readAllLines(submission, StandardCharsets.ISO_8859_1);
+        assertTrue(lines.get(lines.size() - 1).endsWith("status=COMPLETED, exitCode=COMPLETED"));
+    }
+
+    private static void assertFailed(Path submission, String result) throws Exception {
+        List<String> lines = Files.readAllLines(submission, StandardCharsets.ISO_8859_1);
+        assertTrue(lines.get(lines.size() - 1).startsWith("# "));
+        assertTrue(lines.get(lines.size() - 1).contains(result));
+    }
+}
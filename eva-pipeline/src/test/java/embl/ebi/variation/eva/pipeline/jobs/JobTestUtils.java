@@ -17,18 +17,27 @@ package embl.ebi.variation.eva.pipeline.jobs;
 
 import com.mongodb.DB;
 import com.mongodb.MongoClient;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
 import org.opencb.biodata.models.variant.Variant;
 
 import java.io.BufferedReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.UnknownHostException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by jmmut on 2015-11-10.
@@ -50,6 +59,50 @@ public class JobTestUtils {
         return lines;
     }
 
+    public static List<String> readLines(InputStream in) throws IOException {
+        BufferedReader file = new BufferedReader(new InputStreamReader(in));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = file.readLine()) != null) {
+            lines.add(line);
+        }
+        file.close();
+        return lines;
+    }
+
+    public static void writeGzippedLines(Path path, List<String> lines) throws IOException {
+        Writer file = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(path.toFile())));
+        try {
+            for (String line : lines) {
+                file.write(line);
+                file.write('\n');
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Writes the lines in BGZF and indexes them with tabix, as a VCF sorted by chromosome and position.
+     */
+    public static void writeIndexedLines(Path path, List<String> lines) throws IOException {
+        BlockCompressedOutputStream file = new BlockCompressedOutputStream(path.toFile());
+        TabixIndexCreator indexCreator = new TabixIndexCreator(TabixFormat.VCF);
+        try {
+            for (String line : lines) {
+                if (!line.startsWith("#")) {
+                    String[] fields = line.split("\t", 3);
+                    int position = Integer.parseInt(fields[1]);
+                    indexCreator.addFeature(new SimpleFeature(fields[0], position, position), file.getFilePointer());
+                }
+                file.write((line + "\n").getBytes());
+            }
+            indexCreator.finalizeIndex(file.getFilePointer()).writeBasedOnFeatureFile(path.toFile());
+        } finally {
+            file.close();
+        }
+    }
+
     public static long countRows(Iterator<Variant> iterator) {
         int variantRows = 0;
         while(iterator.hasNext()) {
@@ -17,9 +17,13 @@ package embl.ebi.variation.eva.pipeline.jobs;
 
 import java.io.*;
 
-import embl.ebi.variation.eva.pipeline.steps.VariantsLoad;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import embl.ebi.variation.eva.pipeline.io.readers.VariantJsonLineReader;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantMongoItemWriter;
 import embl.ebi.variation.eva.pipeline.steps.VariantsStatsCreate;
 import embl.ebi.variation.eva.pipeline.steps.VariantsStatsLoad;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.VcfChromosomePartitioner;
+import org.apache.commons.lang.StringUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -40,7 +44,11 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 import static embl.ebi.variation.eva.pipeline.jobs.JobTestUtils.*;
@@ -66,9 +74,17 @@ public class VariantConfigurationTest {
     // iterable doing an enum. Does it worth it?
     private static final String VALID_TRANSFORM = "VariantConfigurationTest_vt";
     private static final String INVALID_TRANSFORM = "VariantConfigurationTest_it";
+    private static final String CHUNKED_TRANSFORM = "VariantConfigurationTest_ct";
+    private static final String PARTITIONED_TRANSFORM = "VariantConfigurationTest_pt";
+    private static final String RESTARTED_TRANSFORM = "VariantConfigurationTest_rt";
+    private static final String RESTARTED_PARTITIONED_TRANSFORM = "VariantConfigurationTest_rpt";
+    private static final String UNINDEXED_PARTITIONED_TRANSFORM = "VariantConfigurationTest_upt";
     private static final String VALID_LOAD = "VariantConfigurationTest_vl";
+    private static final String LOAD_WHILE_TRANSFORMING = "VariantConfigurationTest_lwt";
+    private static final String PARALLEL_LOAD_WHILE_TRANSFORMING = "VariantConfigurationTest_plwt";
 //    private static final String INVALID_LOAD = "invalidLoad";
     private static final String VALID_CREATE_STATS = "VariantConfigurationTest_vcs";
+    private static final String INCREMENTAL_CREATE_STATS = "VariantConfigurationTest_ics";
 //    private static final String INVALID_CREATE_STATS = "invalidCreateStats";
     private static final String VALID_LOAD_STATS = "VariantConfigurationTest_vls";
 //    private static final String INVALID_LOAD_STATS = "invalidLoadStats";
@@ -98,7 +114,7 @@ public class VariantConfigurationTest {
                 .addString("studyId", "1")
                 .addString("fileId", "1")
                 .addString("opencga.app.home", opencgaHome)
-                .addString(VariantsLoad.SKIP_LOAD, "true")
+                .addString(VariantJsonLineReader.SKIP_LOAD, "true")
                 .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
                 .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
                 .toJobParameters();
@@ -120,6 +136,188 @@ public class VariantConfigurationTest {
         assertEquals(300, lines);
     }
 
+    /**
+     * The transformed file must not depend on the chunk size, even if every chunk is written as a separate gzip member
+     */
+    @Test
+    public void validTransformInSeveralChunks() throws JobExecutionException, IOException {
+        String input = VariantConfigurationTest.class.getResource(FILE_20).getFile();
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = CHUNKED_TRANSFORM;
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString("input", input)
+                .addString("outputDir", "/tmp")
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("studyId", "1")
+                .addString("fileId", "1")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantConfiguration.TRANSFORM_CHUNK_SIZE, "7")
+                .addString(VariantJsonLineReader.SKIP_LOAD, "true")
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+
+        String outputFilename = getTransformedOutputPath(Paths.get(FILE_20).getFileName(),
+                parameters.getString("compressExtension"), parameters.getString("outputDir"));
+        new File(outputFilename).delete();
+
+        JobExecution execution = jobLauncher.run(job, parameters);
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+        StepExecution transformExecution = execution.getStepExecutions().iterator().next();
+        assertEquals("transform", transformExecution.getStepName());
+        assertTrue(transformExecution.getCommitCount() > 1);
+
+        long lines = getLines(new GZIPInputStream(new FileInputStream(outputFilename)));
+        assertEquals(300, lines);
+    }
+
+    /**
+     * A transformation that fails in the middle of the VCF must be restarted from its last commit, and write the
+     * same file as a transformation without failures
+     */
+    @Test
+    public void restartedTransformInSeveralChunks() throws JobExecutionException, IOException {
+        Path workDir = Files.createTempDirectory(RESTARTED_TRANSFORM);
+        Path input = workDir.resolve(Paths.get(FILE_20).getFileName());
+        List<String> vcf = readLines(new GZIPInputStream(VariantConfigurationTest.class.getResourceAsStream(FILE_20)));
+        int wrongVariant = 200;
+        int chunkSize = 10;
+
+        writeGzippedLines(input, vcf);
+        JobExecution cleanExecution = jobLauncher.run(job, getRestartParameters(input,
+                Files.createDirectory(workDir.resolve("clean")), RESTARTED_TRANSFORM, "1", chunkSize));
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), cleanExecution.getExitStatus().getExitCode());
+
+        JobParameters parameters = getRestartParameters(input, Files.createDirectory(workDir.resolve("restarted")),
+                RESTARTED_TRANSFORM, "1", chunkSize);
+        writeGzippedLines(input, withWrongVariant(vcf, wrongVariant));
+        JobExecution failedExecution = jobLauncher.run(job, parameters);
+        assertEquals(ExitStatus.FAILED.getExitCode(), failedExecution.getExitStatus().getExitCode());
+
+        writeGzippedLines(input, vcf);
+        JobExecution restartedExecution = jobLauncher.run(job, parameters);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), restartedExecution.getExitStatus().getExitCode());
+
+        // only the lines after the last commit before the wrong variant are read again
+        StepExecution partitionExecution = getStepExecution(restartedExecution, "transformPartition:partition0000");
+        int committedLines = (wrongVariant - 1) / chunkSize * chunkSize;
+        assertEquals(getLines(new GZIPInputStream(new FileInputStream(input.toFile()))) - committedLines,
+                partitionExecution.getReadCount());
+
+        assertEquals(readTransformedVariants(cleanExecution), readTransformedVariants(restartedExecution));
+    }
+
+    @Test
+    public void validPartitionedTransform()throws JobExecutionException, IOException {
+        String input = VariantConfigurationTest.class.getResource(FILE_20).getFile();
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = PARTITIONED_TRANSFORM;
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString("input", input)
+                .addString("outputDir", "/tmp")
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("studyId", "1")
+                .addString("fileId", "1")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantConfiguration.TRANSFORM_THREADS, "4")
+                .addString(VariantJsonLineReader.SKIP_LOAD, "true")
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+
+        String outputFilename = getTransformedOutputPath(Paths.get(FILE_20).getFileName(),
+                parameters.getString("compressExtension"), parameters.getString("outputDir"));
+        new File(outputFilename).delete();
+
+        JobExecution execution = jobLauncher.run(job, parameters);
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+        assertFalse(new File(outputFilename + VcfChromosomePartitioner.PART_EXTENSION + "0000").exists());
+
+        long lines = getLines(new GZIPInputStream(new FileInputStream(outputFilename)));
+        assertEquals(300, lines);
+    }
+
+    /**
+     * When a partition fails, the restart must transform it again from its last commit and keep the parts of the
+     * partitions already completed, so that the merged file is the same as the one of a transformation without failures
+     */
+    @Test
+    public void restartedPartitionedTransform() throws JobExecutionException, IOException {
+        Path workDir = Files.createTempDirectory(RESTARTED_PARTITIONED_TRANSFORM);
+        Path input = workDir.resolve(Paths.get(FILE_20).getFileName());
+        // 2 chromosomes, to have 2 partitions, indexed so that each partition reads only its chromosome
+        List<String> vcf = withChromosome(
+                readLines(new GZIPInputStream(VariantConfigurationTest.class.getResourceAsStream(FILE_20))), 151, "21");
+        int chunkSize = 10;
+
+        writeIndexedLines(input, vcf);
+        JobExecution cleanExecution = jobLauncher.run(job, getRestartParameters(input,
+                Files.createDirectory(workDir.resolve("clean")), RESTARTED_PARTITIONED_TRANSFORM, "2", chunkSize));
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), cleanExecution.getExitStatus().getExitCode());
+
+        JobParameters parameters = getRestartParameters(input, Files.createDirectory(workDir.resolve("restarted")),
+                RESTARTED_PARTITIONED_TRANSFORM, "2", chunkSize);
+        writeIndexedLines(input, withWrongVariant(vcf, 250));
+        JobExecution failedExecution = jobLauncher.run(job, parameters);
+        assertEquals(ExitStatus.FAILED.getExitCode(), failedExecution.getExitStatus().getExitCode());
+        assertEquals(BatchStatus.COMPLETED,
+                getStepExecution(failedExecution, "transformPartition:partition0000").getStatus());
+        assertEquals(BatchStatus.FAILED,
+                getStepExecution(failedExecution, "transformPartition:partition0001").getStatus());
+
+        writeIndexedLines(input, vcf);
+        JobExecution restartedExecution = jobLauncher.run(job, parameters);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), restartedExecution.getExitStatus().getExitCode());
+        // only the failed partition is transformed again
+        assertEquals(getStepExecution(restartedExecution, "transformPartition:partition0001").getReadCount(),
+                getStepExecution(restartedExecution, "transform").getReadCount());
+
+        assertEquals(readTransformedVariants(cleanExecution), readTransformedVariants(restartedExecution));
+    }
+
+    /**
+     * Without a tabix index each partition would read the whole file, so it is transformed in a single partition
+     */
+    @Test
+    public void unindexedPartitionedTransform() throws JobExecutionException, IOException {
+        Path workDir = Files.createTempDirectory(UNINDEXED_PARTITIONED_TRANSFORM);
+        Path input = workDir.resolve(Paths.get(FILE_20).getFileName());
+        List<String> vcf = withChromosome(
+                readLines(new GZIPInputStream(VariantConfigurationTest.class.getResourceAsStream(FILE_20))), 151, "21");
+        writeGzippedLines(input, vcf);
+
+        JobExecution execution = jobLauncher.run(job, getRestartParameters(input, workDir,
+                UNINDEXED_PARTITIONED_TRANSFORM, "2", 10));
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+        int variants = 0;
+        for (String line : vcf) {
+            if (!line.startsWith("#")) {
+                variants++;
+            }
+        }
+        assertEquals(variants, getStepExecution(execution, "transformPartition:partition0000").getReadCount());
+        for (StepExecution stepExecution : execution.getStepExecutions()) {
+            assertFalse(stepExecution.getStepName().equals("transformPartition:partition0001"));
+        }
+    }
+
     /**
      * This test has to fail because the vcf FILE_WRONG_NO_ALT is malformed, in
      * a variant has an empty alternate allele
@@ -143,7 +341,7 @@ public class VariantConfigurationTest {
                 .addString("studyId", "2")
                 .addString("fileId", "2")
                 .addString("opencga.app.home", opencgaHome)
-                .addString(VariantsLoad.SKIP_LOAD, "true")
+                .addString(VariantJsonLineReader.SKIP_LOAD, "true")
                 .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
                 .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
                 .toJobParameters();
@@ -195,6 +393,90 @@ public class VariantConfigurationTest {
         assertEquals(countRows(iterator), lines);
     }
 
+    @Test
+    public void validLoadWhileTransforming() throws JobExecutionException, IllegalAccessException,
+            ClassNotFoundException, InstantiationException, IOException, StorageManagerException {
+        String input = VariantConfigurationTest.class.getResource(FILE_20).getFile();
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = LOAD_WHILE_TRANSFORMING;
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString("input", input)
+                .addString("outputDir", "/tmp")
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("studyId", "1")
+                .addString("fileId", "1")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantMongoItemWriter.LOAD_WHILE_TRANSFORMING, "true")
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+
+        String outputFilename = getTransformedOutputPath(Paths.get(FILE_20).getFileName(),
+                parameters.getString("compressExtension"), parameters.getString("outputDir"));
+        File file = new File(outputFilename);
+        file.delete();
+
+        JobExecution execution = jobLauncher.run(job, parameters);
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+        assertFalse(file.exists());     // the variants are not kept unless asked to
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(dbName, null);
+        VariantDBIterator iterator = variantDBAdaptor.iterator(new QueryOptions());
+
+        assertEquals(300, countRows(iterator));
+    }
+
+    /**
+     * Several writers load bulks that don't divide the chunks evenly, so every writer is left with a partial bulk at the
+     * end of each chunk, that must reach the database before the transform step finishes.
+     */
+    @Test
+    public void validParallelLoadWhileTransforming() throws JobExecutionException, IllegalAccessException,
+            ClassNotFoundException, InstantiationException, IOException, StorageManagerException {
+        String input = VariantConfigurationTest.class.getResource(FILE_20).getFile();
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = PARALLEL_LOAD_WHILE_TRANSFORMING;
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString("input", input)
+                .addString("outputDir", "/tmp")
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("studyId", "1")
+                .addString("fileId", "1")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantMongoItemWriter.LOAD_WHILE_TRANSFORMING, "true")
+                .addString(VariantMongoItemWriter.LOAD_THREADS, "3")
+                .addString(VariantMongoItemWriter.LOAD_BULK_SIZE, "7")
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+
+        JobExecution execution = jobLauncher.run(job, parameters);
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(dbName, null);
+        VariantDBIterator iterator = variantDBAdaptor.iterator(new QueryOptions());
+
+        assertEquals(300, countRows(iterator));
+    }
+
     @Test
     public void validCreateStats() throws JobExecutionException, IOException, InterruptedException,
             IllegalAccessException, ClassNotFoundException, InstantiationException, StorageManagerException {
@@ -232,6 +514,69 @@ public class VariantConfigurationTest {
         assertTrue(statsFile.exists());
     }
 
+    /**
+     * When the stats are calculated incrementally, only the variants of the file being loaded must be read, even if
+     * the study already has the variants of other files
+     */
+    @Test
+    public void validIncrementalCreateStats() throws JobExecutionException, IOException {
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = INCREMENTAL_CREATE_STATS;
+        String outputDir = Files.createTempDirectory(INCREMENTAL_CREATE_STATS).toString();
+
+        String firstInput = VariantConfigurationTest.class.getResource(FILE_20).getFile();
+        JobParameters firstParameters = new JobParametersBuilder()
+                .addString("input", firstInput)
+                .addString("outputDir", outputDir)
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("studyId", "1")
+                .addString("fileId", "1")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+        JobExecution firstExecution = jobLauncher.run(job, firstParameters);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), firstExecution.getExitStatus().getExitCode());
+
+        String secondInput = VariantConfigurationTest.class.getResource(FILE_22).getFile();
+        VariantSource secondSource = new VariantSource(secondInput, "2", "1", "studyName");
+        JobParameters secondParameters = new JobParametersBuilder()
+                .addString("input", secondInput)
+                .addString("outputDir", outputDir)
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", secondSource.getStudyName())
+                .addString("studyId", secondSource.getStudyId())
+                .addString("fileId", secondSource.getFileId())
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantsStatsCreate.INCREMENTAL_STATS, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+        JobExecution secondExecution = jobLauncher.run(job, secondParameters);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), secondExecution.getExitStatus().getExitCode());
+
+        // the stats are those of the variants of the second file, all of them in chromosome 22
+        String statsFilename = Paths.get(outputDir).resolve(VariantStorageManager.buildFilename(secondSource))
+                + ".variants.stats.json.gz";
+        List<String> stats = readLines(new GZIPInputStream(new FileInputStream(statsFilename)));
+        String secondTransformedFilename = getTransformedOutputPath(Paths.get(FILE_22).getFileName(), ".gz", outputDir);
+        assertEquals(getLines(new GZIPInputStream(new FileInputStream(secondTransformedFilename))), stats.size());
+        ObjectMapper jsonObjectMapper = new ObjectMapper();
+        for (String variantStats : stats) {
+            assertEquals("22", jsonObjectMapper.readTree(variantStats).get("chromosome").asText());
+        }
+    }
+
     @Test
     public void validLoadStats() throws JobExecutionException, IOException, IllegalAccessException,
             ClassNotFoundException, InstantiationException, StorageManagerException {
@@ -286,6 +631,78 @@ public class VariantConfigurationTest {
         assertEquals(1, iterator.next().getSourceEntries().values().iterator().next().getCohortStats().size());
     }
 
+    private JobParameters getRestartParameters(Path input, Path outputDir, String dbName, String threads, int chunkSize) {
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        return new JobParametersBuilder()
+                .addString("input", input.toString())
+                .addString("outputDir", outputDir.toString())
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("studyId", "1")
+                .addString("fileId", "1")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantConfiguration.TRANSFORM_THREADS, threads)
+                .addString(VariantConfiguration.TRANSFORM_CHUNK_SIZE, String.valueOf(chunkSize))
+                .addString(VariantJsonLineReader.SKIP_LOAD, "true")
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+    }
+
+    /**
+     * @return the VCF lines, with the alternate allele of the given variant (counted from 1) equal to its reference,
+     * which makes its transformation fail
+     */
+    private static List<String> withWrongVariant(List<String> vcf, int variant) {
+        List<String> wrongVcf = new ArrayList<>(vcf);
+        int variants = 0;
+        for (int i = 0; i < wrongVcf.size(); i++) {
+            if (!wrongVcf.get(i).startsWith("#") && ++variants == variant) {
+                String[] fields = wrongVcf.get(i).split("\t", -1);
+                fields[4] = fields[3];
+                wrongVcf.set(i, StringUtils.join(fields, '\t'));
+            }
+        }
+        return wrongVcf;
+    }
+
+    /**
+     * @return the VCF lines, with the chromosome of the variants from the given one (counted from 1) replaced
+     */
+    private static List<String> withChromosome(List<String> vcf, int firstVariant, String chromosome) {
+        List<String> relabeledVcf = new ArrayList<>(vcf);
+        int variants = 0;
+        for (int i = 0; i < relabeledVcf.size(); i++) {
+            String line = relabeledVcf.get(i);
+            if (!line.startsWith("#") && ++variants >= firstVariant) {
+                relabeledVcf.set(i, chromosome + line.substring(line.indexOf('\t')));
+            }
+        }
+        return relabeledVcf;
+    }
+
+    private static List<String> readTransformedVariants(JobExecution execution) throws IOException {
+        String outputFilename = getTransformedOutputPath(
+                Paths.get(execution.getJobParameters().getString("input")).getFileName(),
+                execution.getJobParameters().getString("compressExtension"),
+                execution.getJobParameters().getString("outputDir"));
+        return readLines(new GZIPInputStream(new FileInputStream(outputFilename)));
+    }
+
+    private static StepExecution getStepExecution(JobExecution execution, String stepName) {
+        for (StepExecution stepExecution : execution.getStepExecutions()) {
+            if (stepName.equals(stepExecution.getStepName())) {
+                return stepExecution;
+            }
+        }
+        throw new AssertionError("No execution of the step " + stepName);
+    }
+
     @BeforeClass
     public static void beforeTests() throws UnknownHostException {
         cleanDBs();
@@ -300,8 +717,16 @@ public class VariantConfigurationTest {
         JobTestUtils.cleanDBs(
                 VALID_TRANSFORM,
                 INVALID_TRANSFORM,
+                CHUNKED_TRANSFORM,
+                PARTITIONED_TRANSFORM,
+                RESTARTED_TRANSFORM,
+                RESTARTED_PARTITIONED_TRANSFORM,
+                UNINDEXED_PARTITIONED_TRANSFORM,
                 VALID_LOAD,
+                LOAD_WHILE_TRANSFORMING,
+                PARALLEL_LOAD_WHILE_TRANSFORMING,
                 VALID_CREATE_STATS,
+                INCREMENTAL_CREATE_STATS,
                 VALID_LOAD_STATS);
     }
 }
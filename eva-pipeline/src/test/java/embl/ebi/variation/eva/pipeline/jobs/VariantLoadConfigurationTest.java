@@ -17,7 +17,7 @@ package embl.ebi.variation.eva.pipeline.jobs;
 
 import com.mongodb.DB;
 import com.mongodb.MongoClient;
-import embl.ebi.variation.eva.pipeline.steps.VariantsLoad;
+import embl.ebi.variation.eva.pipeline.io.writers.VariantMongoItemWriter;
 import embl.ebi.variation.eva.pipeline.steps.VariantsStatsCreate;
 import embl.ebi.variation.eva.pipeline.steps.VariantsStatsLoad;
 import org.junit.AfterClass;
@@ -47,8 +47,10 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.io.*;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -75,6 +77,8 @@ public class VariantLoadConfigurationTest {
     // iterable doing an enum. Does it worth it?
     private static final String VALID_LOAD = "VariantLoadConfigurationTest_v";
     private static final String INVALID_LOAD = "VariantLoadConfigurationTest_i";
+    private static final String PARALLEL_LOAD = "VariantLoadConfigurationTest_p";
+    private static final String RESTARTED_LOAD = "VariantLoadConfigurationTest_r";
 
     @Autowired
     VariantLoadConfiguration variantConfiguration;
@@ -127,6 +131,111 @@ public class VariantLoadConfigurationTest {
         assertEquals(countRows(iterator), lines);
     }
 
+    @Test
+    public void validParallelLoad() throws JobExecutionException, IllegalAccessException, ClassNotFoundException,
+            InstantiationException, StorageManagerException, IOException {
+        String input = VariantLoadConfigurationTest.class.getResource(FILE_20).getFile();
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = PARALLEL_LOAD;
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString("input", input)
+                .addString("outputDir", Paths.get(input).getParent().toString())    // reusing transformed path in resources
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("studyId", "7")
+                .addString("fileId", "10")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantConfiguration.LOAD_CHUNK_SIZE, "50")
+                .addString(VariantMongoItemWriter.LOAD_THREADS, "4")
+                .addString(VariantMongoItemWriter.LOAD_BULK_SIZE, "7")
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+
+        JobExecution execution = jobLauncher.run(job, parameters);
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+
+        // check ((documents in DB) == (lines in transformed file))
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(dbName, null);
+        VariantDBIterator iterator = variantDBAdaptor.iterator(new QueryOptions());
+
+        String outputFilename = getTransformedOutputPath(Paths.get(FILE_20).getFileName(),
+                parameters.getString("compressExtension"), parameters.getString("outputDir"));
+        long lines = getLines(new GZIPInputStream(new FileInputStream(outputFilename)));
+
+        assertEquals(countRows(iterator), lines);
+    }
+
+    /**
+     * A load that fails in the middle of the transformed file must be restarted after the last committed chunk: every
+     * variant is loaded, and no line is read again
+     */
+    @Test
+    public void restartedLoad() throws JobExecutionException, IllegalAccessException, ClassNotFoundException,
+            InstantiationException, StorageManagerException, IOException {
+        Path workDir = Files.createTempDirectory(RESTARTED_LOAD);
+        Path input = workDir.resolve(Paths.get(FILE_20).getFileName());
+        Files.copy(VariantLoadConfigurationTest.class.getResourceAsStream(FILE_20), input);
+        Files.copy(VariantLoadConfigurationTest.class.getResourceAsStream(FILE_20 + ".file.json.gz"),
+                workDir.resolve(input.getFileName() + ".file.json.gz"));
+        Path variantsPath = Paths.get(getTransformedOutputPath(input.getFileName(), ".gz", workDir.toString()));
+        List<String> variants = readLines(
+                new GZIPInputStream(VariantLoadConfigurationTest.class.getResourceAsStream(FILE_20 + ".variants.json.gz")));
+        int chunkSize = 2;
+        int wrongLine = 4;
+
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = RESTARTED_LOAD;
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString("input", input.toString())
+                .addString("outputDir", workDir.toString())
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("studyId", "7")
+                .addString("fileId", "10")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantConfiguration.LOAD_CHUNK_SIZE, String.valueOf(chunkSize))
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+
+        List<String> wrongVariants = new ArrayList<>(variants);
+        wrongVariants.set(wrongLine - 1, "{");
+        writeGzippedLines(variantsPath, wrongVariants);
+        JobExecution failedExecution = jobLauncher.run(job, parameters);
+        assertEquals(ExitStatus.FAILED.getExitCode(), failedExecution.getExitStatus().getExitCode());
+        int committedLines = (wrongLine - 1) / chunkSize * chunkSize;
+        assertEquals(committedLines, failedExecution.getStepExecutions().iterator().next().getWriteCount());
+
+        writeGzippedLines(variantsPath, variants);
+        JobExecution restartedExecution = jobLauncher.run(job, parameters);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), restartedExecution.getExitStatus().getExitCode());
+        StepExecution restartedLoad = restartedExecution.getStepExecutions().iterator().next();
+        assertEquals(variants.size() - committedLines, restartedLoad.getReadCount());
+        assertEquals(variants.size() - committedLines, restartedLoad.getWriteCount());
+
+        // check ((documents in DB) == (lines in transformed file))
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(dbName, null);
+        VariantDBIterator iterator = variantDBAdaptor.iterator(new QueryOptions());
+
+        assertEquals(variants.size(), countRows(iterator));
+    }
+
     /**
      * This test has to fail because the opencgaHome is not set, so it will fail at loading the storage engine configuration.
      */
@@ -172,7 +281,7 @@ public class VariantLoadConfigurationTest {
     }
 
     private static void cleanDBs() throws UnknownHostException {
-        JobTestUtils.cleanDBs(VALID_LOAD, INVALID_LOAD);
+        JobTestUtils.cleanDBs(VALID_LOAD, INVALID_LOAD, PARALLEL_LOAD, RESTARTED_LOAD);
     }
 
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.jobs;
+
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsCreate;
+import embl.ebi.variation.eva.pipeline.steps.VariantsStatsLoad;
+import embl.ebi.variation.eva.pipeline.steps.partitioners.ManifestPartitioner;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.StorageManagerException;
+import org.opencb.opencga.storage.core.StorageManagerFactory;
+import org.opencb.opencga.storage.core.variant.VariantStorageManager;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionException;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static embl.ebi.variation.eva.pipeline.jobs.JobTestUtils.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Ingests small20 and small22 concurrently, in the same database.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {VariantManifestConfiguration.class})
+public class VariantManifestConfigurationTest {
+
+    private static final String VALID_MANIFEST = "VariantManifestConfigurationTest_vm";
+
+    @Autowired
+    @Qualifier("variantManifestJob")
+    private Job job;
+
+    @Autowired
+    private JobLauncher jobLauncher;
+
+    @BeforeClass
+    public static void beforeTests() throws UnknownHostException {
+        cleanDBs();
+    }
+
+    @Test
+    public void validManifest() throws JobExecutionException, IllegalAccessException, ClassNotFoundException,
+            InstantiationException, IOException, StorageManagerException {
+        File input20 = new File(VariantManifestConfigurationTest.class.getResource(VariantConfigurationTest.FILE_20).getFile());
+        File input22 = new File(VariantManifestConfigurationTest.class.getResource(VariantConfigurationTest.FILE_22).getFile());
+        Path manifest = Files.createTempFile("manifest", ".tsv");
+        Files.write(manifest, Arrays.asList(
+                input20.getAbsolutePath() + "\t20\t1",
+                input22.getAbsolutePath() + "\t22\t1"), StandardCharsets.UTF_8);
+
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = VALID_MANIFEST;
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString(ManifestPartitioner.MANIFEST, manifest.toString())
+                .addString(VariantManifestConfiguration.INGEST_THREADS, "2")
+                .addString("outputDir", "/tmp")
+                .addString("dbName", dbName)
+                .addString("compressExtension", ".gz")
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", "studyName")
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantsStatsCreate.SKIP_STATS_CREATE, "true")
+                .addString(VariantsStatsLoad.SKIP_STATS_LOAD, "true")
+                .toJobParameters();
+
+        JobExecution execution = jobLauncher.run(job, parameters);
+        Files.delete(manifest);
+
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+        int files = 0;
+        for (StepExecution stepExecution : execution.getStepExecutions()) {
+            if (stepExecution.getStepName().startsWith("ingestFile:")) {
+                assertEquals(ExitStatus.COMPLETED.getExitCode(), stepExecution.getExitStatus().getExitCode());
+                files++;
+            }
+        }
+        assertEquals(2, files);
+
+        // check ((documents in DB) == (lines in both transformed files))
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(dbName, null);
+        long lines = 0;
+        for (File input : Arrays.asList(input20, input22)) {
+            String outputFilename = getTransformedOutputPath(Paths.get(input.getName()),
+                    parameters.getString("compressExtension"), parameters.getString("outputDir"));
+            lines += getLines(new GZIPInputStream(new FileInputStream(outputFilename)));
+        }
+
+        assertEquals(countRows(variantDBAdaptor.iterator(new QueryOptions())), lines);
+    }
+
+    @AfterClass
+    public static void afterTests() throws UnknownHostException {
+        cleanDBs();
+    }
+
+    private static void cleanDBs() throws UnknownHostException {
+        JobTestUtils.cleanDBs(VALID_MANIFEST);
+    }
+}
@@ -15,6 +15,7 @@
  */
 package embl.ebi.variation.eva.pipeline.jobs;
 
+import embl.ebi.variation.eva.pipeline.io.writers.VariantStatsMongoItemWriter;
 import embl.ebi.variation.eva.pipeline.steps.VariantsStatsCreate;
 import embl.ebi.variation.eva.pipeline.steps.VariantsStatsLoad;
 import org.junit.AfterClass;
@@ -38,6 +39,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.io.*;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
 import static org.junit.Assert.*;
 
 /**
@@ -59,6 +61,8 @@ public class VariantStatsConfigurationTest {
 //    private static final String VALID_CREATE_STATS = "VariantStatsConfigurationTest_vc";
     private static final String INVALID_CREATE_STATS = "VariantStatsConfigurationTest_ic";
     private static final String VALID_LOAD_STATS = "VariantStatsConfigurationTest_vl";
+    private static final String PARALLEL_STATS = "VariantStatsConfigurationTest_ps";
+    private static final String STATS_LOADED_WHILE_CREATING = "VariantStatsConfigurationTest_slwc";
     private static final String INVALID_LOAD_STATS = "VariantStatsConfigurationTest_il";
 
     @Autowired
@@ -139,6 +143,89 @@ public class VariantStatsConfigurationTest {
         assertEquals(1, iterator.next().getSourceEntries().values().iterator().next().getCohortStats().size());
     }
 
+    @Test
+    public void validParallelStats() throws JobExecutionException, IOException, IllegalAccessException,
+            ClassNotFoundException, InstantiationException, StorageManagerException {
+        String input = VariantStatsConfigurationTest.class.getResource(FILE_20).getFile();
+        VariantSource source = new VariantSource(input, "1", "1", "studyName");
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = PARALLEL_STATS;
+        String compressExtension = ".gz";
+        String outputDir = "/tmp";
+        String statsPath = Paths.get(outputDir).resolve(VariantStorageManager.buildFilename(source)).toString();
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString("input", input)
+                .addString("outputDir", outputDir)
+                .addString("dbName", dbName)
+                .addString("compressExtension", compressExtension)
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", source.getStudyName())
+                .addString("studyId", source.getStudyId())
+                .addString("fileId", source.getFileId())
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantsStatsCreate.STATS_THREADS, "2")
+                .toJobParameters();
+
+        JobExecution execution = jobLauncher.run(job, parameters);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+
+        // small20.vcf.gz has a single chromosome, so there is a single part, deleted once it is loaded
+        assertFalse(new File(statsPath + ".variants.stats.json.gz.part0000").exists());
+        assertTrue(new File(statsPath + ".source.stats.json.gz").exists());
+        assertFalse(new File(statsPath + ".source.stats.json.gz.part0000").exists());
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(dbName, null);
+        VariantDBIterator iterator = variantDBAdaptor.iterator(new QueryOptions());
+
+        assertEquals(1, iterator.next().getSourceEntries().values().iterator().next().getCohortStats().size());
+    }
+
+    @Test
+    public void validStatsLoadedWhileCreating() throws JobExecutionException, IOException, IllegalAccessException,
+            ClassNotFoundException, InstantiationException, StorageManagerException {
+        String input = VariantStatsConfigurationTest.class.getResource(FILE_20).getFile();
+        VariantSource source = new VariantSource(input, "1", "1", "studyName");
+        String opencgaHome = System.getenv("OPENCGA_HOME") != null ? System.getenv("OPENCGA_HOME") : "/opt/opencga";
+        String dbName = STATS_LOADED_WHILE_CREATING;
+        String compressExtension = ".gz";
+        String outputDir = "/tmp";
+        String statsPath = Paths.get(outputDir).resolve(VariantStorageManager.buildFilename(source)).toString();
+
+        JobParameters parameters = new JobParametersBuilder()
+                .addString("input", input)
+                .addString("outputDir", outputDir)
+                .addString("dbName", dbName)
+                .addString("compressExtension", compressExtension)
+                .addString("compressGenotypes", "true")
+                .addString("includeSrc", "FIRST_8_COLUMNS")
+                .addString("aggregated", "NONE")
+                .addString("studyType", "COLLECTION")
+                .addString("studyName", source.getStudyName())
+                .addString("studyId", source.getStudyId())
+                .addString("fileId", source.getFileId())
+                .addString("opencga.app.home", opencgaHome)
+                .addString(VariantStatsMongoItemWriter.LOAD_STATS_WHILE_CREATING, "true")
+                .toJobParameters();
+
+        JobExecution execution = jobLauncher.run(job, parameters);
+        assertEquals(ExitStatus.COMPLETED.getExitCode(), execution.getExitStatus().getExitCode());
+
+        // the variants stats are not kept, but the source stats are still written for the load step
+        assertFalse(new File(statsPath + ".variants.stats.json.gz.part0000").exists());
+        assertTrue(new File(statsPath + ".source.stats.json.gz").exists());
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(dbName, null);
+        VariantDBIterator iterator = variantDBAdaptor.iterator(new QueryOptions());
+
+        assertEquals(1, iterator.next().getSourceEntries().values().iterator().next().getCohortStats().size());
+    }
+
     /**
      * This test should fail because the variants.stats file is malformed, with an extra `"`.
      */
@@ -185,7 +272,8 @@ public class VariantStatsConfigurationTest {
     }
 
     private static void cleanDBs() throws UnknownHostException {
-        JobTestUtils.cleanDBs(INVALID_CREATE_STATS, VALID_LOAD_STATS, INVALID_LOAD_STATS);
+        JobTestUtils.cleanDBs(INVALID_CREATE_STATS, VALID_LOAD_STATS, PARALLEL_STATS, STATS_LOADED_WHILE_CREATING,
+                INVALID_LOAD_STATS);
     }
 
     public static void fillDB() throws IOException, InterruptedException {
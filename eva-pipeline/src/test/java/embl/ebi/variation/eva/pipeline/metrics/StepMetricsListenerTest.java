@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.metrics;
+
+import org.junit.Test;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.MapJobRepositoryFactoryBean;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.item.support.ListItemReader;
+import org.springframework.batch.support.transaction.ResourcelessTransactionManager;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a step in memory, whose writer counts its bytes, pretends to send a DB batch per chunk and checks the metrics
+ * published over JMX.
+ */
+public class StepMetricsListenerTest {
+
+    @Test
+    public void testSummaryAndMBean() throws Exception {
+        ResourcelessTransactionManager transactionManager = new ResourcelessTransactionManager();
+        JobRepository jobRepository = new MapJobRepositoryFactoryBean(transactionManager).getObject();
+        JobExecution jobExecution = jobRepository.createJobExecution("metricsJob", new JobParameters());
+        final StepExecution stepExecution = jobExecution.createStepExecution("metricsStep");
+        jobRepository.add(stepExecution);
+        final ObjectName name = new ObjectName(StepMetricsListener.JMX_DOMAIN
+                + ":type=StepMetrics,job=\"metricsJob\",step=\"metricsStep\",execution=" + stepExecution.getId());
+        final List<Long> bytesWrittenInJmx = new ArrayList<>();
+
+        Step step = new StepBuilderFactory(jobRepository, transactionManager).get("metricsStep")
+                .<String, String>chunk(2)
+                .reader(new ListItemReader<>(Arrays.asList("a", "bb", "ccc")))
+                .writer(new ItemWriter<String>() {
+                    @Override
+                    public void write(List<? extends String> items) throws Exception {
+                        StepMetrics metrics = StepMetrics.forCurrentStep();
+                        for (String item : items) {
+                            metrics.addBytesWritten(item.length());
+                        }
+                        metrics.addDbBatch(1000000);
+                        bytesWrittenInJmx.add((Long) ManagementFactory.getPlatformMBeanServer()
+                                .getAttribute(name, "BytesWritten"));
+                    }
+                })
+                .listener(new StepMetricsListener())
+                .build();
+
+        step.execute(stepExecution);
+        assertEquals(BatchStatus.COMPLETED, stepExecution.getStatus());
+
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        assertEquals(6, executionContext.getLong(StepMetricsListener.SUMMARY_PREFIX + "bytes.written"));
+        assertEquals(0, executionContext.getLong(StepMetricsListener.SUMMARY_PREFIX + "bytes.read"));
+        assertEquals(2, executionContext.getLong(StepMetricsListener.SUMMARY_PREFIX + "db.batches"));
+        assertEquals(1.0, executionContext.getDouble(StepMetricsListener.SUMMARY_PREFIX + "db.batch.mean.ms"), 1e-9);
+        assertTrue(executionContext.containsKey(StepMetricsListener.SUMMARY_PREFIX + "gc.ms"));
+
+        // the bean is only registered while the step runs
+        assertEquals(Arrays.asList(3L, 6L), bytesWrittenInJmx);
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void testUtf8Length() {
+        assertEquals(0, StepMetrics.utf8Length(""));
+        assertEquals("22\t16050075\tA\tG".getBytes(StandardCharsets.UTF_8).length,
+                StepMetrics.utf8Length("22\t16050075\tA\tG"));
+        String mixed = "caf\u00e9 \u20ac \ud83e\uddec";
+        assertEquals(mixed.getBytes(StandardCharsets.UTF_8).length, StepMetrics.utf8Length(mixed));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.pipeline.steps.partitioners;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ManifestPartitionerTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("manifest");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DirectoryStream<Path> files = Files.newDirectoryStream(dir);
+        try {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        } finally {
+            files.close();
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        Path manifest = dir.resolve("manifest.tsv");
+        Files.write(manifest, Arrays.asList(
+                "# path\tfileId\tstudyId",
+                "a.vcf.gz\t1\t7",
+                "",
+                "/data/b.vcf\t2\t7",
+                "c.vcf.gz\t1\t8"), StandardCharsets.UTF_8);
+
+        Map<String, ExecutionContext> partitions = partition(new JobParametersBuilder()
+                .addString(ManifestPartitioner.MANIFEST, manifest.toString())
+                .toJobParameters());
+
+        assertEquals(3, partitions.size());
+        assertFile(dir.resolve("a.vcf.gz").toString(), "1", "7", partitions.get("file00000"));
+        assertFile("/data/b.vcf", "2", "7", partitions.get("file00001"));
+        assertFile(dir.resolve("c.vcf.gz").toString(), "1", "8", partitions.get("file00002"));
+    }
+
+    @Test(expected = ItemStreamException.class)
+    public void testManifestWithWrongColumns() throws IOException {
+        Path manifest = dir.resolve("manifest.tsv");
+        Files.write(manifest, Arrays.asList("a.vcf.gz\t1"), StandardCharsets.UTF_8);
+
+        partition(new JobParametersBuilder()
+                .addString(ManifestPartitioner.MANIFEST, manifest.toString())
+                .toJobParameters());
+    }
+
+    @Test(expected = ItemStreamException.class)
+    public void testManifestWithRepeatedFile() throws IOException {
+        Path manifest = dir.resolve("manifest.tsv");
+        Files.write(manifest, Arrays.asList("a.vcf.gz\t1\t7", "b.vcf.gz\t1\t7"), StandardCharsets.UTF_8);
+
+        partition(new JobParametersBuilder()
+                .addString(ManifestPartitioner.MANIFEST, manifest.toString())
+                .toJobParameters());
+    }
+
+    @Test
+    public void testInputDir() throws IOException {
+        Files.createFile(dir.resolve("b.vcf"));
+        Files.createFile(dir.resolve("a.vcf.gz"));
+        Files.createFile(dir.resolve("a.vcf.gz.tbi"));
+        Files.createFile(dir.resolve("notes.txt"));
+
+        Map<String, ExecutionContext> partitions = partition(new JobParametersBuilder()
+                .addString(ManifestPartitioner.INPUT_DIR, dir.toString())
+                .addString(ManifestPartitioner.STUDY_ID, "7")
+                .toJobParameters());
+
+        assertEquals(2, partitions.size());
+        assertFile(dir.resolve("a.vcf.gz").toString(), "a", "7", partitions.get("file00000"));
+        assertFile(dir.resolve("b.vcf").toString(), "b", "7", partitions.get("file00001"));
+    }
+
+    private static Map<String, ExecutionContext> partition(JobParameters parameters) {
+        ManifestPartitioner partitioner = new ManifestPartitioner();
+        partitioner.beforeStep(new JobExecution(1L, parameters).createStepExecution("ingestFiles"));
+        return partitioner.partition(1);
+    }
+
+    private static void assertFile(String input, String fileId, String studyId, ExecutionContext partition) {
+        assertEquals(input, partition.getString(ManifestPartitioner.INPUT));
+        assertEquals(fileId, partition.getString(ManifestPartitioner.FILE_ID));
+        assertEquals(studyId, partition.getString(ManifestPartitioner.STUDY_ID));
+    }
+}
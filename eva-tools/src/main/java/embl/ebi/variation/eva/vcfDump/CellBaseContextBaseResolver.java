@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.cellbase.core.client.CellBaseClient;
+import org.opencb.cellbase.core.common.GenomeSequenceFeature;
+import org.opencb.datastore.core.QueryResponse;
+import org.opencb.datastore.core.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Retrieves from CellBase the base before a variant with empty alleles, which VCF requires as context.
+ *
+ * The bases are kept in a bounded LRU cache, keyed by chromosome and position. Before converting a batch of variants,
+ * {@link #prefetch} asks CellBase for the bases of all the variants in the batch that need one and are not cached,
+ * with one request for every {@link #DEFAULT_REGIONS_PER_REQUEST} positions, instead of one request per variant.
+ *
+ * This class is thread safe, so several conversion threads can share it.
+ */
+public class CellBaseContextBaseResolver implements ReferenceSequenceProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(CellBaseContextBaseResolver.class);
+
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+    public static final int DEFAULT_REGIONS_PER_REQUEST = 100;
+
+    private CellBaseClient cellbaseClient;
+    private int regionsPerRequest;
+    private final Map<String, String> cache;
+
+    public CellBaseContextBaseResolver(CellBaseClient cellbaseClient) {
+        this(cellbaseClient, DEFAULT_CACHE_SIZE, DEFAULT_REGIONS_PER_REQUEST);
+    }
+
+    /**
+     * @param cacheSize maximum number of bases kept
+     * @param regionsPerRequest maximum number of positions asked to CellBase in a single request
+     */
+    public CellBaseContextBaseResolver(CellBaseClient cellbaseClient, final int cacheSize, int regionsPerRequest) {
+        this.cellbaseClient = cellbaseClient;
+        this.regionsPerRequest = regionsPerRequest;
+        this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @return the base at the position, or null if CellBase doesn't have it
+     */
+    @Override
+    public String getContextBase(String chromosome, int position) throws IOException {
+        String key = getKey(chromosome, position);
+        synchronized (cache) {
+            if (cache.containsKey(key)) {
+                return cache.get(key);
+            }
+        }
+        fetch(Collections.singletonList(new Region(chromosome, position, position)));
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    /**
+     * Retrieves in batched requests the bases needed by the variants with empty alleles that are not cached yet.
+     */
+    @Override
+    public void prefetch(Collection<Variant> variants) throws IOException {
+        Set<String> keys = new HashSet<>();
+        List<Region> regions = new ArrayList<>();
+        synchronized (cache) {
+            for (Variant variant : variants) {
+                if (variant.getReference().isEmpty() || variant.getAlternate().isEmpty()) {
+                    int position = variant.getStart() - 1;
+                    String key = getKey(variant.getChromosome(), position);
+                    if (!cache.containsKey(key) && keys.add(key)) {
+                        regions.add(new Region(variant.getChromosome(), position, position));
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < regions.size(); i += regionsPerRequest) {
+            fetch(regions.subList(i, Math.min(i + regionsPerRequest, regions.size())));
+        }
+    }
+
+    /**
+     * The response has a result per region, in the same order. The positions that CellBase doesn't have are cached
+     * as null, so they are not requested again.
+     */
+    private void fetch(List<Region> regions) throws IOException {
+        long start = System.currentTimeMillis();
+        QueryResponse<QueryResult<GenomeSequenceFeature>> sequence = cellbaseClient.getSequence(
+                CellBaseClient.Category.genomic, CellBaseClient.SubCategory.region, regions, null);
+        List<QueryResult<GenomeSequenceFeature>> results = sequence.getResponse();
+        if (results.size() != regions.size()) {
+            throw new IOException("CellBase returned " + results.size() + " sequences for " + regions.size()
+                    + " regions");
+        }
+
+        synchronized (cache) {
+            for (int i = 0; i < regions.size(); i++) {
+                Region region = regions.get(i);
+                List<GenomeSequenceFeature> features = results.get(i).getResult();
+                cache.put(getKey(region.getChromosome(), region.getStart()),
+                        features.size() == 1 ? features.get(0).getSequence() : null);
+            }
+        }
+        logger.debug("{} context bases retrieved in {} ms", regions.size(), System.currentTimeMillis() - start);
+    }
+
+    private static String getKey(String chromosome, int position) {
+        return chromosome + ":" + position;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package embl.ebi.variation.eva.vcfDump;
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.opencb.biodata.models.feature.Region;
 import org.opencb.cellbase.core.client.CellBaseClient;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.opencga.lib.common.Config;
@@ -31,8 +33,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -48,6 +54,20 @@ import java.util.zip.GZIPOutputStream;
  */
 public class DumpMain {
 
+    public static final String THREADS = "--threads";
+    public static final String REGION_SIZE = "--regionSize";
+    public static final String CHROMOSOMES = "--chromosomes";
+    public static final String FASTA = "--fasta";
+    public static final String WRITER = "--writer";
+    public static final String WRITER_HTSJDK = "htsjdk";
+    public static final String WRITER_DIRECT = "direct";
+    public static final String COMPRESSION_THREADS = "--compressionThreads";
+    public static final String COMPRESSION_LEVEL = "--compressionLevel";
+    public static final String INDEX = "--index";
+    public static final String SAMPLES = "--samples";
+    public static final String REGION = "--region";
+    public static final String BED = "--bed";
+
     public static void main(String args[]) throws IllegalAccessException, ClassNotFoundException,
             InstantiationException, StorageManagerException, IOException, URISyntaxException {
 
@@ -59,33 +79,96 @@ public class DumpMain {
         String dbName;              // = "batch";
         String outputDir;           // = "./";
         String species;
+        Map<String, String> options = new HashMap<>();
 
-        if (args.length == 5) {
+        if (args.length >= 5 && args.length % 2 == 1) {
             species = args[0];
             dbName = args[1];
             studies = Arrays.asList(args[2].split(","));
             files = Arrays.asList(args[3].split(","));
             outputDir = args[4];
+            for (int i = 5; i < args.length; i += 2) {
+                options.put(args[i], args[i + 1]);
+            }
         } else {
-            System.out.println("usage: java -jar <jar> <species> <dbName> <studies CommaSeparatedValues> <files CSV> <output directory>");
-            System.out.println("example: java -jar eva-tools-0.1.jar hsapiens batch 7 5,6 ./");
+            System.out.println("usage: java -jar <jar> <species> <dbName> <studies CommaSeparatedValues> <files CSV> <output directory> [options]");
+            System.out.println("options:");
+            System.out.println("  " + THREADS + " <n>    threads converting the variants, each study is written by its own thread (default 1)");
+            System.out.println("  " + REGION_SIZE + " <bases>    export regions of this size in parallel, " + THREADS + " of them at a time");
+            System.out.println("  " + CHROMOSOMES + " <CSV>    chromosomes to split in regions (default: the contigs in the VCF headers)");
+            System.out.println("  " + FASTA + " <path>    local reference, indexed with samtools faidx, to fill empty alleles instead of CellBase");
+            System.out.println("  " + WRITER + " <" + WRITER_HTSJDK + "|" + WRITER_DIRECT + ">    write with htsjdk, or render the VCF lines directly (same output, faster) (default " + WRITER_HTSJDK + ")");
+            System.out.println("  " + COMPRESSION_THREADS + " <n>    threads compressing each output file (default: the number of cores)");
+            System.out.println("  " + COMPRESSION_LEVEL + " <0-9>    BGZF compression level (default " + BlockCompressedOutputStream.getDefaultCompressionLevel() + ")");
+            System.out.println("  " + INDEX + " <true|false>    write a tabix index (.tbi) next to each output file (default true)");
+            System.out.println("  " + SAMPLES + " <CSV>    samples to export, in this order, from the studies that have them (default: all)");
+            System.out.println("  " + REGION + " <chr:start-end CSV>    export only the variants overlapping these regions");
+            System.out.println("  " + BED + " <path>    export only the variants overlapping the intervals of this BED file");
+            System.out.println("example: java -jar eva-tools-0.1-exec.jar hsapiens batch 7 5,6 ./ " + THREADS + " 4");
             return;
         }
+        int threads = Integer.parseInt(options.containsKey(THREADS) ? options.get(THREADS) : "1");
+        boolean directWriting = WRITER_DIRECT.equals(options.get(WRITER));
+        int compressionThreads = options.containsKey(COMPRESSION_THREADS) ?
+                Integer.parseInt(options.get(COMPRESSION_THREADS)) : Runtime.getRuntime().availableProcessors();
+        int compressionLevel = options.containsKey(COMPRESSION_LEVEL) ?
+                Integer.parseInt(options.get(COMPRESSION_LEVEL)) : BlockCompressedOutputStream.getDefaultCompressionLevel();
+        boolean indexing = !options.containsKey(INDEX) || Boolean.parseBoolean(options.get(INDEX));
         query.put(VariantDBAdaptor.FILES, files);
         query.put(VariantDBAdaptor.STUDIES, studies);
+        if (options.containsKey(REGION) || options.containsKey(BED)) {
+            List<Region> regions = new ArrayList<>();
+            if (options.containsKey(REGION)) {
+                regions.addAll(ExportRegions.parseRegions(options.get(REGION)));
+            }
+            if (options.containsKey(BED)) {
+                regions.addAll(ExportRegions.readBed(Paths.get(options.get(BED))));
+            }
+            if (regions.isEmpty()) {
+                System.out.println("No regions to export");
+                return;
+            }
+            query.put(VariantDBAdaptor.REGION, ExportRegions.toQuery(ExportRegions.merge(regions)));
+        }
+        if (options.containsKey(SAMPLES)) {
+            query.put(VariantExporter.RETURNED_SAMPLES, Arrays.asList(options.get(SAMPLES).split(",")));
+        }
 
 
         VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
         VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(dbName, null);
-        VariantDBIterator iterator = variantDBAdaptor.iterator(query);
-        VariantSourceDBAdaptor variantSourceDBAdaptor = variantDBAdaptor.getVariantSourceDBAdaptor();
-        String url = (String) Config.getStorageProperties().get("CELLBASE.REST.URL");
-        String version = (String) Config.getStorageProperties().get("CELLBASE.VERSION");
-
 
-        CellBaseClient cellBaseClient = new CellBaseClient(new URI(url), version, species);
+        ReferenceSequenceProvider referenceSequenceProvider;
+        if (options.containsKey(FASTA)) {
+            referenceSequenceProvider = new IndexedFastaSequenceProvider(Paths.get(options.get(FASTA)));
+        } else {
+            String url = (String) Config.getStorageProperties().get("CELLBASE.REST.URL");
+            String version = (String) Config.getStorageProperties().get("CELLBASE.VERSION");
+            CellBaseClient cellBaseClient = new CellBaseClient(new URI(url), version, species);
+            referenceSequenceProvider = new CellBaseContextBaseResolver(cellBaseClient);
+        }
 
 
-        List<String> fileNames = new VariantExporter(cellBaseClient).VcfHtsExport(iterator, outputDir, variantSourceDBAdaptor, query);
+        List<String> fileNames;
+        if (options.containsKey(REGION_SIZE)) {
+            int regionSize = Integer.parseInt(options.get(REGION_SIZE));
+            List<String> chromosomes = options.containsKey(CHROMOSOMES) ?
+                    Arrays.asList(options.get(CHROMOSOMES).split(",")) : null;
+            RegionParallelExporter regionParallelExporter =
+                    new RegionParallelExporter(variantDBAdaptor, referenceSequenceProvider, threads, regionSize);
+            regionParallelExporter.setDirectWriting(directWriting);
+            regionParallelExporter.setCompressionLevel(compressionLevel);
+            regionParallelExporter.setIndexing(indexing);
+            fileNames = regionParallelExporter.VcfHtsExport(outputDir, query, chromosomes);
+        } else {
+            VariantDBIterator iterator = variantDBAdaptor.iterator(VariantExporter.getExportQueryOptions(query));
+            VariantSourceDBAdaptor variantSourceDBAdaptor = variantDBAdaptor.getVariantSourceDBAdaptor();
+            VariantExporter variantExporter = new VariantExporter(referenceSequenceProvider, threads);
+            variantExporter.setDirectWriting(directWriting);
+            variantExporter.setCompressionThreads(compressionThreads);
+            variantExporter.setCompressionLevel(compressionLevel);
+            variantExporter.setIndexing(indexing);
+            fileNames = variantExporter.VcfHtsExport(iterator, outputDir, variantSourceDBAdaptor, query);
+        }
     }
 }
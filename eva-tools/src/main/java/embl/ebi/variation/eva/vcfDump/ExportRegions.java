@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.opencb.biodata.models.feature.Region;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Regions of the genome to export, written as "chr:start-end" (1-based, both inclusive) or read from BED files
+ * (0-based start, exclusive end). A region without end goes to the end of the chromosome, and a chromosome alone is
+ * the whole chromosome.
+ *
+ * The regions are merged before being added to the query, so the database looks up every position once, and the
+ * variants come in the order of the regions.
+ */
+public final class ExportRegions {
+
+    private static final List<String> BED_HEADER_PREFIXES = Arrays.asList("#", "track", "browser");
+
+    private ExportRegions() {
+    }
+
+    /**
+     * @param regions comma separated regions, such as "1:1000-2000,2:500-600,X"
+     */
+    public static List<Region> parseRegions(String regions) {
+        return parseRegions(Arrays.asList(regions.split(",")));
+    }
+
+    public static List<Region> parseRegions(List<String> regions) {
+        List<Region> parsedRegions = new ArrayList<>(regions.size());
+        for (String region : regions) {
+            if (region.trim().isEmpty()) {
+                continue;
+            }
+            Region parsedRegion;
+            try {
+                parsedRegion = Region.parseRegion(region.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed region: " + region, e);
+            }
+            if (parsedRegion == null || parsedRegion.getChromosome().isEmpty()) {
+                throw new IllegalArgumentException("Malformed region: " + region);
+            }
+            if (parsedRegion.getStart() < 1) {
+                parsedRegion.setStart(1);
+            }
+            if (parsedRegion.getEnd() < parsedRegion.getStart()) {
+                throw new IllegalArgumentException("Malformed region " + region + ", it ends before its start");
+            }
+            parsedRegions.add(parsedRegion);
+        }
+        return parsedRegions;
+    }
+
+    /**
+     * Reads the first 3 columns of a BED file: chromosome, start and end. The header lines are skipped.
+     */
+    public static List<Region> readBed(Path bed) throws IOException {
+        List<Region> regions = new ArrayList<>();
+        BufferedReader reader = Files.newBufferedReader(bed, StandardCharsets.UTF_8);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || isBedHeader(line)) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 3) {
+                    throw new IOException("Malformed line in BED file " + bed + ": " + line);
+                }
+                int start;
+                int end;
+                try {
+                    start = Integer.parseInt(fields[1].trim()) + 1;
+                    end = Integer.parseInt(fields[2].trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed line in BED file " + bed + ": " + line, e);
+                }
+                if (end >= start) {
+                    regions.add(new Region(fields[0].trim(), start, end));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return regions;
+    }
+
+    private static boolean isBedHeader(String line) {
+        for (String prefix : BED_HEADER_PREFIXES) {
+            if (line.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorts the regions of each chromosome by start, and joins the ones that overlap or are contiguous. The chromosomes
+     * keep the order in which they first appear, as there is no order of chromosomes known here.
+     */
+    public static List<Region> merge(List<Region> regions) {
+        Map<String, List<Region>> regionsPerChromosome = new LinkedHashMap<>();
+        for (Region region : regions) {
+            List<Region> chromosomeRegions = regionsPerChromosome.get(region.getChromosome());
+            if (chromosomeRegions == null) {
+                chromosomeRegions = new ArrayList<>();
+                regionsPerChromosome.put(region.getChromosome(), chromosomeRegions);
+            }
+            chromosomeRegions.add(region);
+        }
+
+        List<Region> mergedRegions = new ArrayList<>();
+        for (List<Region> chromosomeRegions : regionsPerChromosome.values()) {
+            Collections.sort(chromosomeRegions, new Comparator<Region>() {
+                @Override
+                public int compare(Region region, Region other) {
+                    return Integer.compare(region.getStart(), other.getStart());
+                }
+            });
+            Region merged = null;
+            for (Region region : chromosomeRegions) {
+                if (merged != null && region.getStart() <= (long) merged.getEnd() + 1) {
+                    merged.setEnd(Math.max(merged.getEnd(), region.getEnd()));
+                } else {
+                    merged = new Region(region.getChromosome(), region.getStart(), region.getEnd());
+                    mergedRegions.add(merged);
+                }
+            }
+        }
+        return mergedRegions;
+    }
+
+    /**
+     * @return the regions as the variant adaptor expects them in {@link
+     * org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor#REGION}
+     */
+    public static List<String> toQuery(List<Region> regions) {
+        List<String> query = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            query.add(region.getChromosome() + ":" + region.getStart() + "-" + region.getEnd());
+        }
+        return query;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.opencb.biodata.models.variant.Variant;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the context bases from a local FASTA file, indexed with `samtools faidx`, so the export doesn't need CellBase.
+ *
+ * Each sequence of the FASTA is memory mapped the first time it is needed, and every lookup is then a read from the
+ * page cache. The index (.fai) gives, for every sequence, its length, the offset of its first base, and the number of
+ * bases and bytes in each line.
+ *
+ * Sequences are looked up by the chromosome name, and also with the "chr" prefix added or removed, as FASTA files and
+ * VCF files don't always follow the same naming.
+ */
+public class IndexedFastaSequenceProvider implements ReferenceSequenceProvider {
+
+    public static final String INDEX_EXTENSION = ".fai";
+
+    private static final String CHROMOSOME_PREFIX = "chr";
+
+    private final Path fasta;
+    private final Map<String, FastaIndexEntry> index;
+    private final ConcurrentMap<String, MappedByteBuffer> sequences;
+
+    /**
+     * @param fasta path to the FASTA file. Its index must be next to it, with the extension {@value #INDEX_EXTENSION}.
+     */
+    public IndexedFastaSequenceProvider(Path fasta) throws IOException {
+        this.fasta = fasta;
+        this.index = readIndex(Paths.get(fasta.toString() + INDEX_EXTENSION));
+        this.sequences = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the base at the position, in upper case, or null if the FASTA doesn't have it
+     */
+    @Override
+    public String getContextBase(String chromosome, int position) throws IOException {
+        FastaIndexEntry entry = getIndexEntry(chromosome);
+        if (entry == null || position < 1 || position > entry.length) {
+            return null;
+        }
+        MappedByteBuffer sequence = getSequence(entry);
+        int offset = (position - 1) / entry.lineBases * entry.lineWidth + (position - 1) % entry.lineBases;
+        return String.valueOf(Character.toUpperCase((char) sequence.get(offset)));
+    }
+
+    /**
+     * Nothing to prefetch, the lookups are local.
+     */
+    @Override
+    public void prefetch(Collection<Variant> variants) {
+    }
+
+    private FastaIndexEntry getIndexEntry(String chromosome) {
+        FastaIndexEntry entry = index.get(chromosome);
+        if (entry == null) {
+            if (chromosome.startsWith(CHROMOSOME_PREFIX)) {
+                entry = index.get(chromosome.substring(CHROMOSOME_PREFIX.length()));
+            } else {
+                entry = index.get(CHROMOSOME_PREFIX + chromosome);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Maps the bytes of a whole sequence, from its first base to its last one, including the line breaks.
+     */
+    private MappedByteBuffer getSequence(FastaIndexEntry entry) throws IOException {
+        MappedByteBuffer sequence = sequences.get(entry.name);
+        if (sequence == null) {
+            long size = (entry.length - 1) / entry.lineBases * entry.lineWidth + (entry.length - 1) % entry.lineBases + 1;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Sequence " + entry.name + " of " + fasta + " is too long to be mapped");
+            }
+            FileChannel channel = FileChannel.open(fasta, StandardOpenOption.READ);
+            try {
+                sequence = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, size);
+            } finally {
+                channel.close();
+            }
+            MappedByteBuffer previous = sequences.putIfAbsent(entry.name, sequence);
+            if (previous != null) {
+                sequence = previous;
+            }
+        }
+        return sequence;
+    }
+
+    private static Map<String, FastaIndexEntry> readIndex(Path fastaIndex) throws IOException {
+        Map<String, FastaIndexEntry> index = new HashMap<>();
+        BufferedReader reader = Files.newBufferedReader(fastaIndex, StandardCharsets.US_ASCII);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 5) {
+                    throw new IOException("Malformed line in FASTA index " + fastaIndex + ": " + line);
+                }
+                FastaIndexEntry entry = new FastaIndexEntry(fields[0], Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+                index.put(entry.name, entry);
+            }
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    private static class FastaIndexEntry {
+        private final String name;
+        private final long length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineWidth;
+
+        FastaIndexEntry(String name, long length, long offset, int lineBases, int lineWidth) {
+            this.name = name;
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexCreator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * BGZF output stream that compresses the blocks on a pool of threads, and writes them in order.
+ *
+ * The blocks are the same that htsjdk's BlockCompressedOutputStream writes: {@value
+ * BlockCompressedStreamConstants#DEFAULT_UNCOMPRESSED_BLOCK_SIZE} bytes each, stored without compression if they
+ * don't fit in a BGZF block once compressed, and a final empty block as terminator. So, with the same compression
+ * level, the files are byte identical. As there, {@link #flush} ends the current block.
+ *
+ * Only a few blocks per thread are compressed ahead of the file, so the memory used doesn't depend on how fast the
+ * data is written.
+ *
+ * The stream can also index what is written, given an IndexCreator and the features as they are written. The virtual
+ * offset of a feature is only known once the blocks before it are compressed, so the features wait in a queue until
+ * the block where they start is written, and are then added to the index in the same order.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelBlockCompressedOutputStream.class);
+
+    private static final int BLOCK_SIZE = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+    private static final int MAX_COMPRESSED_SIZE =
+            BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+
+    private final OutputStream outputStream;
+    private final int threads;
+    private final int compressionLevel;
+    private final ExecutorService executor;
+    private final Queue<Future<byte[]>> pendingBlocks;
+    private byte[] uncompressedBuffer;
+    private int numUncompressedBytes;
+    private boolean closed;
+
+    private IndexCreator indexCreator;
+    private Index index;
+    private final Queue<PendingFeature> pendingFeatures;
+    private long submittedBlocks;
+    private long writtenBlocks;
+    private long blockAddress;
+
+    /**
+     * @param threads number of blocks compressed at the same time
+     * @param compressionLevel from 0 (no compression) to 9 (best compression), as in {@link Deflater}
+     */
+    public ParallelBlockCompressedOutputStream(File file, int threads, int compressionLevel)
+            throws FileNotFoundException {
+        this(new FileOutputStream(file), threads, compressionLevel);
+    }
+
+    public ParallelBlockCompressedOutputStream(OutputStream outputStream, int threads, int compressionLevel) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive, but was " + threads);
+        }
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+        }
+        this.outputStream = new BufferedOutputStream(outputStream, BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE);
+        this.threads = threads;
+        this.compressionLevel = compressionLevel;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.pendingBlocks = new ArrayDeque<>();
+        this.uncompressedBuffer = new byte[BLOCK_SIZE];
+        this.numUncompressedBytes = 0;
+        this.closed = false;
+        this.pendingFeatures = new ArrayDeque<>();
+        this.submittedBlocks = 0;
+        this.writtenBlocks = 0;
+        this.blockAddress = 0;
+    }
+
+    /**
+     * Indexes the features given to {@link #addFeature} from now on. The index is finalized when the stream is closed.
+     */
+    public void setIndexCreator(IndexCreator indexCreator) {
+        this.indexCreator = indexCreator;
+    }
+
+    /**
+     * Adds to the index a feature that starts at the current position of the stream, that is, it must be called right
+     * before writing the feature. The features must be given in the order the IndexCreator expects, usually sorted by
+     * coordinate. If the IndexCreator rejects one, the indexing stops and {@link #getIndex} will return null.
+     */
+    public void addFeature(Feature feature) {
+        if (indexCreator != null) {
+            pendingFeatures.add(new PendingFeature(feature, submittedBlocks, numUncompressedBytes));
+        }
+    }
+
+    /**
+     * @return the index of the features, available after closing the stream, or null if nothing was indexed
+     */
+    public Index getIndex() {
+        return index;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int copied = Math.min(length, uncompressedBuffer.length - numUncompressedBytes);
+            System.arraycopy(bytes, offset, uncompressedBuffer, numUncompressedBytes, copied);
+            numUncompressedBytes += copied;
+            offset += copied;
+            length -= copied;
+            if (numUncompressedBytes == uncompressedBuffer.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Ends the current block, and waits until all the blocks are written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (numUncompressedBytes > 0) {
+            submitBlock();
+        }
+        while (!pendingBlocks.isEmpty()) {
+            writeBlock(pendingBlocks.poll());
+        }
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            if (indexCreator != null) {
+                // the features added after the last byte written start where the terminator block does
+                addPendingFeatures(Long.MAX_VALUE);
+                index = indexCreator.finalizeIndex(getVirtualOffset(blockAddress, 0));
+            }
+            outputStream.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+        } finally {
+            closed = true;
+            try {
+                executor.shutdownNow();
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] block = uncompressedBuffer;
+        final int blockLength = numUncompressedBytes;
+        submittedBlocks++;
+        pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compressBlock(block, blockLength, compressionLevel);
+            }
+        }));
+        uncompressedBuffer = new byte[BLOCK_SIZE];
+        numUncompressedBytes = 0;
+
+        if (pendingBlocks.size() >= threads * 2) {
+            writeBlock(pendingBlocks.poll());
+        }
+    }
+
+    private void writeBlock(Future<byte[]> block) throws IOException {
+        byte[] compressedBlock;
+        try {
+            compressedBlock = block.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("BGZF block compression interrupted", e);
+        }
+        addPendingFeatures(writtenBlocks);
+        outputStream.write(compressedBlock);
+        blockAddress += compressedBlock.length;
+        writtenBlocks++;
+    }
+
+    /**
+     * Adds to the index the pending features that start in the block that is about to be written, at `blockAddress`,
+     * or in any block before it.
+     */
+    private void addPendingFeatures(long block) {
+        while (!pendingFeatures.isEmpty() && pendingFeatures.peek().block <= block) {
+            PendingFeature pendingFeature = pendingFeatures.poll();
+            if (indexCreator == null) {
+                continue;
+            }
+            try {
+                indexCreator.addFeature(pendingFeature.feature,
+                        getVirtualOffset(blockAddress, pendingFeature.offset));
+            } catch (RuntimeException e) {
+                logger.warn("The output can't be indexed, the indexing will stop here", e);
+                indexCreator = null;
+                pendingFeatures.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the address of the block in the upper 48 bits, and the offset inside the uncompressed block in the lower 16
+     */
+    static long getVirtualOffset(long blockAddress, int offset) {
+        return blockAddress << 16 | offset;
+    }
+
+    /**
+     * @return the whole BGZF block: gzip header with the BC extra field, deflated data, CRC32 and uncompressed size
+     */
+    static byte[] compressBlock(byte[] block, int length, int compressionLevel) {
+        byte[] compressed = new byte[MAX_COMPRESSED_SIZE];
+        int compressedSize = deflate(block, length, compressed, compressionLevel);
+        if (compressedSize < 0) {
+            compressedSize = deflate(block, length, compressed, Deflater.NO_COMPRESSION);
+            if (compressedSize < 0) {
+                throw new IllegalStateException("A BGZF block of " + length + " bytes doesn't fit uncompressed");
+            }
+        }
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(block, 0, length);
+
+        int blockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + compressedSize
+                + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+        ByteBuffer gzipBlock = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        gzipBlock.put(BlockCompressedStreamConstants.GZIP_ID1)
+                .put((byte) BlockCompressedStreamConstants.GZIP_ID2)
+                .put(BlockCompressedStreamConstants.GZIP_CM_DEFLATE)
+                .put((byte) BlockCompressedStreamConstants.GZIP_FLG)
+                .putInt(0)  // modification time
+                .put((byte) BlockCompressedStreamConstants.GZIP_XFL)
+                .put((byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN)
+                .putShort(BlockCompressedStreamConstants.GZIP_XLEN)
+                .put(BlockCompressedStreamConstants.BGZF_ID1)
+                .put(BlockCompressedStreamConstants.BGZF_ID2)
+                .putShort(BlockCompressedStreamConstants.BGZF_LEN)
+                .putShort((short) (blockSize - 1))
+                .put(compressed, 0, compressedSize)
+                .putInt((int) crc32.getValue())
+                .putInt(length);
+        return gzipBlock.array();
+    }
+
+    /**
+     * @return the size of the deflated data, or -1 if it doesn't fit in `compressed`
+     */
+    private static int deflate(byte[] block, int length, byte[] compressed, int compressionLevel) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(block, 0, length);
+            deflater.finish();
+            int compressedSize = deflater.deflate(compressed, 0, compressed.length);
+            return deflater.finished() ? compressedSize : -1;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * A feature whose virtual offset is not known yet, because its block has not been written.
+     */
+    private static class PendingFeature {
+        private final Feature feature;
+        private final long block;
+        private final int offset;
+
+        PendingFeature(Feature feature, long block, int offset) {
+            this.feature = feature;
+            this.block = block;
+            this.offset = offset;
+        }
+    }
+}
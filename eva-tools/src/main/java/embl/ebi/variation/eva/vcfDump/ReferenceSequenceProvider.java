@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.opencb.biodata.models.variant.Variant;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Source of the reference bases that VariantExporter adds as context to the variants with empty alleles, such as
+ * normalized deletions. Implementations must be thread safe, as they are shared by the conversion threads.
+ */
+public interface ReferenceSequenceProvider {
+
+    /**
+     * @param position 1-based
+     * @return the reference base at the position, or null if it is not known
+     */
+    String getContextBase(String chromosome, int position) throws IOException;
+
+    /**
+     * Hint that the context bases of these variants will be requested soon, so that providers with slow lookups can
+     * retrieve them in advance.
+     */
+    void prefetch(Collection<Variant> variants) throws IOException;
+}
@@ -0,0 +1,634 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexCreator;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.variant.vcf.VCFHeader;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.cellbase.core.client.CellBaseClient;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Exports the requested studies splitting the genome in regions, so that several regions are queried, converted and
+ * written at the same time, each one with its own database cursor and VariantExporter. The provider of context bases
+ * is shared by all of them.
+ *
+ * Every region is written to its own BGZF part of each study's VCF. The parts are merged by copying their compressed
+ * blocks in coordinate order: the first part whole, and the rest without their header, so only the block where each
+ * header ends has to be decompressed. The empty blocks that terminate every part are also skipped, and a single one is
+ * written at the end of the merged file.
+ *
+ * The regions are built from the regions in the query, the chromosomes given, or the contigs in the VCF headers of the
+ * studies, split in regions of `regionSize` bases (if the length of the contig is known, for whole contigs). Only the
+ * variants of those regions are exported.
+ *
+ * The merge moves the records of every part to other virtual offsets. So when indexing, the features of each part are
+ * recorded with their virtual offsets while the part is written, and the merge adds them to the index of the merged
+ * file, moved to where their records are copied, without reading the merged file again.
+ */
+public class RegionParallelExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegionParallelExporter.class);
+
+    private static final String PART_DIRECTORY_PREFIX = "part";
+
+    private static final String FEATURES_SUFFIX = ".features";
+
+    private VariantDBAdaptor variantDBAdaptor;
+    private ReferenceSequenceProvider referenceSequenceProvider;
+    private int threads;
+    private int regionSize;
+    private boolean directWriting = false;
+    private int compressionLevel = BlockCompressedOutputStream.getDefaultCompressionLevel();
+    private boolean indexing = false;
+
+    /**
+     * Read only. Keeps track of the total failed variants across several dumps, as in VariantExporter.
+     */
+    private int failedVariants = 0;
+
+    /**
+     * @param variantDBAdaptor to open one iterator per region
+     * @param cellbaseClient for empty alleles. nullable.
+     * @param threads number of regions exported at the same time
+     * @param regionSize maximum length of each region, in bases
+     */
+    public RegionParallelExporter(VariantDBAdaptor variantDBAdaptor, CellBaseClient cellbaseClient, int threads,
+                                  int regionSize) {
+        this(variantDBAdaptor, cellbaseClient == null ? null : new CellBaseContextBaseResolver(cellbaseClient), threads,
+                regionSize);
+    }
+
+    /**
+     * @param referenceSequenceProvider for empty alleles. nullable.
+     */
+    public RegionParallelExporter(VariantDBAdaptor variantDBAdaptor,
+                                  ReferenceSequenceProvider referenceSequenceProvider, int threads, int regionSize) {
+        if (threads < 1 || regionSize < 1) {
+            throw new IllegalArgumentException("The number of threads and the region size must be positive");
+        }
+        this.variantDBAdaptor = variantDBAdaptor;
+        this.referenceSequenceProvider = referenceSequenceProvider;
+        this.threads = threads;
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * @see VariantExporter#setDirectWriting
+     */
+    public void setDirectWriting(boolean directWriting) {
+        this.directWriting = directWriting;
+    }
+
+    /**
+     * The blocks of each region are compressed by the thread exporting it, as the regions are already exported in
+     * parallel.
+     *
+     * @see VariantExporter#setCompressionLevel
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Writes a tabix index next to each merged file, with the extension .tbi.
+     */
+    public void setIndexing(boolean indexing) {
+        this.indexing = indexing;
+    }
+
+    /**
+     * Writes the same files as VariantExporter.VcfHtsExport, one per requested study.
+     *
+     * @param outputDir directory to write the output vcf(s) to
+     * @param options query of the variants, for studyId, fileId and optionally the regions to export
+     * @param chromosomes chromosomes to export, if the query has no regions. If null or empty, the contigs in the VCF
+     *                    headers are exported.
+     * @return list of files written, one per study.
+     */
+    public List<String> VcfHtsExport(String outputDir, final QueryOptions options, List<String> chromosomes)
+            throws IOException {
+        if (options.containsKey(VariantDBAdaptor.REGION) && chromosomes != null && !chromosomes.isEmpty()) {
+            throw new IllegalArgumentException("Either the regions or the chromosomes to export can be given, not both");
+        }
+        List<String> studyIds = options.getAsStringList(VariantDBAdaptor.STUDIES);
+        final Map<String, VariantSource> sources =
+                VariantExporter.getSources(variantDBAdaptor.getVariantSourceDBAdaptor(), options);
+        final Map<String, VCFHeader> headers =
+                VariantExporter.getVcfHeaders(sources, options.getAsStringList(VariantExporter.RETURNED_SAMPLES));
+        List<RegionPart> regions = getRegions(headers, options, chromosomes);
+        logger.info("Exporting {} regions with {} threads", regions.size(), threads);
+
+        Path partsDir = Files.createTempDirectory(Paths.get(outputDir), "export");
+        try {
+            List<Path> partDirs = new ArrayList<>(regions.size());
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<Integer>> exports = new ArrayList<>(regions.size());
+            for (int i = 0; i < regions.size(); i++) {
+                final RegionPart region = regions.get(i);
+                final Path partDir = partsDir.resolve(String.format("%s%04d", PART_DIRECTORY_PREFIX, i));
+                partDirs.add(partDir);
+                exports.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        return exportRegion(region, partDir, options, sources, headers);
+                    }
+                }));
+            }
+
+            int failedVariants = 0;
+            try {
+                for (Future<Integer> export : exports) {
+                    failedVariants += export.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Region export failed", e);
+            } finally {
+                executor.shutdownNow();
+            }
+            if (failedVariants > 0) {
+                logger.warn(failedVariants + " variants were not written due to errors");
+            }
+            this.failedVariants += failedVariants;
+
+            List<String> files = new ArrayList<>();
+            for (String studyId : studyIds) {
+                String fileName = studyId + VariantExporter.EXPORTED_SUFFIX;
+                List<Path> parts = new ArrayList<>(partDirs.size());
+                for (Path partDir : partDirs) {
+                    parts.add(partDir.resolve(fileName));
+                }
+                Path output = Paths.get(outputDir).resolve(fileName);
+                IndexCreator indexCreator = indexing ? new TabixIndexCreator(TabixFormat.VCF) : null;
+                Index index = mergeParts(parts, output, compressionLevel, indexCreator);
+                if (index != null) {
+                    index.writeBasedOnFeatureFile(output.toFile());
+                } else if (indexing) {
+                    logger.warn("The index of " + output + " could not be built, the file is written without index");
+                }
+                files.add(output.toString());
+            }
+            return files;
+        } finally {
+            deleteParts(partsDir);
+        }
+    }
+
+    public int getFailedVariants() {
+        return failedVariants;
+    }
+
+    /**
+     * @return number of variants of the region that could not be converted
+     */
+    private int exportRegion(RegionPart region, Path partDir, QueryOptions options, Map<String, VariantSource> sources,
+                             Map<String, VCFHeader> headers) throws IOException {
+        QueryOptions regionOptions = new QueryOptions(options);
+        regionOptions.put(VariantDBAdaptor.REGION, ExportRegions.toQuery(Collections.singletonList(region.query)));
+        Files.createDirectory(partDir);
+
+        // the writers of each region use their own copy of the headers
+        Map<String, VCFHeader> regionHeaders = new TreeMap<>();
+        for (Map.Entry<String, VCFHeader> header : headers.entrySet()) {
+            regionHeaders.put(header.getKey(), new VCFHeader(header.getValue().getMetaDataInInputOrder(),
+                    header.getValue().getGenotypeSamples()));
+        }
+
+        Iterator<Variant> iterator = new RegionStartIterator(
+                variantDBAdaptor.iterator(VariantExporter.getExportQueryOptions(regionOptions)), region.starts);
+        VariantExporter variantExporter = new VariantExporter(referenceSequenceProvider, 1) {
+            @Override
+            IndexCreator newIndexCreator(File file) throws IOException {
+                return new FeatureRecorder(getFeaturesPath(file.toPath()));
+            }
+        };
+        variantExporter.setDirectWriting(directWriting);
+        variantExporter.setCompressionLevel(compressionLevel);
+        variantExporter.setIndexing(indexing);
+        variantExporter.VcfHtsExport(iterator, partDir.toString(), sources, regionHeaders, regionOptions);
+        return variantExporter.getFailedVariants();
+    }
+
+    /**
+     * Deletes the directory of the parts with everything in it. A part that can't be deleted is only logged, so that
+     * it doesn't hide the result of the export.
+     */
+    private static void deleteParts(Path partsDir) {
+        try {
+            Files.walkFileTree(partsDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    Files.delete(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Could not delete the parts in " + partsDir, e);
+        }
+    }
+
+    /**
+     * The regions of each chromosome follow the order of the contigs in the headers (or of `chromosomes`, or of the
+     * regions in the query), and the last region of a whole chromosome is open ended, in case some variant lies beyond
+     * the length in the header.
+     *
+     * The regions in the query are merged, and every one is split in parts. The first part of each region also keeps
+     * the variants that start before the region and overlap it, as a query of the whole region would return them,
+     * unless they overlap the previous region too.
+     */
+    List<RegionPart> getRegions(Map<String, VCFHeader> headers, QueryOptions options, List<String> chromosomes) {
+        Map<String, Integer> lengths = new LinkedHashMap<>();
+        for (VCFHeader header : headers.values()) {
+            SAMSequenceDictionary sequenceDictionary;
+            try {
+                sequenceDictionary = header.getSequenceDictionary();
+            } catch (Exception e) {
+                sequenceDictionary = null;
+            }
+            if (sequenceDictionary != null) {
+                for (SAMSequenceRecord sequence : sequenceDictionary.getSequences()) {
+                    Integer length = lengths.get(sequence.getSequenceName());
+                    if (length == null || length < sequence.getSequenceLength()) {
+                        lengths.put(sequence.getSequenceName(), sequence.getSequenceLength());
+                    }
+                }
+            }
+        }
+
+        List<Region> requestedRegions;
+        if (options.containsKey(VariantDBAdaptor.REGION)) {
+            requestedRegions = ExportRegions.merge(
+                    ExportRegions.parseRegions(options.getAsStringList(VariantDBAdaptor.REGION)));
+        } else {
+            if (chromosomes == null || chromosomes.isEmpty()) {
+                chromosomes = new ArrayList<>(lengths.keySet());
+                if (chromosomes.isEmpty()) {
+                    throw new IllegalArgumentException("The headers of the studies don't have any contig, the "
+                            + "chromosomes to export must be provided");
+                }
+            }
+            requestedRegions = new ArrayList<>();
+            for (String chromosome : new LinkedHashSet<>(chromosomes)) {
+                requestedRegions.add(new Region(chromosome, 1, Integer.MAX_VALUE));
+            }
+        }
+
+        List<RegionPart> regions = new ArrayList<>();
+        Region previousRegion = null;
+        for (Region requestedRegion : requestedRegions) {
+            String chromosome = requestedRegion.getChromosome();
+            int end = requestedRegion.getEnd();
+            int limit = end;
+            if (end == Integer.MAX_VALUE) {
+                Integer length = lengths.get(chromosome);
+                limit = length == null ? 0 : length;
+            }
+            int firstStart = previousRegion != null && previousRegion.getChromosome().equals(chromosome) ?
+                    previousRegion.getEnd() + 1 : 1;
+            int start = requestedRegion.getStart();
+            for (; start + regionSize <= limit; start += regionSize) {
+                regions.add(new RegionPart(chromosome, start, start + regionSize - 1, firstStart));
+                firstStart = start + regionSize;
+            }
+            regions.add(new RegionPart(chromosome, start, end, firstStart));
+            previousRegion = requestedRegion;
+        }
+        return regions;
+    }
+
+    /**
+     * Concatenates the BGZF blocks of the parts, skipping the header of every part but the first one, and the empty
+     * terminating block of all of them. The merged file gets a single terminating block.
+     *
+     * The header of a part may end in the middle of a block, so the records that share a block with the end of the
+     * header are compressed again in a new block. The rest of the blocks are copied without decompressing them.
+     *
+     * @param indexCreator nullable. If given, the features recorded while writing the parts are added to it, see
+     *                     {@link FeatureRecorder}
+     * @return the index of the merged file, or null if there is no IndexCreator or some part could not be indexed
+     */
+    static Index mergeParts(List<Path> parts, Path output, int compressionLevel, IndexCreator indexCreator)
+            throws IOException {
+        FileChannel outputChannel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            for (int i = 0; i < parts.size(); i++) {
+                Path part = parts.get(i);
+                long headerEnd = 0;
+                long start = 0;
+                long firstRecordsAddress = outputChannel.position();
+                if (i > 0) {
+                    ByteArrayOutputStream firstRecords = new ByteArrayOutputStream();
+                    PartHeader header = skipHeader(part, firstRecords);
+                    headerEnd = header.end;
+                    start = header.nextBlockAddress;
+                    write(outputChannel, compress(firstRecords.toByteArray(), compressionLevel));
+                }
+                long end = Files.size(part);
+                if (isTerminated(part)) {
+                    end -= BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+                }
+                long copyAddress = outputChannel.position();
+                FileChannel partChannel = FileChannel.open(part, StandardOpenOption.READ);
+                try {
+                    long position = start;
+                    while (position < end) {
+                        position += partChannel.transferTo(position, end - position, outputChannel);
+                    }
+                } finally {
+                    partChannel.close();
+                }
+
+                if (indexCreator != null) {
+                    try {
+                        addFeatures(getFeaturesPath(part), indexCreator, headerEnd, start, firstRecordsAddress,
+                                copyAddress);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("The features of " + part + " can't be indexed, the indexing will stop here", e);
+                        indexCreator = null;
+                    }
+                }
+            }
+            Index index = indexCreator == null ? null : indexCreator.finalizeIndex(
+                    ParallelBlockCompressedOutputStream.getVirtualOffset(outputChannel.position(), 0));
+            write(outputChannel, BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            return index;
+        } finally {
+            outputChannel.close();
+        }
+    }
+
+    /**
+     * Adds to the index the features recorded while writing a part, moved to the virtual offsets of their records in
+     * the merged file. The records in the block where the header ends (before `start`) were compressed again in a
+     * single block at `firstRecordsAddress`, and the blocks from `start` on were copied to `copyAddress`, so the
+     * records in them keep their offset inside the block.
+     *
+     * @param headerEnd virtual offset of the end of the header in the part, 0 if the header was copied too
+     */
+    private static void addFeatures(Path features, IndexCreator indexCreator, long headerEnd, long start,
+                                    long firstRecordsAddress, long copyAddress) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(features)));
+        try {
+            while (input.readBoolean()) {
+                Feature feature = new SimpleFeature(input.readUTF(), input.readInt(), input.readInt());
+                long virtualOffset = input.readLong();
+                long blockAddress = BlockCompressedFilePointerUtil.getBlockAddress(virtualOffset);
+                int blockOffset = BlockCompressedFilePointerUtil.getBlockOffset(virtualOffset);
+                if (blockAddress < start) {
+                    blockAddress = firstRecordsAddress;
+                    blockOffset -= BlockCompressedFilePointerUtil.getBlockOffset(headerEnd);
+                } else {
+                    blockAddress += copyAddress - start;
+                }
+                indexCreator.addFeature(feature,
+                        ParallelBlockCompressedOutputStream.getVirtualOffset(blockAddress, blockOffset));
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    static Path getFeaturesPath(Path part) {
+        return Paths.get(part + FEATURES_SUFFIX);
+    }
+
+    /**
+     * Reads the header of a part, and then the rest of the block where the header ends.
+     *
+     * @param firstRecords where the uncompressed rest of the block is written
+     */
+    private static PartHeader skipHeader(Path part, OutputStream firstRecords) throws IOException {
+        BlockCompressedInputStream input = new BlockCompressedInputStream(part.toFile());
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (line.startsWith("#CHROM")) {
+                    long headerEnd = input.getFilePointer();
+                    long filePointer = headerEnd;
+                    while (BlockCompressedFilePointerUtil.getBlockOffset(filePointer) != 0) {
+                        int nextByte = input.read();
+                        if (nextByte < 0) {
+                            return new PartHeader(headerEnd, Files.size(part));
+                        }
+                        firstRecords.write(nextByte);
+                        filePointer = input.getFilePointer();
+                    }
+                    return new PartHeader(headerEnd, BlockCompressedFilePointerUtil.getBlockAddress(filePointer));
+                }
+            }
+        } finally {
+            input.close();
+        }
+        throw new IOException("Missing header line #CHROM in " + part);
+    }
+
+    /**
+     * @return the BGZF blocks with the data, without terminating block
+     */
+    private static byte[] compress(byte[] data, int compressionLevel) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        if (data.length > 0) {
+            BlockCompressedOutputStream blockCompressedStream =
+                    new BlockCompressedOutputStream(compressed, null, compressionLevel);
+            blockCompressedStream.write(data);
+            blockCompressedStream.flush();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void write(FileChannel channel, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static boolean isTerminated(Path part) throws IOException {
+        byte[] terminator = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+        long size = Files.size(part);
+        if (size < terminator.length) {
+            return false;
+        }
+        ByteBuffer tail = ByteBuffer.allocate(terminator.length);
+        FileChannel channel = FileChannel.open(part, StandardOpenOption.READ);
+        try {
+            channel.position(size - terminator.length);
+            while (tail.hasRemaining()) {
+                if (channel.read(tail) < 0) {
+                    return false;
+                }
+            }
+        } finally {
+            channel.close();
+        }
+        return Arrays.equals(terminator, tail.array());
+    }
+
+    /**
+     * Where the header of a part ends.
+     */
+    private static class PartHeader {
+        /**
+         * Virtual offset of the end of the header
+         */
+        private final long end;
+
+        /**
+         * Address of the first BGZF block after the one where the header ends
+         */
+        private final long nextBlockAddress;
+
+        PartHeader(long end, long nextBlockAddress) {
+            this.end = end;
+            this.nextBlockAddress = nextBlockAddress;
+        }
+    }
+
+    /**
+     * Builds the tabix index of a part as usual, and also writes every feature with its virtual offset to `features`,
+     * so that the merge can index the features again at their offsets in the merged file. The features are preceded
+     * by `true` and followed by `false` when the index is finalized, so a part whose indexing was stopped is detected.
+     */
+    private static class FeatureRecorder extends TabixIndexCreator {
+
+        private final DataOutputStream features;
+
+        FeatureRecorder(Path features) throws IOException {
+            super(TabixFormat.VCF);
+            this.features = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(features)));
+        }
+
+        @Override
+        public void addFeature(Feature feature, long filePosition) {
+            super.addFeature(feature, filePosition);
+            try {
+                features.writeBoolean(true);
+                features.writeUTF(feature.getChr());
+                features.writeInt(feature.getStart());
+                features.writeInt(feature.getEnd());
+                features.writeLong(filePosition);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not record the feature " + feature, e);
+            }
+        }
+
+        @Override
+        public Index finalizeIndex(long finalFilePosition) {
+            try {
+                features.writeBoolean(false);
+                features.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not record the features", e);
+            }
+            return super.finalizeIndex(finalFilePosition);
+        }
+    }
+
+    /**
+     * A part of a region to export: the variants that overlap `query` are read, and the ones that start in `starts`
+     * are written.
+     */
+    static class RegionPart {
+        private final Region query;
+        private final Region starts;
+
+        RegionPart(String chromosome, int start, int end, int firstStart) {
+            this.query = new Region(chromosome, start, end);
+            this.starts = new Region(chromosome, firstStart, end);
+        }
+    }
+
+    /**
+     * The region query returns the variants that overlap the region, so a long variant could be found in two
+     * consecutive regions. Only the variants that start in the region are kept, to write each of them once.
+     */
+    private static class RegionStartIterator implements Iterator<Variant> {
+
+        private Iterator<Variant> iterator;
+        private Region region;
+        private Variant next;
+
+        RegionStartIterator(Iterator<Variant> iterator, Region region) {
+            this.iterator = iterator;
+            this.region = region;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && iterator.hasNext()) {
+                Variant variant = iterator.next();
+                if (variant.getStart() >= region.getStart() && variant.getStart() <= region.getEnd()) {
+                    next = variant;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Variant next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Variant variant = next;
+            advance();
+            return variant;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -16,9 +16,17 @@
 package embl.ebi.variation.eva.vcfDump;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.Feature;
 import htsjdk.tribble.FeatureCodecHeader;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexCreator;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.variant.variantcontext.*;
+import htsjdk.variant.variantcontext.writer.AsyncVariantContextWriter;
 import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
@@ -26,13 +34,9 @@ import htsjdk.variant.vcf.VCFCodec;
 import htsjdk.variant.vcf.VCFFilterHeaderLine;
 import htsjdk.variant.vcf.VCFHeader;
 import org.apache.commons.lang.StringUtils;
-import org.opencb.biodata.models.feature.Region;
 import org.opencb.biodata.models.variant.*;
 import org.opencb.cellbase.core.client.CellBaseClient;
-import org.opencb.cellbase.core.common.GenomeSequenceFeature;
 import org.opencb.datastore.core.QueryOptions;
-import org.opencb.datastore.core.QueryResponse;
-import org.opencb.datastore.core.QueryResult;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.DBObjectToVariantSourceConverter;
@@ -42,8 +46,11 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by jmmut on 2015-10-28.
@@ -54,7 +61,56 @@ public class VariantExporter {
 
     private static final Logger logger = LoggerFactory.getLogger(VariantExporter.class);
 
-    private CellBaseClient cellbaseClient;
+    /**
+     * Number of variants converted at once by each thread in a parallel export.
+     */
+    public static final int CONVERSION_BATCH_SIZE = 1000;
+
+    public static final String EXPORTED_SUFFIX = ".exported.vcf.gz";
+
+    /**
+     * Option of the export: samples to write, in this order, in the studies that have them. All by default.
+     */
+    public static final String RETURNED_SAMPLES = "returnedSamples";
+
+    /**
+     * Query options of the variant adaptor: fields of the documents not to be returned, and number of documents
+     * returned by each round trip of the cursor.
+     */
+    public static final String EXCLUDE = "exclude";
+    public static final String BATCH_SIZE = "batchSize";
+
+    /**
+     * Fields of the variants that are never written to the VCF.
+     */
+    public static final List<String> UNUSED_FIELDS = Arrays.asList("annotation", "sourceEntries.cohortStats");
+
+    /**
+     * Maximum number of distinct GTs kept parsed. There are usually just a handful, such as "0|0", "0|1" or "1|1".
+     */
+    private static final int MAX_PARSED_GENOTYPES = 1000;
+
+    private static final ThreadLocal<GenotypeBuilder> genotypeBuilders = new ThreadLocal<GenotypeBuilder>() {
+        @Override
+        protected GenotypeBuilder initialValue() {
+            return new GenotypeBuilder();
+        }
+    };
+
+    /**
+     * Initial size of the buffers where a batch of lines of a study is rendered, when writing VCF text directly.
+     */
+    private static final int LINE_BUFFER_SIZE = 1 << 20;
+
+    private static final ConcurrentMap<String, org.opencb.biodata.models.feature.Genotype> parsedGenotypes =
+            new ConcurrentHashMap<>();
+
+    private ReferenceSequenceProvider referenceSequenceProvider;
+    private int threads;
+    private boolean directWriting = false;
+    private int compressionThreads = 1;
+    private int compressionLevel = BlockCompressedOutputStream.getDefaultCompressionLevel();
+    private boolean indexing = false;
     /**
      * Read only. Keeps track of the total failed variants across several dumps. To accumulate, use the same instance of
      * VariantExporter to dump several VCFs. If you just want to count on one dump, use a `new VariantExporter` each time.
@@ -72,7 +128,72 @@ public class VariantExporter {
      * @param cellbaseClient for empty alleles. nullable.
      */
     public VariantExporter(CellBaseClient cellbaseClient) {
-        this.cellbaseClient = cellbaseClient;
+        this(cellbaseClient, 1);
+    }
+
+    /**
+     * With more than one thread, the variants are converted in batches by a pool of `threads` workers, and each study
+     * is written by its own thread, which takes the converted variants from a bounded queue. The variants are still
+     * written in the same order they are read.
+     *
+     * @param cellbaseClient for empty alleles. nullable.
+     * @param threads number of threads converting the variants. 1 converts and writes everything in the calling thread.
+     */
+    public VariantExporter(CellBaseClient cellbaseClient, int threads) {
+        this(cellbaseClient == null ? null : new CellBaseContextBaseResolver(cellbaseClient), threads);
+    }
+
+    /**
+     * @param referenceSequenceProvider for empty alleles, such as a CellBaseContextBaseResolver or an
+     *                                  IndexedFastaSequenceProvider. It may be shared with other exporters. nullable.
+     * @param threads number of threads converting the variants. 1 converts and writes everything in the calling thread.
+     */
+    public VariantExporter(ReferenceSequenceProvider referenceSequenceProvider, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive, but was " + threads);
+        }
+        this.referenceSequenceProvider = referenceSequenceProvider;
+        this.threads = threads;
+    }
+
+    /**
+     * By default the variants are converted to htsjdk VariantContexts and written with VCFWriter. With direct writing
+     * the VCF lines are rendered straight from the variants into reused buffers, which are then written to the BGZF
+     * streams.
+     * Both ways write the same bytes.
+     */
+    public void setDirectWriting(boolean directWriting) {
+        this.directWriting = directWriting;
+    }
+
+    /**
+     * @param compressionThreads number of BGZF blocks of each file compressed at the same time. With 1, the blocks
+     *                           are compressed by the thread writing the file.
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive, but was " + compressionThreads);
+        }
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * @param compressionLevel from 0 (no compression) to 9 (best compression). The default is htsjdk's.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Writes a tabix index next to each file, with the extension .tbi. The index is built while the file is written,
+     * from the virtual offsets of the records in the BGZF stream, so the file is not read again. The variants must come
+     * sorted by chromosome and position; otherwise the file is written anyway, without index.
+     *
+     * The indexed files are always compressed with a ParallelBlockCompressedOutputStream, even with 1 compression
+     * thread.
+     */
+    public void setIndexing(boolean indexing) {
+        this.indexing = indexing;
     }
 
     /**
@@ -82,89 +203,267 @@ public class VariantExporter {
      * @param iterator where to get the variants from
      * @param outputDir directory to write the output vcf(s) to
      * @param sourceDBAdaptor to retrieve all the VariantSources in any VariantSourceEntry
-     * @param options not implemented yet, use only for studyId and fileId
+     * @param options not implemented yet, use only for studyId, fileId and {@link #RETURNED_SAMPLES}
      * @return list of files written, one per study.
      */
     public List<String> VcfHtsExport(Iterator<Variant> iterator, String outputDir,
                                      VariantSourceDBAdaptor sourceDBAdaptor, QueryOptions options) throws IOException {
 
-        // 3 steps to get the headers of all the studyIds: ask the sourceAdaptor for VariantSources, check we got everything, build the headers.
-        List<String> studyIds = options.getAsStringList(VariantDBAdaptor.STUDIES);
+        // 2 steps to get the headers of all the studyIds: ask the sourceAdaptor for VariantSources, build the headers.
+        // 1) retrieve the sources, checking that sourceDBAdaptor got all the studyIds
+        Map<String, VariantSource> sources = getSources(sourceDBAdaptor, options);
 
-        // 1) retrieve the sources
-        Map<String, VariantSource> sources = new TreeMap<>();
-        List<VariantSource> sourcesList = sourceDBAdaptor.getAllSourcesByStudyIds(studyIds, options).getResult();
-        for (VariantSource variantSource : sourcesList) {
-            sources.put(variantSource.getStudyId(), variantSource);
-        }
+        // 2) check and get the headers, one for each source, only with the requested samples
+        Map<String, VCFHeader> headers = getVcfHeaders(sources, options.getAsStringList(RETURNED_SAMPLES));
 
-        // 2) check that sourceDBAdaptor got all the studyIds
-        for (String studyId : studyIds) {
-            if (!sources.containsKey(studyId)) {
-                throw new IllegalArgumentException("Aborting VCF export: missing header for study " + studyId);
-            }
-        }
+        return VcfHtsExport(iterator, outputDir, sources, headers, options);
+    }
 
-        // 3) check and get the headers, one for each source
-        Map<String, VCFHeader> headers = getVcfHeaders(sources);
+    /**
+     * Same as {@link #VcfHtsExport(Iterator, String, VariantSourceDBAdaptor, QueryOptions)}, with the sources and
+     * headers already retrieved, as returned by {@link #getSources} and {@link #getVcfHeaders(Map, List)}. The headers
+     * are used by the writers, so they can't be shared with other exports running at the same time.
+     */
+    List<String> VcfHtsExport(Iterator<Variant> iterator, String outputDir, Map<String, VariantSource> sources,
+                              Map<String, VCFHeader> headers, QueryOptions options) throws IOException {
+        List<String> studyIds = options.getAsStringList(VariantDBAdaptor.STUDIES);
+        List<String> returnedSamples = options.getAsStringList(RETURNED_SAMPLES);
+        Map<String, Set<String>> selectedSamples = returnedSamples.isEmpty() ? null : getSamplesPerStudy(headers);
 
         // from here we grant that `headers` have all the headers requested in `studyIds`
 
-        String suffix = ".exported.vcf.gz";
         List<String> files = new ArrayList<>();
-        Map<String, VariantContextWriter> writers = new TreeMap<>();
-
-        // setup writers
+        Map<String, File> outFiles = new TreeMap<>();
         for (String studyId : studyIds) {
-            VariantContextWriterBuilder builder = new VariantContextWriterBuilder();
-            File outFile = Paths.get(outputDir).resolve(studyId + suffix).toFile();
+            File outFile = Paths.get(outputDir).resolve(studyId + EXPORTED_SUFFIX).toFile();
             files.add(outFile.getPath());
-            SAMSequenceDictionary sequenceDictionary;
-            try {
-                sequenceDictionary = headers.get(studyId).getSequenceDictionary();
-            } catch (Exception e) {
-                sequenceDictionary = null;
-            }
-            VariantContextWriter writer = builder
-                    .setOutputFile(outFile)
-                    .setReferenceDictionary(sequenceDictionary)
-                    .unsetOption(Options.INDEX_ON_THE_FLY)
-                    .build();
-            writers.put(studyId, writer);
-            writer.writeHeader(headers.get(studyId));
+            outFiles.put(studyId, outFile);
         }
 
+        // setup writers
+        Output<?> output = directWriting ? new TextOutput(outFiles, headers, sources, selectedSamples)
+                : new HtsOutput(outFiles, headers, sources, selectedSamples);
+
         logger.info("Exporting to files: [" + StringUtils.join(files, " ") + "]");
 
         // actual loop
+        int failedVariants;
+        try {
+            failedVariants = export(iterator, output);
+        } finally {
+            output.close();
+        }
+
+        if (failedVariants > 0) {
+            logger.warn(failedVariants + " variants were not written due to errors");
+        }
+        this.failedVariants += failedVariants;
+
+        return files;
+    }
+
+    private <T> int export(Iterator<Variant> iterator, Output<T> output) throws IOException {
+        if (threads > 1) {
+            return exportInParallel(iterator, output);
+        }
         int failedVariants = 0;
         while (iterator.hasNext()) {
-            Variant variant = iterator.next();
-            try {
-                Map<String, VariantContext> variantContexts = convertBiodataVariantToVariantContext(variant, sources);
-                for (Map.Entry<String, VariantContext> variantContextEntry : variantContexts.entrySet()) {
-                    if (writers.containsKey(variantContextEntry.getKey())) {
-                        writers.get(variantContextEntry.getKey()).add(variantContextEntry.getValue());
+            failedVariants += output.write(output.convert(readBatch(iterator)));
+        }
+        return failedVariants;
+    }
+
+    /**
+     * Converts the variants in batches on a pool of threads, while the calling thread keeps reading from `iterator`.
+     * The batches are handed to the writers in the order they were read, and only a few batches are converted ahead
+     * of the writers, so the memory used does not depend on how fast the writers are.
+     *
+     * @return number of variants that could not be converted
+     */
+    private <T> int exportInParallel(Iterator<Variant> iterator, final Output<T> output) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Queue<Future<T>> pendingBatches = new ArrayDeque<>();
+        int failedVariants = 0;
+        try {
+            while (iterator.hasNext()) {
+                final List<Variant> batch = readBatch(iterator);
+                pendingBatches.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() {
+                        return output.convert(batch);
                     }
+                }));
+                if (pendingBatches.size() >= threads * 2) {
+                    failedVariants += output.write(pendingBatches.poll().get());
                 }
+            }
+            while (!pendingBatches.isEmpty()) {
+                failedVariants += output.write(pendingBatches.poll().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Variant conversion interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return failedVariants;
+    }
+
+    private List<Variant> readBatch(Iterator<Variant> iterator) {
+        List<Variant> batch = new ArrayList<>(CONVERSION_BATCH_SIZE);
+        while (iterator.hasNext() && batch.size() < CONVERSION_BATCH_SIZE) {
+            batch.add(iterator.next());
+        }
+        return batch;
+    }
+
+    /**
+     * The context bases needed by the batch are retrieved in advance, with a few requests for the whole batch.
+     *
+     * @return one map of VariantContexts per variant of the batch, or null if the variant could not be converted
+     */
+    private List<Map<String, VariantContext>> convertBatch(List<Variant> batch, Map<String, VariantSource> sources,
+                                                           Map<String, Set<String>> selectedSamples) {
+        prefetch(batch);
+        List<Map<String, VariantContext>> variantContexts = new ArrayList<>(batch.size());
+        for (Variant variant : batch) {
+            try {
+                variantContexts.add(convertBiodataVariantToVariantContext(variant, sources, selectedSamples));
             } catch (Exception e) {
-                logger.info(String.format("Variant dump failed: \"%s:%d:%s>%s\"", variant.getChromosome(),
-                                variant.getStart(), variant.getReference(), variant.getAlternate()),
-                        e);
+                logFailedVariant(variant, e);
+                variantContexts.add(null);
+            }
+        }
+        return variantContexts;
+    }
+
+    /**
+     * @return number of variants that could not be converted (the nulls in the batch)
+     */
+    private int write(List<Map<String, VariantContext>> batch, Map<String, VariantContextWriter> writers) {
+        int failedVariants = 0;
+        for (Map<String, VariantContext> variantContexts : batch) {
+            if (variantContexts == null) {
                 failedVariants++;
+            } else {
+                write(variantContexts, writers);
             }
         }
+        return failedVariants;
+    }
 
-        if (failedVariants > 0) {
-            logger.warn(failedVariants + " variants were not written due to errors");
+    private void write(Map<String, VariantContext> variantContexts, Map<String, VariantContextWriter> writers) {
+        for (Map.Entry<String, VariantContext> variantContextEntry : variantContexts.entrySet()) {
+            if (writers.containsKey(variantContextEntry.getKey())) {
+                writers.get(variantContextEntry.getKey()).add(variantContextEntry.getValue());
+            }
         }
-        this.failedVariants += failedVariants;
+    }
 
-        for (VariantContextWriter variantContextWriter : writers.values()) {
-            variantContextWriter.close();
+    /**
+     * @return a BGZF stream, compressed by a pool of threads if {@link #setCompressionThreads} was more than 1. When
+     * indexing, it is always a ParallelBlockCompressedOutputStream with a tabix IndexCreator.
+     */
+    private OutputStream openOutputStream(File file) throws IOException {
+        if (indexing) {
+            ParallelBlockCompressedOutputStream outputStream =
+                    new ParallelBlockCompressedOutputStream(file, compressionThreads, compressionLevel);
+            outputStream.setIndexCreator(newIndexCreator(file));
+            return outputStream;
+        } else if (compressionThreads > 1) {
+            return new ParallelBlockCompressedOutputStream(file, compressionThreads, compressionLevel);
+        } else {
+            return new BlockCompressedOutputStream(file, compressionLevel);
         }
+    }
 
-        return files;
+    /**
+     * @return the IndexCreator of a file written when indexing, a tabix one by default
+     */
+    IndexCreator newIndexCreator(File file) throws IOException {
+        return new TabixIndexCreator(TabixFormat.VCF);
+    }
+
+    /**
+     * Writes the index built by a closed stream next to its file.
+     */
+    private void writeIndex(ParallelBlockCompressedOutputStream outputStream, File file) throws IOException {
+        Index index = outputStream.getIndex();
+        if (index == null) {
+            logger.warn("The index of " + file + " could not be built, the file is written without index");
+        } else {
+            index.writeBasedOnFeatureFile(file);
+        }
+    }
+
+    private void prefetch(List<Variant> batch) {
+        if (referenceSequenceProvider != null) {
+            try {
+                referenceSequenceProvider.prefetch(batch);
+            } catch (IOException e) {
+                logger.warn("Could not prefetch the context bases, they will be retrieved one by one", e);
+            }
+        }
+    }
+
+    private void logFailedVariant(Variant variant, Exception e) {
+        logger.info(String.format("Variant dump failed: \"%s:%d:%s>%s\"", variant.getChromosome(),
+                        variant.getStart(), variant.getReference(), variant.getAlternate()),
+                e);
+    }
+
+    /**
+     * @return the source of each requested study, by study id
+     * @throws IllegalArgumentException if the source of some study is missing
+     */
+    static Map<String, VariantSource> getSources(VariantSourceDBAdaptor sourceDBAdaptor, QueryOptions options) {
+        List<String> studyIds = options.getAsStringList(VariantDBAdaptor.STUDIES);
+        Map<String, VariantSource> sources = new TreeMap<>();
+        List<VariantSource> sourcesList = sourceDBAdaptor.getAllSourcesByStudyIds(studyIds, options).getResult();
+        for (VariantSource variantSource : sourcesList) {
+            sources.put(variantSource.getStudyId(), variantSource);
+        }
+
+        for (String studyId : studyIds) {
+            if (!sources.containsKey(studyId)) {
+                throw new IllegalArgumentException("Aborting VCF export: missing header for study " + studyId);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * The header of each study keeps only the requested samples that the study has, in the requested order.
+     *
+     * postconditions:
+     * - returns one header per study (one header for each key in `sources`).
+     * - every sample in `returnedSamples` is in at least one header.
+     * @param returnedSamples samples to keep. If empty, all the samples are kept.
+     */
+    static Map<String, VCFHeader> getVcfHeaders(Map<String, VariantSource> sources, List<String> returnedSamples)
+            throws IOException {
+        Map<String, VCFHeader> headers = getVcfHeaders(sources);
+        if (returnedSamples.isEmpty()) {
+            return headers;
+        }
+
+        Set<String> missingSamples = new LinkedHashSet<>(returnedSamples);
+        for (Map.Entry<String, VCFHeader> header : headers.entrySet()) {
+            Set<String> studySamples = new HashSet<>(header.getValue().getGenotypeSamples());
+            List<String> samples = new ArrayList<>();
+            for (String sample : returnedSamples) {
+                if (studySamples.contains(sample) && !samples.contains(sample)) {
+                    samples.add(sample);
+                }
+            }
+            missingSamples.removeAll(samples);
+            logger.debug("export of study {} will be done on samples: [{}]", header.getKey(), StringUtils.join(samples, " "));
+            header.setValue(new VCFHeader(header.getValue().getMetaDataInInputOrder(), samples));
+        }
+        if (!missingSamples.isEmpty()) {
+            throw new IllegalArgumentException("Aborting VCF export: samples not found in any study: "
+                    + StringUtils.join(missingSamples, ", "));
+        }
+        return headers;
     }
 
     /**
@@ -172,7 +471,7 @@ public class VariantExporter {
      * - returns one header per study (one header for each key in `sources`).
      * @throws IOException
      */
-    private Map<String, VCFHeader> getVcfHeaders(Map<String, VariantSource> sources) throws IOException {
+    static Map<String, VCFHeader> getVcfHeaders(Map<String, VariantSource> sources) throws IOException {
         Map<String, VCFHeader> headers = new TreeMap<>();
 
         for (VariantSource source : sources.values()) {
@@ -192,40 +491,44 @@ public class VariantExporter {
         }
 
         return headers;
-        //TODO: allow specify which samples to return
-/*
-//
-//        header.addMetaDataLine(new VCFFilterHeaderLine(".", "No FILTER info"));
-
-//        List<String> returnedSamples = new ArrayList<>();
-//        if (options != null) {
-//            returnedSamples = options.getAsStringList(VariantDBAdaptor.VariantQueryParams.RETURNED_SAMPLES.key());
-//        }
-        int lastLineIndex = fileHeader.lastIndexOf("#CHROM");
-        if (lastLineIndex >= 0) {
-            String substring = fileHeader.substring(0, lastLineIndex);
-            if (returnedSamples.isEmpty()) {
-                BiMap<Integer, String> samplesPosition = StudyConfiguration.getSamplesPosition(studyConfiguration).inverse();
-                returnedSamples = new ArrayList<>(samplesPosition.size());
-                for (int i = 0; i < samplesPosition.size(); i++) {
-                    returnedSamples.add(samplesPosition.get(i));
-                }
-            }
-            String samples = String.join("\t", returnedSamples);
-            logger.debug("export will be done on samples: [{}]", samples);
-
-            fileHeader = substring + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t" + samples;
-        }
-//        return VariantFileMetadataToVCFHeaderConverter.parseVcfHeader(fileHeader);
-
-        // */
-
     }
 
     public int getFailedVariants() {
         return failedVariants;
     }
 
+    private static Map<String, Set<String>> getSamplesPerStudy(Map<String, VCFHeader> headers) {
+        Map<String, Set<String>> samplesPerStudy = new HashMap<>();
+        for (Map.Entry<String, VCFHeader> header : headers.entrySet()) {
+            samplesPerStudy.put(header.getKey(), new HashSet<>(header.getValue().getGenotypeSamples()));
+        }
+        return samplesPerStudy;
+    }
+
+    /**
+     * The export only needs the position and alleles of the variants, and the genotypes of the requested studies and
+     * files. The studies and files are already filters of the query, and this excludes the rest of the fields of the
+     * documents, such as the annotation and the statistics, so they are neither sent by the database nor deserialized.
+     * The cursor also fetches as many documents per round trip as variants are converted in a batch.
+     *
+     * @param options query of the variants to export, with studyId and fileId
+     * @return a copy of the query, with the projection and batch size added to what `options` already had
+     */
+    public static QueryOptions getExportQueryOptions(QueryOptions options) {
+        QueryOptions exportOptions = new QueryOptions(options);
+        List<String> excluded = new ArrayList<>(options.getAsStringList(EXCLUDE));
+        for (String field : UNUSED_FIELDS) {
+            if (!excluded.contains(field)) {
+                excluded.add(field);
+            }
+        }
+        exportOptions.put(EXCLUDE, excluded);
+        if (!options.containsKey(BATCH_SIZE)) {
+            exportOptions.put(BATCH_SIZE, CONVERSION_BATCH_SIZE);
+        }
+        return exportOptions;
+    }
+
     /**
      * converts org.opencb.biodata.models.variant.Variant into one or more htsjdk.variant.variantcontext.VariantContext
      * behaviour:
@@ -245,18 +548,28 @@ public class VariantExporter {
      */
     public Map<String, VariantContext> convertBiodataVariantToVariantContext(
             Variant variant, Map<String, VariantSource> sources) throws IOException {
+        return convertBiodataVariantToVariantContext(variant, sources, null);
+    }
+
+    /**
+     * @param selectedSamples samples to convert in each study, the GTs of the rest are not even parsed. If null, all the
+     *                        samples are converted.
+     */
+    public Map<String, VariantContext> convertBiodataVariantToVariantContext(
+            Variant variant, Map<String, VariantSource> sources, Map<String, Set<String>> selectedSamples)
+            throws IOException {
         int missingGenotypes = 0;
         Set<String> studyIds = sources.keySet();
         Map<String, VariantContext> variantContextMap = new TreeMap<>();
         VariantContextBuilder variantContextBuilder = new VariantContextBuilder();
 
-        Integer start = variant.getStart();
-        Integer end = variant.getEnd();
         String reference = variant.getReference();
         String alternate = variant.getAlternate();
         String filter = "PASS";
-        List<String> allelesArray = Arrays.asList(reference, alternate);
+        VcfCoordinates coordinates = null;
         Map<String, List<Genotype>> genotypesPerStudy = new TreeMap<>();
+        List<Allele> variantAlleles = null;
+        Map<String, List<Allele>> allelesPerGenotype = new HashMap<>();
 
         for (VariantSourceEntry source : variant.getSourceEntries().values()) {
 
@@ -270,55 +583,34 @@ public class VariantExporter {
                     genotypesPerStudy.put(studyId, new ArrayList<Genotype>());
                 }
 
-                // if there are indels, we cannot use the normalized alleles, (hts forbids empty alleles) so we have to take them from cellbase
-                boolean emptyAlleles = false;
-                for (String a : allelesArray) {
-                    if (a.isEmpty()) {
-                        emptyAlleles = true;
-                        break;
-                    }
+                if (coordinates == null) {
+                    coordinates = getVcfCoordinates(variant, studyId);
+                    variantAlleles = createAlleles(coordinates.alleles);
                 }
 
-                if (emptyAlleles) {
-                    if (cellbaseClient != null) {
-                        List<Region> regions = Collections.singletonList(new Region(variant.getChromosome(), start - 1, start-1));
-
-                        QueryResponse<QueryResult<GenomeSequenceFeature>> sequence = cellbaseClient.getSequence(
-                                CellBaseClient.Category.genomic, CellBaseClient.SubCategory.region, regions, null);
-
-                        List<GenomeSequenceFeature> response = sequence.getResponse().get(0).getResult();
-                        if (response.size() == 1) {
-                            start--;
-                            allelesArray = new ArrayList<>();
-                            allelesArray.add(response.get(0).getSequence() + reference);
-                            allelesArray.add(response.get(0).getSequence() + alternate);
-                            end = start + allelesArray.get(0).length()-1;   // -1 because end is inclusive. [start, end] instead of [start, end)
-                        }
-                    } else {
-                        throw new IllegalArgumentException(String.format(
-                                "CellBase was not provided, needed to fill empty alleles at study %s, in variant %s:%d:%s>%s", studyId,
-                                variant.getChromosome(), variant.getStart(), variant.getReference(), variant.getAlternate()));
+                // add the genotypes. The samples with the same GT share the same list of alleles
+                GenotypeBuilder genotypeBuilder = genotypeBuilders.get();
+                // reminder of samplesData meaning: Map(sampleName -> Map(dataType -> value))
+                Map<String, Map<String, String>> samplesData = source.getSamplesData();
+                Collection<String> sampleNames = selectedSamples == null ?
+                        samplesData.keySet() : selectedSamples.get(studyId);
+                for (String sampleName : sampleNames) {
+                    Map<String, String> sampleData = samplesData.get(sampleName);
+                    if (sampleData == null) {
+                        continue;
                     }
-                }
-
-                // add the genotypes
-                for (Map.Entry<String, Map<String, String>> samplesData : source.getSamplesData().entrySet()) {
-                    // reminder of samplesData meaning: Map(sampleName -> Map(dataType -> value))
-                    String sampleName = samplesData.getKey();
-                    String gt = samplesData.getValue().get("GT");
+                    String gt = sampleData.get("GT");
 
                     if (gt != null) {
-                        org.opencb.biodata.models.feature.Genotype genotype = new org.opencb.biodata.models.feature.Genotype(gt, reference, alternate);
-                        List<Allele> alleles = new ArrayList<>();
-                        for (int gtIdx : genotype.getAllelesIdx()) {
-                            if (gtIdx < allelesArray.size() && gtIdx >= 0) {
-                                alleles.add(Allele.create(allelesArray.get(gtIdx), gtIdx == 0));    // allele is reference if the alleleIndex is 0
-                            } else {
-                                alleles.add(Allele.create(".", false)); // genotype of a secondary alternate, or an actual missing
-                            }
+                        org.opencb.biodata.models.feature.Genotype genotype = parseGenotype(gt, reference, alternate);
+                        List<Allele> alleles = allelesPerGenotype.get(gt);
+                        if (alleles == null) {
+                            alleles = getGenotypeAlleles(genotype, variantAlleles);
+                            allelesPerGenotype.put(gt, alleles);
                         }
+                        genotypeBuilder.reset(false);
                         genotypesPerStudy.get(studyId).add(
-                                new GenotypeBuilder().name(sampleName).alleles(alleles).phased(genotype.isPhased()).make());
+                                genotypeBuilder.name(sampleName).alleles(alleles).phased(genotype.isPhased()).make());
                     } else {
                         missingGenotypes++;
                     }
@@ -334,15 +626,499 @@ public class VariantExporter {
         for (Map.Entry<String, List<Genotype>> studyEntry : genotypesPerStudy.entrySet()) {
             VariantContext make = variantContextBuilder
                     .chr(variant.getChromosome())
-                    .start(start)
-                    .stop(end)
+                    .start(coordinates.start)
+                    .stop(coordinates.end)
 //                .id(String.join(";", variant.getIds()))   // in multiallelic, this results in duplicated ids, across several rows
                     .noID()
-                    .alleles(allelesArray)
+                    .alleles(coordinates.alleles)
                     .filter(filter)
                     .genotypes(studyEntry.getValue()).make();
             variantContextMap.put(studyEntry.getKey(), make);
         }
         return variantContextMap;
     }
+
+    /**
+     * if there are indels, we cannot use the normalized alleles, (hts forbids empty alleles) so we have to take the
+     * base before them from the reference sequence
+     *
+     * @param studyId only to report the variant if the reference sequence is needed but missing
+     */
+    private VcfCoordinates getVcfCoordinates(Variant variant, String studyId) throws IOException {
+        int start = variant.getStart();
+        int end = variant.getEnd();
+        String reference = variant.getReference();
+        String alternate = variant.getAlternate();
+        List<String> alleles = Arrays.asList(reference, alternate);
+
+        if (reference.isEmpty() || alternate.isEmpty()) {
+            if (referenceSequenceProvider != null) {
+                String contextBase = referenceSequenceProvider.getContextBase(variant.getChromosome(), start - 1);
+                if (contextBase != null) {
+                    start--;
+                    alleles = Arrays.asList(contextBase + reference, contextBase + alternate);
+                    end = start + alleles.get(0).length() - 1;   // -1 because end is inclusive. [start, end] instead of [start, end)
+                }
+            } else {
+                throw new IllegalArgumentException(String.format(
+                        "CellBase or a reference sequence was not provided, needed to fill empty alleles at study %s, in variant %s:%d:%s>%s", studyId,
+                        variant.getChromosome(), variant.getStart(), variant.getReference(), variant.getAlternate()));
+            }
+        }
+        return new VcfCoordinates(start, end, alleles);
+    }
+
+    /**
+     * The Alleles of a variant, created once and shared by all its genotypes.
+     */
+    private static List<Allele> createAlleles(List<String> allelesArray) {
+        List<Allele> alleles = new ArrayList<>(allelesArray.size());
+        for (int i = 0; i < allelesArray.size(); i++) {
+            alleles.add(Allele.create(allelesArray.get(i), i == 0));    // allele is reference if the alleleIndex is 0
+        }
+        return alleles;
+    }
+
+    private static List<Allele> getGenotypeAlleles(org.opencb.biodata.models.feature.Genotype genotype,
+                                                   List<Allele> variantAlleles) {
+        int[] allelesIdx = genotype.getAllelesIdx();
+        List<Allele> alleles = new ArrayList<>(allelesIdx.length);
+        for (int gtIdx : allelesIdx) {
+            if (gtIdx < variantAlleles.size() && gtIdx >= 0) {
+                alleles.add(variantAlleles.get(gtIdx));
+            } else {
+                alleles.add(Allele.NO_CALL); // genotype of a secondary alternate, or an actual missing
+            }
+        }
+        return Collections.unmodifiableList(alleles);
+    }
+
+    /**
+     * The GTs written with allele indexes, such as "0|1", don't depend on the variant, so they are parsed only once
+     * and shared by all the exporters.
+     * The ones written with bases, such as "A/T", are parsed every time.
+     */
+    static org.opencb.biodata.models.feature.Genotype parseGenotype(String gt, String reference, String alternate) {
+        org.opencb.biodata.models.feature.Genotype genotype = parsedGenotypes.get(gt);
+        if (genotype == null) {
+            genotype = new org.opencb.biodata.models.feature.Genotype(gt, reference, alternate);
+            if (isIndexedGenotype(gt) && parsedGenotypes.size() < MAX_PARSED_GENOTYPES) {
+                parsedGenotypes.putIfAbsent(gt, genotype);
+            }
+        }
+        return genotype;
+    }
+
+    private static boolean isIndexedGenotype(String gt) {
+        for (int i = 0; i < gt.length(); i++) {
+            char c = gt.charAt(i);
+            if (!Character.isDigit(c) && c != '.' && c != '/' && c != '|' && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Position and alleles of a variant as written in the VCF.
+     */
+    private static class VcfCoordinates {
+        private final int start;
+        private final int end;
+        private final List<String> alleles;
+
+        VcfCoordinates(int start, int end, List<String> alleles) {
+            this.start = start;
+            this.end = end;
+            this.alleles = alleles;
+        }
+    }
+
+    /**
+     * Where the variants of each study are written. The batches of variants are converted with {@link #convert},
+     * maybe by several threads at the same time, and written in order with {@link #write}, always by the same thread.
+     */
+    private interface Output<T> {
+        T convert(List<Variant> batch);
+
+        /**
+         * @return number of variants of the batch that could not be converted
+         */
+        int write(T convertedBatch) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    /**
+     * Converts the variants to VariantContexts and writes them with htsjdk.
+     */
+    private class HtsOutput implements Output<List<Map<String, VariantContext>>> {
+
+        private final Map<String, VariantSource> sources;
+        private final Map<String, VariantContextWriter> writers;
+        private final Map<String, File> outFiles;
+        private final Map<String, ParallelBlockCompressedOutputStream> indexedStreams;
+        private final Map<String, Set<String>> selectedSamples;
+
+        HtsOutput(Map<String, File> outFiles, Map<String, VCFHeader> headers, Map<String, VariantSource> sources,
+                  Map<String, Set<String>> selectedSamples) throws IOException {
+            this.sources = sources;
+            this.selectedSamples = selectedSamples;
+            this.writers = new TreeMap<>();
+            this.outFiles = outFiles;
+            this.indexedStreams = new TreeMap<>();
+            for (Map.Entry<String, File> outFile : outFiles.entrySet()) {
+                String studyId = outFile.getKey();
+                VariantContextWriterBuilder builder = new VariantContextWriterBuilder();
+                SAMSequenceDictionary sequenceDictionary;
+                try {
+                    sequenceDictionary = headers.get(studyId).getSequenceDictionary();
+                } catch (Exception e) {
+                    sequenceDictionary = null;
+                }
+                OutputStream outputStream = openOutputStream(outFile.getValue());
+                VariantContextWriter writer = builder
+                        .setOutputStream(outputStream)
+                        .setReferenceDictionary(sequenceDictionary)
+                        .unsetOption(Options.INDEX_ON_THE_FLY)
+                        .build();
+                if (indexing) {
+                    ParallelBlockCompressedOutputStream indexedStream = (ParallelBlockCompressedOutputStream) outputStream;
+                    indexedStreams.put(studyId, indexedStream);
+                    writer = new IndexingWriter(writer, indexedStream);
+                }
+                if (threads > 1) {
+                    writer = new AsyncVariantContextWriter(writer);
+                }
+                writers.put(studyId, writer);
+                writer.writeHeader(headers.get(studyId));
+            }
+        }
+
+        @Override
+        public List<Map<String, VariantContext>> convert(List<Variant> batch) {
+            return convertBatch(batch, sources, selectedSamples);
+        }
+
+        @Override
+        public int write(List<Map<String, VariantContext>> convertedBatch) {
+            return VariantExporter.this.write(convertedBatch, writers);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (VariantContextWriter variantContextWriter : writers.values()) {
+                variantContextWriter.close();
+            }
+            for (Map.Entry<String, ParallelBlockCompressedOutputStream> indexedStream : indexedStreams.entrySet()) {
+                writeIndex(indexedStream.getValue(), outFiles.get(indexedStream.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Gives each VariantContext to the index of the stream right before writing it. It goes under the
+     * AsyncVariantContextWriter, if any, so the VariantContexts are indexed by the thread that writes them.
+     */
+    private static class IndexingWriter implements VariantContextWriter {
+
+        private final VariantContextWriter writer;
+        private final ParallelBlockCompressedOutputStream outputStream;
+
+        IndexingWriter(VariantContextWriter writer, ParallelBlockCompressedOutputStream outputStream) {
+            this.writer = writer;
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void writeHeader(VCFHeader header) {
+            writer.writeHeader(header);
+        }
+
+        @Override
+        public void add(VariantContext variantContext) {
+            outputStream.addFeature(variantContext);
+            writer.add(variantContext);
+        }
+
+        @Override
+        public boolean checkError() {
+            return writer.checkError();
+        }
+
+        @Override
+        public void close() {
+            writer.close();
+        }
+    }
+
+    /**
+     * Renders the VCF lines with a VcfTextEncoder per study, into a buffer per study and batch, and writes the buffers
+     * to the BGZF streams. The buffers of the written batches are reused for the next ones.
+     *
+     * With more than one thread, as AsyncVariantContextWriter does in HtsOutput, each study is written by its own
+     * thread, and only a few batches per study wait to be written. A batch is reused once all the studies wrote it.
+     */
+    private class TextOutput implements Output<TextBatch> {
+
+        private final Map<String, Integer> studyIndexes;
+        private final VcfTextEncoder[] encoders;
+        private final OutputStream[] outputStreams;
+        private final File[] files;
+        private final Queue<TextBatch> writtenBatches;
+        private final ExecutorService[] studyWriters;
+        private final List<Queue<Future<?>>> pendingWrites;
+
+        TextOutput(Map<String, File> outFiles, Map<String, VCFHeader> headers, Map<String, VariantSource> sources,
+                   Map<String, Set<String>> selectedSamples) throws IOException {
+            studyIndexes = new HashMap<>();
+            encoders = new VcfTextEncoder[outFiles.size()];
+            outputStreams = new OutputStream[outFiles.size()];
+            files = new File[outFiles.size()];
+            writtenBatches = new ConcurrentLinkedQueue<>();
+            studyWriters = threads > 1 ? new ExecutorService[outFiles.size()] : null;
+            pendingWrites = new ArrayList<>(outFiles.size());
+            for (Map.Entry<String, File> outFile : outFiles.entrySet()) {
+                int study = studyIndexes.size();
+                studyIndexes.put(outFile.getKey(), study);
+                encoders[study] = new VcfTextEncoder(headers.get(outFile.getKey()), selectedSamples != null);
+                files[study] = outFile.getValue();
+                outputStreams[study] = openOutputStream(outFile.getValue());
+                outputStreams[study].write(encoders[study].encodeHeader());
+                pendingWrites.add(new ArrayDeque<Future<?>>());
+                if (studyWriters != null) {
+                    studyWriters[study] = Executors.newSingleThreadExecutor();
+                }
+            }
+        }
+
+        @Override
+        public TextBatch convert(List<Variant> batch) {
+            prefetch(batch);
+            TextBatch textBatch = writtenBatches.poll();
+            if (textBatch == null) {
+                textBatch = new TextBatch(encoders.length);
+            }
+            for (Variant variant : batch) {
+                textBatch.mark();
+                try {
+                    encode(variant, textBatch);
+                } catch (IllegalStateException e) {
+                    throw e;    // the headers are not complete, VCFWriter wouldn't write anything either
+                } catch (Exception e) {
+                    textBatch.rollback();
+                    logFailedVariant(variant, e);
+                    textBatch.failedVariants++;
+                }
+            }
+            return textBatch;
+        }
+
+        /**
+         * The entries of the same study are written in the same line, as in convertBiodataVariantToVariantContext.
+         */
+        private void encode(Variant variant, TextBatch textBatch) throws IOException {
+            Map<Integer, List<VariantSourceEntry>> entriesPerStudy = new TreeMap<>();
+            String firstStudyId = null;
+            for (VariantSourceEntry source : variant.getSourceEntries().values()) {
+                Integer study = studyIndexes.get(source.getStudyId());
+                if (study != null) {
+                    if (firstStudyId == null) {
+                        firstStudyId = source.getStudyId();
+                    }
+                    if (!entriesPerStudy.containsKey(study)) {
+                        entriesPerStudy.put(study, new ArrayList<VariantSourceEntry>());
+                    }
+                    entriesPerStudy.get(study).add(source);
+                }
+            }
+            if (entriesPerStudy.isEmpty()) {
+                return;
+            }
+
+            VcfCoordinates coordinates = getVcfCoordinates(variant, firstStudyId);
+            String[] alleles = VcfTextEncoder.getDisplayAlleles(coordinates.start, coordinates.end, coordinates.alleles);
+            for (Map.Entry<Integer, List<VariantSourceEntry>> studyEntries : entriesPerStudy.entrySet()) {
+                int study = studyEntries.getKey();
+                encoders[study].encode(variant, coordinates.start, alleles, studyEntries.getValue(),
+                        textBatch.lines[study]);
+                if (indexing) {
+                    textBatch.addIndexedLine(study,
+                            new SimpleFeature(variant.getChromosome(), coordinates.start, coordinates.end));
+                }
+            }
+        }
+
+        @Override
+        public int write(final TextBatch convertedBatch) throws IOException {
+            int failedVariants = convertedBatch.failedVariants;
+            if (studyWriters == null) {
+                for (int study = 0; study < outputStreams.length; study++) {
+                    writeLines(convertedBatch, study);
+                }
+                recycle(convertedBatch);
+                return failedVariants;
+            }
+
+            convertedBatch.pendingStudies.set(outputStreams.length);
+            for (int study = 0; study < outputStreams.length; study++) {
+                final int writtenStudy = study;
+                Queue<Future<?>> studyPendingWrites = pendingWrites.get(study);
+                studyPendingWrites.add(studyWriters[study].submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        writeLines(convertedBatch, writtenStudy);
+                        if (convertedBatch.pendingStudies.decrementAndGet() == 0) {
+                            recycle(convertedBatch);
+                        }
+                        return null;
+                    }
+                }));
+                if (studyPendingWrites.size() > threads * 2) {
+                    waitForWrite(studyPendingWrites.poll());
+                }
+            }
+            return failedVariants;
+        }
+
+        private void writeLines(TextBatch convertedBatch, int study) throws IOException {
+            if (indexing) {
+                writeIndexedLines(convertedBatch, study);
+            } else {
+                convertedBatch.lines[study].writeTo(outputStreams[study]);
+            }
+        }
+
+        private void recycle(TextBatch writtenBatch) {
+            writtenBatch.reset();
+            writtenBatches.add(writtenBatch);
+        }
+
+        private void waitForWrite(Future<?> pendingWrite) throws IOException {
+            try {
+                pendingWrite.get();
+            } catch (InterruptedException e) {
+                throw new IOException("Variant writing interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Variant writing failed", e.getCause());
+            }
+        }
+
+        /**
+         * Writes the lines one by one, to give the stream the feature of each line right before it.
+         */
+        private void writeIndexedLines(TextBatch convertedBatch, int study) throws IOException {
+            ParallelBlockCompressedOutputStream outputStream = (ParallelBlockCompressedOutputStream) outputStreams[study];
+            int lineStart = 0;
+            for (IndexedLine indexedLine : convertedBatch.indexedLines.get(study)) {
+                outputStream.addFeature(indexedLine.feature);
+                convertedBatch.lines[study].writeTo(outputStream, lineStart, indexedLine.end);
+                lineStart = indexedLine.end;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                for (Queue<Future<?>> studyPendingWrites : pendingWrites) {
+                    while (!studyPendingWrites.isEmpty()) {
+                        waitForWrite(studyPendingWrites.poll());
+                    }
+                }
+            } finally {
+                if (studyWriters != null) {
+                    for (ExecutorService studyWriter : studyWriters) {
+                        studyWriter.shutdownNow();
+                    }
+                }
+                for (OutputStream outputStream : outputStreams) {
+                    outputStream.close();
+                }
+            }
+            if (indexing) {
+                for (int study = 0; study < outputStreams.length; study++) {
+                    writeIndex((ParallelBlockCompressedOutputStream) outputStreams[study], files[study]);
+                }
+            }
+        }
+    }
+
+    /**
+     * The lines of a batch of variants, one buffer per study. When indexing, also the feature of each line.
+     */
+    private static class TextBatch {
+        private final VcfLineBuffer[] lines;
+        private final int[] marks;
+        private final List<List<IndexedLine>> indexedLines;
+        private final int[] indexedLineMarks;
+        private int failedVariants;
+        /**
+         * Studies that still have to write the batch, when each study is written by its own thread.
+         */
+        private final AtomicInteger pendingStudies;
+
+        TextBatch(int studies) {
+            lines = new VcfLineBuffer[studies];
+            marks = new int[studies];
+            indexedLines = new ArrayList<>(studies);
+            indexedLineMarks = new int[studies];
+            pendingStudies = new AtomicInteger();
+            for (int study = 0; study < studies; study++) {
+                lines[study] = new VcfLineBuffer(LINE_BUFFER_SIZE);
+                indexedLines.add(new ArrayList<IndexedLine>());
+            }
+            failedVariants = 0;
+        }
+
+        /**
+         * Records the feature of the line just rendered for the study.
+         */
+        void addIndexedLine(int study, Feature feature) {
+            indexedLines.get(study).add(new IndexedLine(feature, lines[study].size()));
+        }
+
+        /**
+         * Remembers where the current variant starts, to remove its lines if it fails.
+         */
+        void mark() {
+            for (int study = 0; study < lines.length; study++) {
+                marks[study] = lines[study].size();
+                indexedLineMarks[study] = indexedLines.get(study).size();
+            }
+        }
+
+        void rollback() {
+            for (int study = 0; study < lines.length; study++) {
+                lines[study].truncate(marks[study]);
+                List<IndexedLine> studyIndexedLines = indexedLines.get(study);
+                studyIndexedLines.subList(indexedLineMarks[study], studyIndexedLines.size()).clear();
+            }
+        }
+
+        void reset() {
+            for (VcfLineBuffer line : lines) {
+                line.reset();
+            }
+            for (List<IndexedLine> studyIndexedLines : indexedLines) {
+                studyIndexedLines.clear();
+            }
+            failedVariants = 0;
+        }
+    }
+
+    /**
+     * A line of a TextBatch to be indexed: its feature, and the offset in the buffer where the line ends.
+     */
+    private static class IndexedLine {
+        private final Feature feature;
+        private final int end;
+
+        IndexedLine(Feature feature, int end) {
+            this.feature = feature;
+            this.end = end;
+        }
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import htsjdk.variant.vcf.VCFEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte array where {@link VcfTextEncoder} renders the VCF lines, so no String is built per line. It is
+ * meant to be reset and reused for the next batch of lines.
+ *
+ * ASCII text is copied byte by byte; any other text is encoded with the charset htsjdk uses for VCF.
+ */
+final class VcfLineBuffer {
+
+    private byte[] bytes;
+    private int size;
+
+    VcfLineBuffer(int capacity) {
+        bytes = new byte[capacity];
+        size = 0;
+    }
+
+    VcfLineBuffer append(String text) {
+        int length = text.length();
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                size -= i;
+                return append(text.getBytes(VCFEncoder.VCF_CHARSET));
+            }
+            bytes[size++] = (byte) c;
+        }
+        return this;
+    }
+
+    VcfLineBuffer append(byte[] text) {
+        ensureCapacity(size + text.length);
+        System.arraycopy(text, 0, bytes, size, text.length);
+        size += text.length;
+        return this;
+    }
+
+    /**
+     * @param c an ASCII character, such as the separators of VCF
+     */
+    VcfLineBuffer append(char c) {
+        ensureCapacity(size + 1);
+        bytes[size++] = (byte) c;
+        return this;
+    }
+
+    VcfLineBuffer append(int value) {
+        if (value < 0) {
+            return append(Integer.toString(value));
+        }
+        int digits = 1;
+        for (int i = value; i >= 10; i /= 10) {
+            digits++;
+        }
+        ensureCapacity(size + digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Discards everything appended after the buffer had `size` bytes.
+     */
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(bytes, 0, size);
+    }
+
+    /**
+     * Writes the bytes from `start`, inclusive, to `end`, exclusive.
+     */
+    void writeTo(OutputStream outputStream, int start, int end) throws IOException {
+        outputStream.write(bytes, start, end - start);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFHeader;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the VCF lines of a study straight from the biodata variants, without building htsjdk VariantContexts.
+ *
+ * The lines are the same that VCFWriter writes for the VariantContexts made by
+ * {@link VariantExporter#convertBiodataVariantToVariantContext}: no ID, QUAL nor INFO, the filter PASS and only the GT
+ * of each sample, in the order of the header. The samples without GT are written as missing, with as many alleles as
+ * the highest ploidy of the line, or {@link #DEFAULT_PLOIDY} if no sample has GT.
+ *
+ * When only a subset of the samples is exported, the header has just those, and the ploidy is taken only from them,
+ * as those are the only genotypes converted to VariantContexts.
+ */
+final class VcfTextEncoder {
+
+    static final int DEFAULT_PLOIDY = 2;
+
+    private final VCFHeader header;
+    private final List<String> samples;
+    private final boolean genotypeFormatDefined;
+    private final boolean sampleSubset;
+
+    /**
+     * @param sampleSubset whether the header has only some of the samples of the study
+     */
+    VcfTextEncoder(VCFHeader header, boolean sampleSubset) {
+        this.header = header;
+        this.samples = header.getGenotypeSamples();
+        this.genotypeFormatDefined = header.hasFormatLine(VCFConstants.GENOTYPE_KEY);
+        this.sampleSubset = sampleSubset;
+    }
+
+    /**
+     * @return the header as VCFWriter writes it
+     */
+    byte[] encodeHeader() {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        VariantContextWriter writer = new VariantContextWriterBuilder()
+                .setOutputStream(headerBytes)
+                .unsetOption(Options.INDEX_ON_THE_FLY)
+                .build();
+        writer.writeHeader(header);
+        writer.close();
+        return headerBytes.toByteArray();
+    }
+
+    /**
+     * Checks the alleles as htsjdk does when it builds a VariantContext, so the variants that can't be written with
+     * VCFWriter are not written here either.
+     *
+     * @return the reference and alternate alleles as they must be written
+     */
+    static String[] getDisplayAlleles(int start, int end, List<String> alleles) {
+        Allele reference = Allele.create(alleles.get(0), true);
+        Allele alternate = Allele.create(alleles.get(1), false);
+        if (alternate.basesMatch(reference)) {
+            throw new IllegalArgumentException("Duplicate allele added to VariantContext: " + alternate);
+        }
+        if (!reference.isSymbolic() && !alternate.isSymbolic() && end - start + 1 != reference.length()) {
+            throw new IllegalArgumentException("Variant from " + start + " to " + end
+                    + " doesn't match the length of its reference allele " + reference);
+        }
+        return new String[]{reference.getDisplayString(), alternate.getDisplayString()};
+    }
+
+    /**
+     * Appends the line of the variant, with the genotypes of all the entries of the study in the variant.
+     *
+     * @param start position of the variant, including the context base if needed
+     * @param alleles reference and alternate as returned by {@link #getDisplayAlleles}
+     * @param entries entries of the study in the variant. If a sample is in several entries, the last one is written
+     */
+    void encode(Variant variant, int start, String[] alleles, List<VariantSourceEntry> entries, VcfLineBuffer line) {
+        line.append(variant.getChromosome()).append('\t')
+                .append(start).append('\t')
+                .append(VCFConstants.EMPTY_ID_FIELD).append('\t')
+                .append(alleles[0]).append('\t')
+                .append(alleles[1]).append('\t')
+                .append(VCFConstants.MISSING_VALUE_v4).append('\t')
+                .append(VCFConstants.PASSES_FILTERS_v4).append('\t')
+                .append(VCFConstants.EMPTY_INFO_FIELD);
+
+        int maxPloidy = getMaxPloidy(variant, entries);
+        if (maxPloidy > 0 || !samples.isEmpty()) {
+            if (maxPloidy == 0) {
+                maxPloidy = DEFAULT_PLOIDY;
+            }
+            if (!genotypeFormatDefined) {
+                throw new IllegalStateException("Key " + VCFConstants.GENOTYPE_KEY + " found in VariantContext field "
+                        + "FORMAT at " + variant.getChromosome() + ":" + start + " but this key isn't defined in the "
+                        + "VCFHeader.  We require all VCFs to have complete VCF headers by default.");
+            }
+            line.append('\t').append(VCFConstants.GENOTYPE_KEY);
+            for (String sample : samples) {
+                line.append('\t');
+                String gt = getGenotype(entries, sample);
+                if (gt == null) {
+                    appendMissingGenotype(maxPloidy, line);
+                } else {
+                    Genotype genotype = VariantExporter.parseGenotype(gt, variant.getReference(), variant.getAlternate());
+                    appendGenotype(genotype, line);
+                }
+            }
+        }
+        line.append('\n');
+    }
+
+    /**
+     * @return the highest number of alleles in the GTs of the variant, or 0 if there are no GTs
+     */
+    private int getMaxPloidy(Variant variant, List<VariantSourceEntry> entries) {
+        int maxPloidy = 0;
+        for (VariantSourceEntry entry : entries) {
+            Map<String, Map<String, String>> samplesData = entry.getSamplesData();
+            for (String sample : sampleSubset ? samples : samplesData.keySet()) {
+                Map<String, String> sampleData = samplesData.get(sample);
+                String gt = sampleData == null ? null : sampleData.get(VCFConstants.GENOTYPE_KEY);
+                if (gt != null) {
+                    Genotype genotype = VariantExporter.parseGenotype(gt, variant.getReference(), variant.getAlternate());
+                    maxPloidy = Math.max(maxPloidy, genotype.getAllelesIdx().length);
+                }
+            }
+        }
+        return maxPloidy;
+    }
+
+    private static String getGenotype(List<VariantSourceEntry> entries, String sample) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Map<String, String> sampleData = entries.get(i).getSamplesData().get(sample);
+            if (sampleData != null && sampleData.get(VCFConstants.GENOTYPE_KEY) != null) {
+                return sampleData.get(VCFConstants.GENOTYPE_KEY);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Only the reference and the first alternate are written, any other allele index is written as missing.
+     */
+    private static void appendGenotype(Genotype genotype, VcfLineBuffer line) {
+        int[] allelesIdx = genotype.getAllelesIdx();
+        char separator = genotype.isPhased() ? VCFConstants.PHASED.charAt(0) : VCFConstants.UNPHASED.charAt(0);
+        for (int i = 0; i < allelesIdx.length; i++) {
+            if (i > 0) {
+                line.append(separator);
+            }
+            if (allelesIdx[i] == 0 || allelesIdx[i] == 1) {
+                line.append(allelesIdx[i]);
+            } else {
+                line.append(VCFConstants.EMPTY_ALLELE);
+            }
+        }
+    }
+
+    private static void appendMissingGenotype(int ploidy, VcfLineBuffer line) {
+        for (int i = 0; i < ploidy; i++) {
+            if (i > 0) {
+                line.append(VCFConstants.UNPHASED.charAt(0));
+            }
+            line.append(VCFConstants.EMPTY_ALLELE);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.cellbase.core.client.CellBaseClient;
+import org.opencb.cellbase.core.common.GenomeSequenceFeature;
+import org.opencb.datastore.core.QueryOptions;
+import org.opencb.datastore.core.QueryResponse;
+import org.opencb.datastore.core.QueryResult;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Resolves the context bases with a stubbed CellBaseClient, that knows the bases 10, 20, 30, 40 and 50 of chromosome
+ * 20 and counts the requests.
+ */
+public class CellBaseContextBaseResolverTest {
+
+    private StubCellBaseClient cellBaseClient;
+
+    @Before
+    public void setUp() throws Exception {
+        cellBaseClient = new StubCellBaseClient();
+        cellBaseClient.bases.put("20:10", "A");
+        cellBaseClient.bases.put("20:20", "C");
+        cellBaseClient.bases.put("20:30", "G");
+        cellBaseClient.bases.put("20:40", "T");
+        cellBaseClient.bases.put("20:50", "A");
+    }
+
+    @Test
+    public void testPrefetchInBatchedRequests() throws Exception {
+        CellBaseContextBaseResolver resolver = new CellBaseContextBaseResolver(cellBaseClient, 100, 2);
+
+        // 5 distinct context bases: the SNV doesn't need any, and the last deletion repeats the base 10
+        List<Variant> variants = Arrays.asList(
+                new Variant("20", 11, 11, "", "T"),
+                new Variant("20", 21, 21, "C", ""),
+                new Variant("20", 25, 25, "A", "G"),
+                new Variant("20", 31, 32, "", "TT"),
+                new Variant("20", 41, 41, "G", ""),
+                new Variant("20", 51, 52, "GG", ""),
+                new Variant("20", 11, 11, "C", ""));
+        resolver.prefetch(variants);
+        assertEquals(Arrays.asList(2, 2, 1), cellBaseClient.requestSizes);
+
+        // all of them are cached
+        assertEquals("A", resolver.getContextBase("20", 10));
+        assertEquals("C", resolver.getContextBase("20", 20));
+        assertEquals("G", resolver.getContextBase("20", 30));
+        assertEquals("T", resolver.getContextBase("20", 40));
+        assertEquals("A", resolver.getContextBase("20", 50));
+        resolver.prefetch(variants);
+        assertEquals(3, cellBaseClient.requestSizes.size());
+    }
+
+    @Test
+    public void testMissingBasesAreNotRequestedAgain() throws Exception {
+        CellBaseContextBaseResolver resolver = new CellBaseContextBaseResolver(cellBaseClient, 100, 2);
+
+        assertNull(resolver.getContextBase("20", 15));
+        assertNull(resolver.getContextBase("20", 15));
+        resolver.prefetch(Collections.singletonList(new Variant("20", 16, 16, "", "T")));
+        assertEquals(Collections.singletonList(1), cellBaseClient.requestSizes);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedBaseIsEvicted() throws Exception {
+        CellBaseContextBaseResolver resolver = new CellBaseContextBaseResolver(cellBaseClient, 2, 2);
+
+        assertEquals("A", resolver.getContextBase("20", 10));
+        assertEquals("C", resolver.getContextBase("20", 20));
+        assertEquals(2, cellBaseClient.requestSizes.size());
+
+        // using the base 10 leaves the base 20 as the least recently used, so it is the one evicted by the base 30
+        assertEquals("A", resolver.getContextBase("20", 10));
+        assertEquals(2, cellBaseClient.requestSizes.size());
+        assertEquals("G", resolver.getContextBase("20", 30));
+        assertEquals(3, cellBaseClient.requestSizes.size());
+
+        assertEquals("A", resolver.getContextBase("20", 10));
+        assertEquals(3, cellBaseClient.requestSizes.size());
+        assertEquals("C", resolver.getContextBase("20", 20));
+        assertEquals(4, cellBaseClient.requestSizes.size());
+    }
+
+    /**
+     * Answers the sequence requests with the bases it knows, and keeps the number of regions of every request.
+     */
+    private static class StubCellBaseClient extends CellBaseClient {
+
+        private final Map<String, String> bases = new HashMap<>();
+        private final List<Integer> requestSizes = new ArrayList<>();
+
+        StubCellBaseClient() throws URISyntaxException {
+            super(new URI("http://localhost:8080/cellbase/webservices/rest"), "v3", "hsapiens");
+        }
+
+        @Override
+        public QueryResponse<QueryResult<GenomeSequenceFeature>> getSequence(Category category,
+                                                                             SubCategory subCategory,
+                                                                             List<Region> regions,
+                                                                             QueryOptions queryOptions) {
+            requestSizes.add(regions.size());
+            List<QueryResult<GenomeSequenceFeature>> results = new ArrayList<>();
+            for (Region region : regions) {
+                String base = bases.get(region.getChromosome() + ":" + region.getStart());
+                List<GenomeSequenceFeature> features = base == null ? Collections.<GenomeSequenceFeature>emptyList()
+                        : Collections.singletonList(new GenomeSequenceFeature(region.getChromosome(),
+                        region.getStart(), region.getEnd(), base));
+                results.add(new QueryResult<>(region.toString(), 0, features.size(), features.size(), null, null,
+                        features));
+            }
+            return new QueryResponse<>(queryOptions, results);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Region;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The test BED file has a track line, a comment, an empty line and an empty interval besides the 4 actual intervals.
+ */
+public class ExportRegionsTest {
+
+    @Test
+    public void testParseRegions() throws Exception {
+        List<Region> regions = ExportRegions.parseRegions("1:1000-2000, X:5-5,Y");
+        assertEquals(Arrays.asList("1:1000-2000", "X:5-5", "Y:1-" + Integer.MAX_VALUE), ExportRegions.toQuery(regions));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegionEndingBeforeItsStart() throws Exception {
+        ExportRegions.parseRegions("1:2000-1000");
+    }
+
+    @Test
+    public void testMalformedRegions() throws Exception {
+        for (String region : Arrays.asList("1:", "1:1-2-3", "1:a-b", ":1-2")) {
+            try {
+                ExportRegions.parseRegions(region);
+                fail("The region " + region + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertEquals("Malformed region: " + region, e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testReadBed() throws Exception {
+        String bed = ExportRegionsTest.class.getResource("/regions.bed").getFile();
+        List<Region> regions = ExportRegions.readBed(Paths.get(bed));
+        assertEquals(Arrays.asList("20:60000-60100", "20:60051-60200", "1:1000-2000", "20:101-200"),
+                ExportRegions.toQuery(regions));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        List<Region> regions = ExportRegions.parseRegions("20:60051-60200,20:60000-60100,1:1000-2000,20:101-200,"
+                + "20:201-300,1:3000-4000,1:1500-1600");
+        assertEquals(Arrays.asList("20:101-300", "20:60000-60200", "1:1000-2000", "1:3000-4000"),
+                ExportRegions.toQuery(ExportRegions.merge(regions)));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.*;
+
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The test reference has two sequences, "20" and "chrY", in lines of 10 bases.
+ */
+public class IndexedFastaSequenceProviderTest {
+
+    private static IndexedFastaSequenceProvider provider;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String fasta = IndexedFastaSequenceProviderTest.class.getResource("/reference.fa").getFile();
+        provider = new IndexedFastaSequenceProvider(Paths.get(fasta));
+    }
+
+    @Test
+    public void testGetContextBase() throws Exception {
+        assertEquals("A", provider.getContextBase("20", 1));
+        assertEquals("A", provider.getContextBase("20", 10));
+        assertEquals("C", provider.getContextBase("20", 11));
+        assertEquals("A", provider.getContextBase("20", 31));
+        assertEquals("C", provider.getContextBase("chrY", 9));
+    }
+
+    @Test
+    public void testLowerCaseBasesAreReturnedInUpperCase() throws Exception {
+        assertEquals("A", provider.getContextBase("20", 17));
+        assertEquals("T", provider.getContextBase("20", 20));
+    }
+
+    @Test
+    public void testChromosomePrefix() throws Exception {
+        assertEquals("T", provider.getContextBase("Y", 1));
+        assertEquals("C", provider.getContextBase("chr20", 2));
+    }
+
+    @Test
+    public void testOutOfRange() throws Exception {
+        assertNull(provider.getContextBase("20", 0));
+        assertNull(provider.getContextBase("20", 32));
+        assertNull(provider.getContextBase("1", 1));
+    }
+
+    @Test
+    public void testFillEmptyAlleles() throws Exception {
+        final VariantSource variantSource = new VariantSource("name", "fileId", "studyId", "studyName");
+        variantSource.setSamples(Arrays.asList("s0", "s1"));
+        Map<String, VariantSource> sources = Collections.singletonMap(variantSource.getStudyId(), variantSource);
+
+        // the deletion is normalized as "C" to "" in the base 11, so the base 10 is taken as context
+        List<Variant> variants = new VariantVcfFactory().create(variantSource, "20\t11\tid\tCC\tC\t100\tPASS\t.\tGT\t0|0\t0|1");
+        VariantContext variantContext = new VariantExporter(provider, 1)
+                .convertBiodataVariantToVariantContext(variants.get(0), sources).get(variantSource.getStudyId());
+
+        assertEquals(10, variantContext.getStart());
+        assertEquals("AC", variantContext.getReference().getBaseString());
+        assertEquals("A", variantContext.getAlternateAllele(0).getBaseString());
+    }
+}
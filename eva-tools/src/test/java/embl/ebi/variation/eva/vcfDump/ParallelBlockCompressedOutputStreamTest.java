@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package embl.ebi.variation.eva.vcfDump;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexCreator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The data has a random part, that doesn't compress and is stored as it is, and a repetitive one.
+ */
+public class ParallelBlockCompressedOutputStreamTest {
+
+    private static final int LENGTH = 1000000;
+
+    @Test
+    public void testSameBlocksAsHtsjdk() throws Exception {
+        byte[] data = createData();
+
+        ByteArrayOutputStream htsjdkBytes = new ByteArrayOutputStream();
+        write(data, new BlockCompressedOutputStream(htsjdkBytes, null, 5));
+        ByteArrayOutputStream parallelBytes = new ByteArrayOutputStream();
+        write(data, new ParallelBlockCompressedOutputStream(parallelBytes, 4, 5));
+
+        assertArrayEquals(htsjdkBytes.toByteArray(), parallelBytes.toByteArray());
+    }
+
+    @Test
+    public void testCompressionLevel() throws Exception {
+        byte[] data = createData();
+
+        ByteArrayOutputStream parallelBytes = new ByteArrayOutputStream();
+        write(data, new ParallelBlockCompressedOutputStream(parallelBytes, 3, 9));
+
+        BlockCompressedInputStream input =
+                new BlockCompressedInputStream(new ByteArrayInputStream(parallelBytes.toByteArray()));
+        byte[] decompressed = new byte[LENGTH];
+        int read = 0;
+        while (read < LENGTH) {
+            read += input.read(decompressed, read, LENGTH - read);
+        }
+        input.close();
+        assertArrayEquals(data, decompressed);
+    }
+
+    @Test
+    public void testIndexedFeaturesVirtualOffsets() throws Exception {
+        File file = File.createTempFile("indexed", ".gz");
+        file.deleteOnExit();
+        ParallelBlockCompressedOutputStream outputStream = new ParallelBlockCompressedOutputStream(file, 3, 5);
+        RecordingIndexCreator indexCreator = new RecordingIndexCreator();
+        outputStream.setIndexCreator(indexCreator);
+
+        Random random = new Random(1);
+        List<String> lines = new ArrayList<>();
+        for (int position = 1; position < 100000; position++) {
+            StringBuilder line = new StringBuilder("1\t").append(position).append('\t');
+            for (int i = random.nextInt(20); i > 0; i--) {
+                line.append("ACGT".charAt(random.nextInt(4)));
+            }
+            lines.add(line.toString());
+            outputStream.addFeature(new SimpleFeature("1", position, position));
+            outputStream.write((line + "\n").getBytes());
+            if (position % 30000 == 0) {
+                outputStream.flush();
+            }
+        }
+        outputStream.close();
+
+        assertEquals(lines.size(), indexCreator.filePositions.size());
+        BlockCompressedInputStream input = new BlockCompressedInputStream(file);
+        for (int i = 0; i < lines.size(); i++) {
+            input.seek(indexCreator.filePositions.get(i));
+            assertEquals(lines.get(i), input.readLine());
+        }
+        input.seek(indexCreator.finalFilePosition);
+        assertEquals(null, input.readLine());
+        input.close();
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void testUnderlyingStreamClosedWhenIndexFails() throws Exception {
+        final boolean[] closed = {false};
+        OutputStream underlyingStream = new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+        ParallelBlockCompressedOutputStream outputStream = new ParallelBlockCompressedOutputStream(underlyingStream, 2, 5);
+        outputStream.setIndexCreator(new RecordingIndexCreator() {
+            @Override
+            public Index finalizeIndex(long finalFilePosition) {
+                throw new IllegalStateException("The index can't be finalized");
+            }
+        });
+        outputStream.write(createData());
+
+        try {
+            outputStream.close();
+            fail("The index failure should reach the caller");
+        } catch (IllegalStateException e) {
+            assertTrue(closed[0]);
+        }
+    }
+
+    private static byte[] createData() {
+        byte[] data = new byte[LENGTH];
+        new Random(1).nextBytes(data);
+        for (int i = LENGTH / 2; i < LENGTH; i++) {
+            data[i] = (byte) "ACGT".charAt(i % 4);
+        }
+        return data;
+    }
+
+    /**
+     * Writes in chunks of different sizes, flushing in the middle, to end some blocks before they are full.
+     */
+    private static void write(byte[] data, OutputStream outputStream) throws IOException {
+        int offset = 0;
+        for (int chunk = 1; offset < data.length; chunk = chunk * 7 % 100003) {
+            int length = Math.min(chunk, data.length - offset);
+            outputStream.write(data, offset, length);
+            offset += length;
+            if (chunk % 10 == 0) {
+                outputStream.flush();
+            }
+        }
+        outputStream.close();
+    }
+
+    private static class RecordingIndexCreator implements IndexCreator {
+        private final List<Long> filePositions = new ArrayList<>();
+        private long finalFilePosition;
+
+        @Override
+        public void addFeature(Feature feature, long filePosition) {
+            filePositions.add(filePosition);
+        }
+
+        @Override
+        public Index finalizeIndex(long finalFilePosition) {
+            this.finalFilePosition = finalFilePosition;
+            return null;
+        }
+    }
+}
@@ -17,15 +17,20 @@ package embl.ebi.variation.eva.vcfDump;
 
 import com.mongodb.DB;
 import com.mongodb.MongoClient;
+import htsjdk.tribble.readers.TabixReader;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+import org.apache.commons.lang.StringUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.opencb.biodata.models.feature.Region;
 import org.opencb.biodata.models.variant.*;
+import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
 import org.opencb.cellbase.core.client.CellBaseClient;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.opencga.lib.common.Config;
@@ -34,6 +39,7 @@ import org.opencb.opencga.storage.core.variant.VariantStorageManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantSourceDBAdaptor;
+import org.opencb.opencga.storage.mongodb.variant.DBObjectToVariantSourceConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,9 +47,12 @@ import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.zip.GZIPInputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -135,6 +144,182 @@ public class VariantExporterTest {
         }
     }
 
+    @Test
+    public void testVcfHtsExportSeveralStudiesInParallel() throws Exception {
+
+        QueryOptions query = new QueryOptions();
+        List<String> files = Arrays.asList("5", "6");
+        List<String> studies = Arrays.asList("7", "8");
+        query.put(VariantDBAdaptor.FILES, files);
+        query.put(VariantDBAdaptor.STUDIES, studies);
+        String outputDir = "/tmp/";
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(DB_NAME, null);
+        VariantDBIterator iterator = variantDBAdaptor.iterator(query);
+        VariantSourceDBAdaptor variantSourceDBAdaptor = variantDBAdaptor.getVariantSourceDBAdaptor();
+
+        VariantExporter variantExporter = new VariantExporter(cellBaseClient, 4);
+        List<String> outputFiles = variantExporter.VcfHtsExport(iterator, outputDir, variantSourceDBAdaptor, query);
+
+        ////////// checks
+
+        assertEquals(studies.size(), outputFiles.size());
+        assertEquals(0, variantExporter.getFailedVariants());
+
+        // for study 7
+        query.put(VariantDBAdaptor.STUDIES, Collections.singletonList("7"));
+        iterator = variantDBAdaptor.iterator(query);
+        assertEquals(countRows(iterator), countLines(outputFiles.get(0)));
+
+        // for study 8
+        query.put(VariantDBAdaptor.STUDIES, Collections.singletonList("8"));
+        iterator = variantDBAdaptor.iterator(query);
+        assertEquals(countRows(iterator), countLines(outputFiles.get(1)));
+
+        for (String outputFile : outputFiles) {
+            boolean delete = new File(outputFile).delete();
+            assertTrue(delete);
+        }
+    }
+
+    @Test
+    public void testDirectWritingIsIdenticalToHtsjdk() throws Exception {
+
+        QueryOptions query = new QueryOptions();
+        List<String> files = Arrays.asList("5", "6");
+        List<String> studies = Arrays.asList("7", "8");
+        query.put(VariantDBAdaptor.FILES, files);
+        query.put(VariantDBAdaptor.STUDIES, studies);
+        String htsjdkOutputDir = Files.createTempDirectory("htsjdk").toString();
+        String directOutputDir = Files.createTempDirectory("direct").toString();
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(DB_NAME, null);
+        VariantSourceDBAdaptor variantSourceDBAdaptor = variantDBAdaptor.getVariantSourceDBAdaptor();
+
+        VariantExporter htsjdkExporter = new VariantExporter(cellBaseClient);
+        List<String> htsjdkFiles = htsjdkExporter.VcfHtsExport(variantDBAdaptor.iterator(query), htsjdkOutputDir,
+                variantSourceDBAdaptor, query);
+
+        VariantExporter directExporter = new VariantExporter(cellBaseClient, 4);
+        directExporter.setDirectWriting(true);
+        List<String> directFiles = directExporter.VcfHtsExport(variantDBAdaptor.iterator(query), directOutputDir,
+                variantSourceDBAdaptor, query);
+
+        ////////// checks
+
+        assertEquals(studies.size(), directFiles.size());
+        assertEquals(htsjdkExporter.getFailedVariants(), directExporter.getFailedVariants());
+
+        for (int i = 0; i < studies.size(); i++) {
+            assertArrayEquals(Files.readAllBytes(Paths.get(htsjdkFiles.get(i))),
+                    Files.readAllBytes(Paths.get(directFiles.get(i))));
+            assertTrue(new File(htsjdkFiles.get(i)).delete());
+            assertTrue(new File(directFiles.get(i)).delete());
+        }
+    }
+
+    @Test
+    public void testExportQueryOptionsWriteTheSameFiles() throws Exception {
+
+        QueryOptions query = new QueryOptions();
+        List<String> files = Arrays.asList("5", "6");
+        List<String> studies = Arrays.asList("7", "8");
+        query.put(VariantDBAdaptor.FILES, files);
+        query.put(VariantDBAdaptor.STUDIES, studies);
+        String fullOutputDir = Files.createTempDirectory("full").toString();
+        String projectedOutputDir = Files.createTempDirectory("projected").toString();
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(DB_NAME, null);
+        VariantSourceDBAdaptor variantSourceDBAdaptor = variantDBAdaptor.getVariantSourceDBAdaptor();
+
+        VariantExporter fullExporter = new VariantExporter(cellBaseClient);
+        List<String> fullFiles = fullExporter.VcfHtsExport(variantDBAdaptor.iterator(query), fullOutputDir,
+                variantSourceDBAdaptor, query);
+
+        VariantExporter projectedExporter = new VariantExporter(cellBaseClient);
+        List<String> projectedFiles = projectedExporter.VcfHtsExport(
+                variantDBAdaptor.iterator(VariantExporter.getExportQueryOptions(query)), projectedOutputDir,
+                variantSourceDBAdaptor, query);
+
+        ////////// checks
+
+        assertEquals(studies.size(), projectedFiles.size());
+        assertEquals(fullExporter.getFailedVariants(), projectedExporter.getFailedVariants());
+
+        // the projection leaves out the annotation and the cohort stats
+        VariantDBIterator projectedIterator = variantDBAdaptor.iterator(VariantExporter.getExportQueryOptions(query));
+        assertTrue(projectedIterator.hasNext());
+        while (projectedIterator.hasNext()) {
+            Variant variant = projectedIterator.next();
+            VariantAnnotation annotation = variant.getAnnotation();
+            assertTrue(annotation == null || (isNullOrEmpty(annotation.getConsequenceTypes())
+                    && isNullOrEmpty(annotation.getXrefs())));
+            for (VariantSourceEntry sourceEntry : variant.getSourceEntries().values()) {
+                assertTrue(sourceEntry.getCohortStats() == null || sourceEntry.getCohortStats().isEmpty());
+            }
+        }
+
+        for (int i = 0; i < studies.size(); i++) {
+            assertArrayEquals(Files.readAllBytes(Paths.get(fullFiles.get(i))),
+                    Files.readAllBytes(Paths.get(projectedFiles.get(i))));
+            assertTrue(new File(fullFiles.get(i)).delete());
+            assertTrue(new File(projectedFiles.get(i)).delete());
+        }
+    }
+
+    @Test
+    public void testRegionParallelExport() throws Exception {
+
+        QueryOptions query = new QueryOptions();
+        List<String> files = Arrays.asList("5", "6");
+        List<String> studies = Arrays.asList("7", "8");
+        query.put(VariantDBAdaptor.FILES, files);
+        query.put(VariantDBAdaptor.STUDIES, studies);
+        String outputDir = "/tmp/";
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(DB_NAME, null);
+
+        // the headers of the test files don't have the contig of the variants, 20
+        RegionParallelExporter exporter = new RegionParallelExporter(variantDBAdaptor, cellBaseClient, 4, 10000);
+        List<String> outputFiles = exporter.VcfHtsExport(outputDir, query, Collections.singletonList("20"));
+
+        String serialOutputDir = Files.createTempDirectory("serial").toString();
+        VariantExporter variantExporter = new VariantExporter(cellBaseClient);
+        List<String> serialFiles = variantExporter.VcfHtsExport(variantDBAdaptor.iterator(query), serialOutputDir,
+                variantDBAdaptor.getVariantSourceDBAdaptor(), query);
+
+        ////////// checks
+
+        assertEquals(studies.size(), outputFiles.size());
+        assertEquals(0, exporter.getFailedVariants());
+
+        // for study 7
+        query.put(VariantDBAdaptor.STUDIES, Collections.singletonList("7"));
+        VariantDBIterator iterator = variantDBAdaptor.iterator(query);
+        assertEquals(countRows(iterator), countLines(outputFiles.get(0)));
+
+        // for study 8
+        query.put(VariantDBAdaptor.STUDIES, Collections.singletonList("8"));
+        iterator = variantDBAdaptor.iterator(query);
+        assertEquals(countRows(iterator), countLines(outputFiles.get(1)));
+
+        // the merged files have the same records as the serial export, in the same order
+        for (int i = 0; i < studies.size(); i++) {
+            assertSingleTerminatorBlock(outputFiles.get(i));
+            assertEquals(readRecords(serialFiles.get(i)), readRecords(outputFiles.get(i)));
+            assertTrue(new File(serialFiles.get(i)).delete());
+        }
+
+        for (String outputFile : outputFiles) {
+            boolean delete = new File(outputFile).delete();
+            assertTrue(delete);
+        }
+    }
+
     @Test
     public void testFilter() throws Exception {
 
@@ -173,6 +358,117 @@ public class VariantExporterTest {
         }
     }
 
+    @Test
+    public void testRegionFilteredExport() throws Exception {
+
+        QueryOptions query = new QueryOptions();
+        List<String> files = Arrays.asList("5", "6");
+        List<String> studies = Arrays.asList("7", "8");
+        query.put(VariantDBAdaptor.FILES, files);
+        query.put(VariantDBAdaptor.STUDIES, studies);
+        List<Region> regions = ExportRegions.parseRegions("20:60000-65000,20:68000-70000");
+        query.put(VariantDBAdaptor.REGION, ExportRegions.toQuery(regions));
+        String outputDir = "/tmp/";
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(DB_NAME, null);
+
+        RegionParallelExporter exporter = new RegionParallelExporter(variantDBAdaptor, cellBaseClient, 4, 1000);
+        List<String> outputFiles = exporter.VcfHtsExport(outputDir, query, null);
+
+        String serialOutputDir = Files.createTempDirectory("serial").toString();
+        VariantExporter variantExporter = new VariantExporter(cellBaseClient);
+        List<String> serialFiles = variantExporter.VcfHtsExport(variantDBAdaptor.iterator(query), serialOutputDir,
+                variantDBAdaptor.getVariantSourceDBAdaptor(), query);
+
+        ////////// checks
+
+        assertEquals(studies.size(), outputFiles.size());
+        assertEquals(0, exporter.getFailedVariants());
+
+        // the same variants as a query of the regions, for study 7
+        query.put(VariantDBAdaptor.STUDIES, Collections.singletonList("7"));
+        VariantDBIterator iterator = variantDBAdaptor.iterator(query);
+        assertEquals(countRows(iterator), countLines(outputFiles.get(0)));
+
+        // and the same records as the serial export of the regions, in the same order, for every study
+        for (int i = 0; i < studies.size(); i++) {
+            assertSingleTerminatorBlock(outputFiles.get(i));
+            assertEquals(readRecords(serialFiles.get(i)), readRecords(outputFiles.get(i)));
+            assertTrue(new File(serialFiles.get(i)).delete());
+        }
+
+        for (String outputFile : outputFiles) {
+            boolean delete = new File(outputFile).delete();
+            assertTrue(delete);
+        }
+    }
+
+    @Test
+    public void testIndexedExport() throws Exception {
+
+        QueryOptions query = new QueryOptions();
+        List<String> files = Arrays.asList("5", "6");
+        List<String> studies = Arrays.asList("7", "8");
+        query.put(VariantDBAdaptor.FILES, files);
+        query.put(VariantDBAdaptor.STUDIES, studies);
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(DB_NAME, null);
+        VariantSourceDBAdaptor variantSourceDBAdaptor = variantDBAdaptor.getVariantSourceDBAdaptor();
+
+        // the htsjdk writers index through IndexingWriter, the direct writing through TextOutput
+        for (boolean directWriting : new boolean[]{false, true}) {
+            String outputDir = Files.createTempDirectory("indexed").toString();
+            VariantExporter variantExporter = new VariantExporter(cellBaseClient, 4);
+            variantExporter.setDirectWriting(directWriting);
+            variantExporter.setIndexing(true);
+            List<String> outputFiles = variantExporter.VcfHtsExport(variantDBAdaptor.iterator(query), outputDir,
+                    variantSourceDBAdaptor, query);
+
+            ////////// checks
+
+            assertEquals(studies.size(), outputFiles.size());
+            for (String outputFile : outputFiles) {
+                assertTabixQueries(outputFile);
+                assertTrue(new File(outputFile + ".tbi").delete());
+                assertTrue(new File(outputFile).delete());
+            }
+        }
+    }
+
+    @Test
+    public void testIndexedRegionParallelExport() throws Exception {
+
+        QueryOptions query = new QueryOptions();
+        List<String> files = Arrays.asList("5", "6");
+        List<String> studies = Arrays.asList("7", "8");
+        query.put(VariantDBAdaptor.FILES, files);
+        query.put(VariantDBAdaptor.STUDIES, studies);
+
+        VariantStorageManager variantStorageManager = StorageManagerFactory.getVariantStorageManager();
+        VariantDBAdaptor variantDBAdaptor = variantStorageManager.getDBAdaptor(DB_NAME, null);
+
+        // small regions, so that the features of many parts are moved to the merged file
+        for (boolean directWriting : new boolean[]{false, true}) {
+            String outputDir = Files.createTempDirectory("indexed").toString();
+            RegionParallelExporter exporter = new RegionParallelExporter(variantDBAdaptor, cellBaseClient, 4, 1000);
+            exporter.setDirectWriting(directWriting);
+            exporter.setIndexing(true);
+            List<String> outputFiles = exporter.VcfHtsExport(outputDir, query, Collections.singletonList("20"));
+
+            ////////// checks
+
+            assertEquals(studies.size(), outputFiles.size());
+            for (String outputFile : outputFiles) {
+                assertTabixQueries(outputFile);
+                assertTrue(new File(outputFile + ".tbi").delete());
+                assertTrue(new File(outputFile).delete());
+            }
+            assertTrue(new File(outputDir).delete());   // without parts left behind
+        }
+    }
+
     @Test
     public void testMissingStudy() throws Exception {
 
@@ -300,6 +596,46 @@ public class VariantExporterTest {
 
     }
 
+    @Test
+    public void testSampleSubset() throws Exception {
+        final VariantSource variantSource = new VariantSource("name", "fileId", "studyId", "studyName");
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            samples.add("s" + i);
+        }
+        variantSource.setSamples(samples);
+        variantSource.getMetadata().put(DBObjectToVariantSourceConverter.HEADER_FIELD,
+                "##fileformat=VCFv4.1\n"
+                        + "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+                        + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t" + StringUtils.join(samples, "\t"));
+        VariantFactory factory = new VariantVcfFactory();
+        Map<String, VariantSource> sources = Collections.singletonMap(variantSource.getStudyId(), variantSource);
+        String studyId = "studyId";
+
+        // the header keeps the requested samples, in the requested order
+        Map<String, VCFHeader> headers = VariantExporter.getVcfHeaders(sources, Arrays.asList("s4", "s1"));
+        assertEquals(Arrays.asList("s4", "s1"), headers.get(studyId).getGenotypeSamples());
+
+        // only the requested samples are converted
+        String line = "1\t1000\tid\tC\tA\t100\tPASS\t.\tGT\t0|0\t0|1\t0|1\t1|1\t1|0\t0|1";
+        List<Variant> variants = factory.create(variantSource, line);
+        Map<String, Set<String>> selectedSamples =
+                Collections.<String, Set<String>>singletonMap(studyId, new HashSet<>(Arrays.asList("s4", "s1")));
+
+        VariantExporter variantExporter = new VariantExporter(null);
+        VariantContext variantContext = variantExporter
+                .convertBiodataVariantToVariantContext(variants.get(0), sources, selectedSamples).get(studyId);
+        assertEquals(new TreeSet<>(Arrays.asList("s1", "s4")), new TreeSet<>(variantContext.getSampleNames()));
+        assertEquals(Arrays.asList(Allele.create("C", true), Allele.create("A", false)),
+                variantContext.getGenotype("s1").getAlleles());
+        assertEquals(Arrays.asList(Allele.create("A", false), Allele.create("C", true)),
+                variantContext.getGenotype("s4").getAlleles());
+
+        // a sample that no study has is an error
+        thrown.expect(IllegalArgumentException.class);
+        VariantExporter.getVcfHeaders(sources, Arrays.asList("s1", "s9"));
+    }
+
     /**
      * Clears and populates the Mongo collection used during the tests.
      * @throws java.io.IOException
@@ -400,6 +736,83 @@ public class VariantExporterTest {
         return lines;
     }
 
+    /**
+     * Queries some regions with the tabix index of a file, checking that they return the same records as scanning the
+     * whole file.
+     */
+    private void assertTabixQueries(String fileName) throws IOException {
+        List<String> regions = Arrays.asList("20:60000-65000", "20:68000-70000", "20:1-100000000");
+        TabixReader tabixReader = new TabixReader(fileName);
+        for (String region : regions) {
+            String chromosome = region.substring(0, region.indexOf(':'));
+            int start = Integer.parseInt(region.substring(region.indexOf(':') + 1, region.indexOf('-')));
+            int end = Integer.parseInt(region.substring(region.indexOf('-') + 1));
+
+            List<String> expectedLines = new ArrayList<>();
+            BufferedReader file = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(fileName))));
+            String line;
+            while ((line = file.readLine()) != null) {
+                if (line.charAt(0) != '#') {
+                    String[] fields = line.split("\t", 5);
+                    int position = Integer.parseInt(fields[1]);
+                    if (fields[0].equals(chromosome) && position <= end
+                            && position + fields[3].length() - 1 >= start) {
+                        expectedLines.add(line);
+                    }
+                }
+            }
+            file.close();
+
+            List<String> lines = new ArrayList<>();
+            TabixReader.Iterator iterator = tabixReader.query(region);
+            while ((line = iterator.next()) != null) {
+                lines.add(line);
+            }
+            assertTrue(expectedLines.size() > 0);
+            assertEquals(expectedLines, lines);
+        }
+        tabixReader.close();
+    }
+
+    private static boolean isNullOrEmpty(Collection<?> collection) {
+        return collection == null || collection.isEmpty();
+    }
+
+    /**
+     * @return the lines of a VCF that are not part of the header
+     */
+    private List<String> readRecords(String fileName) throws IOException {
+        List<String> records = new ArrayList<>();
+        BufferedReader file = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(fileName))));
+        String line;
+        while ((line = file.readLine()) != null) {
+            if (line.charAt(0) != '#') {
+                records.add(line);
+            }
+        }
+        file.close();
+        return records;
+    }
+
+    /**
+     * Walks the BGZF blocks of a file, checking that the only empty block is the last one. A GZIPInputStream would
+     * read an empty block in the middle of the file without complaining.
+     */
+    private void assertSingleTerminatorBlock(String fileName) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(fileName));
+        int position = 0;
+        while (position < bytes.length) {
+            int blockSize = ((bytes[position + 16] & 0xff) | (bytes[position + 17] & 0xff) << 8) + 1;
+            int uncompressedSize = (bytes[position + blockSize - 4] & 0xff)
+                    | (bytes[position + blockSize - 3] & 0xff) << 8
+                    | (bytes[position + blockSize - 2] & 0xff) << 16
+                    | (bytes[position + blockSize - 1] & 0xff) << 24;
+            position += blockSize;
+            assertTrue(uncompressedSize > 0 || position == bytes.length);
+        }
+        assertEquals(bytes.length, position);
+    }
+
     private void assertEqualGenotypes(Variant variant, VariantContext variantContext, List<String> alleles) {
         for (Map.Entry<String, Map<String, String>> data : variant.getSourceEntries().values().iterator().next().getSamplesData().entrySet()) {
             Genotype genotype = variantContext.getGenotype(data.getKey());
@@ -0,0 +1,5 @@
+java -jar eva-pipeline/target/eva-pipeline-0.1.jar \
+ --spring.batch.job.enabled=false \
+ --daemon.queueDir=queue \
+ --daemon.threads=4 \
+ --opencga.app.home=/opt/opencga/
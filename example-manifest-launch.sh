@@ -0,0 +1,16 @@
+java -jar eva-pipeline/target/eva-pipeline-0.1.jar \
+ --spring.batch.job.names=variantManifestJob \
+ manifest=data/manifest.tsv \
+ ingestThreads=4 \
+ aggregated=NONE \
+ studyType=COLLECTION \
+ studyName=studyName \
+ outputDir= \
+ pedigree= \
+ dbName=batch \
+ storageEngine=mongodb \
+ compressGenotypes=true \
+ compressExtension=.gz \
+ includeSrc=FIRST_8_COLUMNS \
+ skipLoad=false \
+ opencga.app.home=/opt/opencga/